@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.docker;
+
+import com.google.inject.Inject;
+import com.google.inject.ProvisionException;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.github.dockerjava.core.DockerClientConfig;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.docker.conf.ConfigurationService;
+import org.apache.guacamole.docker.ContainerPool;
+import org.apache.guacamole.docker.ContainerSnapshotCache;
+import org.apache.guacamole.docker.ContainerSpec;
+import org.apache.guacamole.docker.DockerCluster;
+import org.apache.guacamole.docker.DockerStartupClient;
+import org.apache.guacamole.docker.ImageManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Guice provider which lazily creates the single DockerCluster shared by
+ * all users of this extension, with one DockerStartupClient per configured
+ * Docker host, and which closes those clients when the extension is shut
+ * down.
+ */
+@Singleton
+public class DockerClusterProvider implements Provider<DockerCluster> {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DockerClusterProvider.class);
+
+    /**
+     * The configuration service that handles guacamole.properties entries
+     * for this extension.
+     */
+    @Inject
+    private ConfigurationService confService;
+
+    /**
+     * The shared cluster, or null if it has not yet been created or has been
+     * closed.
+     */
+    private DockerCluster cluster;
+
+    @Override
+    public synchronized DockerCluster get() {
+
+        if (cluster == null) {
+            
+            List<DockerStartupClient> clients = new ArrayList<>();
+            try {
+                List<DockerClientConfig> configs = confService.getDockerClientConfigs();
+                
+                // An address for guacd can only stand in for a single host
+                String hostAddress = confService.getDockerHostAddress();
+                if (hostAddress != null && configs.size() > 1) {
+                    logger.warn("Ignoring docker-host-address, as more than "
+                            + "one Docker host is configured.");
+                    hostAddress = null;
+                }
+                
+                for (DockerClientConfig config : configs)
+                    clients.add(createClient(config, hostAddress));
+                
+                cluster = new DockerCluster(clients,
+                        confService.getDockerPlacementStrategy(),
+                        confService.getDockerLoadRefreshInterval());
+                cluster.start();
+            }
+            catch (GuacamoleException e) {
+                for (DockerStartupClient client : clients)
+                    closeQuietly(client);
+                throw new ProvisionException("Unable to create Docker client.", e);
+            }
+        }
+
+        return cluster;
+
+    }
+
+    /**
+     * Create a client for the Docker host of the given configuration, with
+     * all optional behavior enabled as configured.
+     * 
+     * @param config
+     *     The configuration of the Docker host.
+     * 
+     * @param hostAddress
+     *     The address guacd should use to reach the Docker host, or null to
+     *     resolve the Docker host.
+     * 
+     * @return
+     *     A new client for the Docker host.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private DockerStartupClient createClient(DockerClientConfig config,
+            String hostAddress) throws GuacamoleException {
+        
+        logger.debug(">>>DOCKER<<< Creating shared Docker client for {}.",
+                config.getDockerHost());
+        DockerStartupClient client = new DockerStartupClient(config,
+                confService.getRegistryAuthConfig(),
+                confService.getDockerMaxConnections(),
+                confService.getDockerConnectionIdleTimeout(),
+                new ContainerSnapshotCache(
+                        confService.getDockerInspectCacheTtl(),
+                        confService.getDockerInspectCacheSize()),
+                confService.getDockerTrackEvents(),
+                confService.getDockerAsyncThreads(),
+                confService.getDockerAsyncQueueSize(),
+                confService.getDockerCallTimeout());
+        
+        try {
+            client.configureHostAddress(hostAddress,
+                    confService.getDockerHostResolveTtl());
+            
+            String network = confService.getDockerNetwork();
+            if (network != null && !network.isEmpty())
+                client.attachToNetwork(network);
+            
+            String directNetwork = confService.getDockerDirectNetwork();
+            if (directNetwork != null && !directNetwork.isEmpty())
+                client.enableDirectConnections(directNetwork);
+            
+            int circuitFailures = confService.getDockerCircuitFailures();
+            if (circuitFailures > 0)
+                client.enableCircuitBreaker(circuitFailures,
+                        confService.getDockerCircuitCooldown());
+            
+            int maxStarts = confService.getDockerMaxConcurrentStarts();
+            if (maxStarts > 0)
+                client.enableAdmissionControl(maxStarts,
+                        confService.getDockerStartQueueSize(),
+                        confService.getDockerStartQueueTimeout());
+            
+            int readyTimeout = confService.getDockerReadyTimeout();
+            if (readyTimeout > 0)
+                client.enableReadinessProbe(readyTimeout);
+            
+            int idleTimeout = confService.getDockerIdleTimeout();
+            if (idleTimeout > 0)
+                client.enableContainerReaper(idleTimeout,
+                        confService.getDockerSuspendIdle());
+            
+            // Keep containers of the configured image ready, if pooling
+            int poolSize = confService.getDockerPoolSize();
+            if (poolSize > 0) {
+                ContainerPool pool = client.enableContainerPool(poolSize,
+                        confService.getDockerPoolMaxSize(),
+                        confService.getDockerPoolPrestart());
+                ContainerSpec spec = confService.getDockerImageSpec();
+                if (spec != null)
+                    pool.register(spec);
+            }
+        }
+        catch (GuacamoleException e) {
+            closeQuietly(client);
+            throw e;
+        }
+        
+        return client;
+        
+    }
+    
+    /**
+     * Close the given client, logging rather than propagating any error.
+     * 
+     * @param client
+     *     The client to close.
+     */
+    private static void closeQuietly(DockerStartupClient client) {
+        try {
+            client.close();
+        }
+        catch (IOException e) {
+            logger.debug("Error closing Docker client.", e);
+        }
+    }
+
+    /**
+     * Begin pulling all images configured to be pulled at startup, such that
+     * they are already present when first needed.  This returns immediately;
+     * failures are logged.
+     */
+    public void prepullImages() {
+        
+        List<String> images;
+        List<DockerStartupClient> clients;
+        try {
+            images = confService.getDockerPrepullImages();
+            clients = get().getClients();
+        }
+        catch (GuacamoleException | ProvisionException e) {
+            logger.warn("Unable to pull configured Docker images: {}", e.getMessage());
+            logger.debug("Error determining images to pull.", e);
+            return;
+        }
+        
+        // Any host may be chosen for a new container, so pull to every host
+        for (DockerStartupClient client : clients) {
+            ImageManager imageManager = client.getImageManager();
+            for (String image : images) {
+                imageManager.ensureImage(image).whenComplete((present, error) -> {
+                    if (error != null) {
+                        logger.warn("Unable to pull Docker image {} to {}: {}", image,
+                                client.getConfig().getDockerHost(), error.getMessage());
+                        logger.debug("Error pulling Docker image.", error);
+                    }
+                });
+            }
+        }
+        
+    }
+    
+    /**
+     * Begin creating the configured Docker network on every host, if
+     * configured to do so and it does not already exist.  This returns
+     * immediately; failures are logged, as containers may still be created
+     * if the network is later created by other means.
+     */
+    public void createNetwork() {
+        
+        String network;
+        String driver;
+        Map<String, String> options;
+        List<DockerStartupClient> clients;
+        try {
+            network = confService.getDockerNetwork();
+            if (network == null || network.isEmpty() || !confService.getDockerNetworkCreate())
+                return;
+            
+            driver = confService.getDockerNetworkDriver();
+            options = confService.getDockerNetworkOptions();
+            clients = get().getClients();
+        }
+        catch (GuacamoleException | ProvisionException e) {
+            logger.warn("Unable to create Docker network: {}", e.getMessage());
+            logger.debug("Error creating Docker network.", e);
+            return;
+        }
+        
+        for (DockerStartupClient client : clients) {
+            client.createNetworkAsync(network, driver, options).whenComplete((created, error) -> {
+                if (error != null) {
+                    logger.warn("Unable to create Docker network on {}: {}",
+                            client.getConfig().getDockerHost(), error.getMessage());
+                    logger.debug("Error creating Docker network.", error);
+                }
+                else if (created)
+                    logger.info("Created Docker network {} on {}.", network,
+                            client.getConfig().getDockerHost());
+            });
+        }
+        
+    }
+    
+    /**
+     * Close the shared cluster and the clients of all of its hosts, if it
+     * has been created.  Any subsequent request for a cluster will create a
+     * new one.
+     */
+    public synchronized void shutdown() {
+
+        if (cluster == null)
+            return;
+
+        try {
+            cluster.close();
+        }
+        catch (IOException e) {
+            logger.warn("Unable to close Docker client: {}", e.getMessage());
+            logger.debug("Error closing Docker client.", e);
+        }
+
+        cluster = null;
+
+    }
+
+}
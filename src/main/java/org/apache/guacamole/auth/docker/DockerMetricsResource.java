@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.auth.docker;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.docker.DockerCluster;
+import org.apache.guacamole.docker.DockerMetrics;
+import org.apache.guacamole.docker.DockerStartupException;
+import org.apache.guacamole.docker.HostLoad;
+import org.apache.guacamole.docker.HostStats;
+import org.apache.guacamole.docker.LatencyTimer;
+
+/**
+ * A REST resource serving the timers of Docker operations and the state of
+ * each Docker host in the Prometheus text exposition format, for scraping
+ * at "api/ext/docker-startup/metrics".  This resource requires no
+ * authentication, and is only exposed if enabled in guacamole.properties.
+ */
+public class DockerMetricsResource {
+
+    /**
+     * The prefix of the name of every metric served.
+     */
+    private static final String PREFIX = "guacamole_docker_";
+
+    /**
+     * The quantiles reported for each timer.
+     */
+    private static final double[] QUANTILES = { 0.5, 0.99 };
+
+    /**
+     * Provider of the DockerCluster shared by all users of this extension.
+     */
+    @Inject
+    private Provider<DockerCluster> clusterProvider;
+
+    /**
+     * Return the current value of all metrics.
+     *
+     * @return
+     *     All metrics, in the Prometheus text exposition format.
+     *
+     * @throws GuacamoleException
+     *     If the Docker clients cannot be created.
+     */
+    @GET
+    @Path("metrics")
+    @Produces("text/plain; version=0.0.4")
+    public String getMetrics() throws GuacamoleException {
+
+        DockerCluster cluster;
+        try {
+            cluster = clusterProvider.get();
+        }
+        catch (ProvisionException e) {
+            throw new DockerStartupException("Unable to retrieve Docker client.", e);
+        }
+
+        StringBuilder output = new StringBuilder();
+        appendTimers(output, cluster.getMetrics());
+        appendHosts(output, cluster.getLoads());
+        return output.toString();
+
+    }
+
+    /**
+     * Append each timer as a summary of its duration in seconds, along with
+     * a counter of the failed operations it recorded.  All timers of the
+     * same metric are grouped together, as the format requires.
+     *
+     * @param output
+     *     The output to append to.
+     *
+     * @param metrics
+     *     The metrics whose timers are to be appended.
+     */
+    private static void appendTimers(StringBuilder output,
+            DockerMetrics metrics) {
+
+        Map<String, List<Map.Entry<DockerMetrics.Key, LatencyTimer>>> byName =
+                new TreeMap<>();
+        for (Map.Entry<DockerMetrics.Key, LatencyTimer> timer : metrics.getTimers().entrySet())
+            byName.computeIfAbsent(timer.getKey().getName(),
+                    name -> new ArrayList<>()).add(timer);
+
+        for (Map.Entry<String, List<Map.Entry<DockerMetrics.Key, LatencyTimer>>> metric
+                : byName.entrySet()) {
+
+            String name = PREFIX + metric.getKey() + "_seconds";
+            output.append("# TYPE ").append(name).append(" summary\n");
+            for (Map.Entry<DockerMetrics.Key, LatencyTimer> timer : metric.getValue()) {
+                Map<String, String> labels = timer.getKey().getLabels();
+                LatencyTimer values = timer.getValue();
+                for (double quantile : QUANTILES)
+                    appendSample(output, name, labels, "quantile",
+                            Double.toString(quantile),
+                            values.getPercentile(quantile) / 1000);
+                appendSample(output, name + "_sum", labels, null, null,
+                        values.getTotal() / 1000);
+                appendSample(output, name + "_count", labels, null, null,
+                        values.getCount());
+            }
+
+            String errors = PREFIX + metric.getKey() + "_errors_total";
+            output.append("# TYPE ").append(errors).append(" counter\n");
+            for (Map.Entry<DockerMetrics.Key, LatencyTimer> timer : metric.getValue())
+                appendSample(output, errors, timer.getKey().getLabels(), null,
+                        null, timer.getValue().getErrorCount());
+
+        }
+
+    }
+
+    /**
+     * Append the state of each Docker host as a set of gauges and counters
+     * labelled by host.
+     *
+     * @param output
+     *     The output to append to.
+     *
+     * @param loads
+     *     The last observed load of each host.
+     */
+    private static void appendHosts(StringBuilder output, List<HostLoad> loads) {
+
+        List<HostStats> hosts = new ArrayList<>(loads.size());
+        for (HostLoad load : loads)
+            hosts.add(new HostStats(load.getClient(), () -> load));
+
+        output.append("# TYPE " + PREFIX + "host_up gauge\n");
+        for (HostStats host : hosts)
+            appendHostSample(output, "host_up", host,
+                    "OPEN".equals(host.getCircuitState()) ? 0 : 1);
+
+        output.append("# TYPE " + PREFIX + "host_calls_refused_total counter\n");
+        for (HostStats host : hosts)
+            appendHostSample(output, "host_calls_refused_total", host,
+                    host.getCallsRefused());
+
+        output.append("# TYPE " + PREFIX + "host_containers gauge\n");
+        for (HostStats host : hosts)
+            appendHostSample(output, "host_containers", host,
+                    host.getContainers());
+
+        output.append("# TYPE " + PREFIX + "host_free_memory_bytes gauge\n");
+        for (HostStats host : hosts)
+            appendHostSample(output, "host_free_memory_bytes", host,
+                    host.getFreeMemory());
+
+        output.append("# TYPE " + PREFIX + "host_starts_in_flight gauge\n");
+        for (HostStats host : hosts)
+            appendHostSample(output, "host_starts_in_flight", host,
+                    host.getStartsInFlight());
+
+        output.append("# TYPE " + PREFIX + "host_start_queue_depth gauge\n");
+        for (HostStats host : hosts)
+            appendHostSample(output, "host_start_queue_depth", host,
+                    host.getStartQueueDepth());
+
+        output.append("# TYPE " + PREFIX + "host_starts_rejected_total counter\n");
+        for (HostStats host : hosts)
+            appendHostSample(output, "host_starts_rejected_total", host,
+                    host.getStartsRejected());
+
+    }
+
+    /**
+     * Append a single sample of the given host metric.
+     *
+     * @param output
+     *     The output to append to.
+     *
+     * @param name
+     *     The name of the metric, without prefix.
+     *
+     * @param host
+     *     The host the sample describes.
+     *
+     * @param value
+     *     The value of the sample.
+     */
+    private static void appendHostSample(StringBuilder output, String name,
+            HostStats host, double value) {
+        appendSample(output, PREFIX + name,
+                Collections.singletonMap("host", host.getHost()),
+                null, null, value);
+    }
+
+    /**
+     * Append a single sample.
+     *
+     * @param output
+     *     The output to append to.
+     *
+     * @param name
+     *     The full name of the sample.
+     *
+     * @param labels
+     *     The labels of the sample.
+     *
+     * @param extraLabel
+     *     The name of an additional label, or null if none.
+     *
+     * @param extraValue
+     *     The value of the additional label, if any.
+     *
+     * @param value
+     *     The value of the sample.
+     */
+    private static void appendSample(StringBuilder output, String name,
+            Map<String, String> labels, String extraLabel, String extraValue,
+            double value) {
+
+        output.append(name);
+
+        Map<String, String> allLabels = new LinkedHashMap<>(labels);
+        if (extraLabel != null)
+            allLabels.put(extraLabel, extraValue);
+
+        if (!allLabels.isEmpty()) {
+            String separator = "{";
+            for (Map.Entry<String, String> label : allLabels.entrySet()) {
+                output.append(separator).append(label.getKey()).append("=\"")
+                        .append(escape(label.getValue())).append('"');
+                separator = ",";
+            }
+            output.append('}');
+        }
+
+        output.append(' ').append(value).append('\n');
+
+    }
+
+    /**
+     * Escape the given label value as required by the format.
+     *
+     * @param value
+     *     The label value to escape.
+     *
+     * @return
+     *     The escaped label value.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+}
@@ -22,6 +22,7 @@ package org.apache.guacamole.auth.docker;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.auth.docker.conf.ConfigurationService;
 import org.apache.guacamole.net.auth.AbstractAuthenticationProvider;
 import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.Credentials;
@@ -49,6 +50,12 @@ public class DockerStartupProvider extends AbstractAuthenticationProvider {
      */
     public DockerStartupProvider() throws GuacamoleException {
         this.injector = Guice.createInjector(new DockerStartupProviderModule(this));
+        
+        // Begin preparing the network and images now rather than on first login
+        DockerClusterProvider clusterProvider =
+                injector.getInstance(DockerClusterProvider.class);
+        clusterProvider.createNetwork();
+        clusterProvider.prepullImages();
     }
     
     @Override
@@ -56,6 +63,18 @@ public class DockerStartupProvider extends AbstractAuthenticationProvider {
         return "docker-startup";
     }
     
+    @Override
+    public Object getResource() throws GuacamoleException {
+        
+        // Metrics are served without authentication, so only if enabled
+        ConfigurationService confService = injector.getInstance(ConfigurationService.class);
+        if (!confService.getDockerMetricsEndpoint())
+            return null;
+        
+        return injector.getInstance(DockerMetricsResource.class);
+        
+    }
+    
     @Override
     public UserContext decorate(UserContext context,
             AuthenticatedUser authenticatedUser, Credentials credentials)
@@ -63,7 +82,7 @@ public class DockerStartupProvider extends AbstractAuthenticationProvider {
         
         DockerStartupService startupService = injector.getInstance(DockerStartupService.class);
         
-        return startupService.decorate(context);
+        return startupService.decorate(context, authenticatedUser);
 
     }
     
@@ -74,7 +93,15 @@ public class DockerStartupProvider extends AbstractAuthenticationProvider {
 
         DockerStartupService startupService = injector.getInstance(DockerStartupService.class);
         
-        return startupService.decorate(context);
+        return startupService.decorate(context, authenticatedUser);
+        
+    }
+    
+    @Override
+    public void shutdown() {
+        
+        // Release the shared Docker clients and their connection pools
+        injector.getInstance(DockerClusterProvider.class).shutdown();
         
     }
     
@@ -22,6 +22,7 @@ package org.apache.guacamole.auth.docker;
 import com.google.inject.AbstractModule;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.docker.conf.ConfigurationService;
+import org.apache.guacamole.docker.DockerCluster;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.environment.LocalEnvironment;
 import org.apache.guacamole.net.auth.AuthenticationProvider;
@@ -68,6 +69,9 @@ public class DockerStartupProviderModule extends AbstractModule {
         // Bind extension-specific classes
         bind(ConfigurationService.class);
         
+        // Share a single pooled Docker client per host across all users
+        bind(DockerCluster.class).toProvider(DockerClusterProvider.class);
+        
     }
     
 }
@@ -20,10 +20,16 @@
 package org.apache.guacamole.auth.docker;
 
 import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.docker.conf.ConfigurationService;
+import org.apache.guacamole.auth.docker.connection.DockerStartupConnectionResolver;
 import org.apache.guacamole.auth.docker.user.DockerStartupUserContext;
-import org.apache.guacamole.docker.DockerStartupClient;
+import org.apache.guacamole.docker.DockerCluster;
+import org.apache.guacamole.docker.DockerMetrics;
+import org.apache.guacamole.docker.DockerStartupException;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.UserContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +44,12 @@ public class DockerStartupService {
      */
     private static final Logger logger = LoggerFactory.getLogger(DockerStartupService.class);
     
+    /**
+     * Provider of the DockerCluster shared by all users of this extension.
+     */
+    @Inject
+    private Provider<DockerCluster> clusterProvider;
+    
     /**
      * The configuration service that handles guacamole.properties entries
      * for this extension.
@@ -51,17 +63,46 @@ public class DockerStartupService {
      * @param userContext
      *     The original user context to decorate.
      * 
+     * @param authenticatedUser
+     *     The user whose context is being decorated.
+     * 
      * @return
      *     The decorated user context.
      * 
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed.
      */
-    public UserContext decorate(UserContext userContext)
-            throws GuacamoleException {
+    public UserContext decorate(UserContext userContext,
+            AuthenticatedUser authenticatedUser) throws GuacamoleException {
+        
+        DockerCluster cluster;
+        try {
+            cluster = clusterProvider.get();
+        }
+        catch (ProvisionException e) {
+            throw new DockerStartupException("Unable to retrieve Docker client.", e);
+        }
+        
+        // Leave other connections usable while Docker is not responding
+        if (!cluster.isAvailable()) {
+            logger.warn("Omitting Docker connections, as Docker is not responding.");
+            return userContext;
+        }
+        
+        long startTime = System.nanoTime();
+        boolean failed = true;
+        try {
+            UserContext decorated = new DockerStartupUserContext(userContext,
+                    authenticatedUser, new DockerStartupConnectionResolver(cluster,
+                            confService.getDockerResourceLimits()));
+            failed = false;
+            return decorated;
+        }
+        finally {
+            cluster.getMetrics().timer(DockerMetrics.DECORATION)
+                    .recordSince(startTime, failed);
+        }
         
-        return new DockerStartupUserContext(userContext,
-                new DockerStartupClient(confService.getDockerClientConfig()));
     }
     
 }
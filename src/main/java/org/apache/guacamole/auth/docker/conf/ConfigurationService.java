@@ -19,6 +19,7 @@
 
 package org.apache.guacamole.auth.docker.conf;
 
+import com.github.dockerjava.api.model.AuthConfig;
 import com.github.dockerjava.core.DefaultDockerClientConfig;
 import com.github.dockerjava.core.DockerClientConfig;
 import com.github.dockerjava.core.RemoteApiVersion;
@@ -26,11 +27,22 @@ import com.google.inject.Inject;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.GuacamoleServerException;
+import org.apache.guacamole.docker.ConsistentHashPlacement;
+import org.apache.guacamole.docker.ContainerSpec;
+import org.apache.guacamole.docker.LeastLoadedPlacement;
+import org.apache.guacamole.docker.PlacementStrategy;
+import org.apache.guacamole.docker.ResourceLimits;
 import org.apache.guacamole.environment.Environment;
 import org.apache.guacamole.properties.BooleanGuacamoleProperty;
 import org.apache.guacamole.properties.FileGuacamoleProperty;
+import org.apache.guacamole.properties.IntegerGuacamoleProperty;
 import org.apache.guacamole.properties.StringGuacamoleProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -115,6 +127,130 @@ public class ConfigurationService {
                 
     };
     
+    /**
+     * A property that configures the maximum number of HTTP connections that
+     * will be pooled and shared by all users when talking to the Docker host.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_MAX_CONNECTIONS =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-max-connections"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds a pooled connection to
+     * the Docker host may remain idle before it is closed.  A value of zero
+     * disables eviction of idle connections.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_CONNECTION_IDLE_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-connection-idle-timeout"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds for which the result
+     * of inspecting a container is cached.  A value of zero disables caching.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_INSPECT_CACHE_TTL =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-inspect-cache-ttl"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of container inspection
+     * results that will be cached, after which the least recently used
+     * results are discarded.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_INSPECT_CACHE_SIZE =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-inspect-cache-size"; }
+                
+    };
+    
+    /**
+     * A property that configures whether or not the Docker events stream is
+     * used to maintain a live, in-memory record of the state of containers
+     * managed by this extension.
+     */
+    public final static BooleanGuacamoleProperty DOCKER_TRACK_EVENTS =
+            new BooleanGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-track-events"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of threads used to run
+     * Docker operations asynchronously.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_ASYNC_THREADS =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-async-threads"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of asynchronous Docker
+     * operations that may wait for a thread before further operations are
+     * rejected.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_ASYNC_QUEUE_SIZE =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-async-queue-size"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of idle, pre-created containers
+     * maintained for each image.  A value of zero disables the pool.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_POOL_SIZE =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-pool-size"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of idle, pre-created
+     * containers retained for each image.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_POOL_MAX_SIZE =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-pool-max-size"; }
+                
+    };
+    
+    /**
+     * A property that configures whether pre-created containers are also
+     * started before being claimed.
+     */
+    public final static BooleanGuacamoleProperty DOCKER_POOL_PRESTART =
+            new BooleanGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-pool-prestart"; }
+                
+    };
+    
     /**
      * A property that configures the URL of the Docker Registry to use when
      * searching and deploying images to a Docker host.
@@ -128,220 +264,1083 @@ public class ConfigurationService {
     };
     
     /**
-     * A property to configure the username used when accessing the Docker
-     * registry.
+     * A property to configure the username used when accessing the Docker
+     * registry.
+     */
+    public final static StringGuacamoleProperty DOCKER_REGISTRY_USER =
+            new StringGuacamoleProperty() {
+        
+        @Override
+        public String getName() { return "docker-registry-user"; }
+                
+    };
+    
+    /**
+     * A property to configure the password used when accessing the Docker
+     * registry.
+     */
+    public final static StringGuacamoleProperty DOCKER_REGISTRY_PASSWORD =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-registry-password"; }
+                
+    };
+    
+    /**
+     * A property that specifies the e-mail address to use with the Docker
+     * registry.
+     */
+    public final static StringGuacamoleProperty DOCKER_REGISTRY_EMAIL =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-registry-email"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds to wait for the
+     * service within a container to accept connections.  A value of zero
+     * disables waiting.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_READY_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-ready-timeout"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds a container may have
+     * no open connections before it is stopped.  A value of zero leaves
+     * containers running indefinitely.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_IDLE_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-idle-timeout"; }
+                
+    };
+    
+    /**
+     * A property that configures whether idle containers are paused, rather
+     * than stopped, such that they may be resumed with their state intact.
+     */
+    public final static BooleanGuacamoleProperty DOCKER_SUSPEND_IDLE =
+            new BooleanGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-suspend-idle"; }
+                
+    };
+    
+    /**
+     * A property that configures the name of a Docker network over which
+     * guacd connects directly to the address of each container, rather than
+     * to ports published on the Docker host.  This is optional.
+     */
+    public final static StringGuacamoleProperty DOCKER_DIRECT_NETWORK =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-direct-network"; }
+                
+    };
+    
+    /**
+     * A property that configures the name of a user-defined Docker network
+     * to which all containers are attached.  This is optional.
+     */
+    public final static StringGuacamoleProperty DOCKER_NETWORK =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-network"; }
+                
+    };
+    
+    /**
+     * A property that configures whether the Docker network is created when
+     * the extension starts, if it does not already exist.
+     */
+    public final static BooleanGuacamoleProperty DOCKER_NETWORK_CREATE =
+            new BooleanGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-network-create"; }
+                
+    };
+    
+    /**
+     * A property that configures the driver of the Docker network, if it is
+     * created by the extension.
+     */
+    public final static StringGuacamoleProperty DOCKER_NETWORK_DRIVER =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-network-driver"; }
+                
+    };
+    
+    /**
+     * A property that configures the MTU of the Docker network, if it is
+     * created by the extension.  This is optional.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_NETWORK_MTU =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-network-mtu"; }
+                
+    };
+    
+    /**
+     * A property that configures the address guacd should use to reach ports
+     * published on the Docker host, instead of resolving the Docker host.
+     * This is optional.
+     */
+    public final static StringGuacamoleProperty DOCKER_HOST_ADDRESS =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-host-address"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds for which the
+     * resolved address of the Docker host is cached.  A value of zero
+     * resolves the Docker host for every connection.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_HOST_RESOLVE_TTL =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-host-resolve-ttl"; }
+                
+    };
+    
+    /**
+     * A property listing the URIs of all Docker hosts on which containers
+     * may run, overriding docker-host.  This is optional.
+     */
+    public final static StringListProperty DOCKER_HOSTS =
+            new StringListProperty() {
+    
+        @Override
+        public String getName() { return "docker-hosts"; }
+                
+    };
+    
+    /**
+     * A property that configures how new containers are placed when there
+     * is more than one Docker host: "least-containers", "most-memory", or
+     * "consistent-hash".
+     */
+    public final static StringGuacamoleProperty DOCKER_PLACEMENT =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-placement"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of points each Docker host
+     * occupies on the ring used by consistent-hash placement.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_PLACEMENT_VIRTUAL_NODES =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-placement-virtual-nodes"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds between refreshes of
+     * the containers and load of each Docker host.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_LOAD_REFRESH_INTERVAL =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-load-refresh-interval"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of containers which may
+     * be created and started at once on each Docker host.  A value of zero
+     * disables the limit.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_MAX_CONCURRENT_STARTS =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-max-concurrent-starts"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of container starts
+     * which may wait for others to finish on each Docker host.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_START_QUEUE_SIZE =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-start-queue-size"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of seconds a container
+     * start may wait for others to finish before failing.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_START_QUEUE_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-start-queue-timeout"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds within which each
+     * Docker API call must complete.  A value of zero disables the timeout.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_CALL_TIMEOUT =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-call-timeout"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of consecutive Docker API calls
+     * which must fail for lack of response before calls to that Docker host
+     * are refused.  A value of zero disables the circuit breaker.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_CIRCUIT_FAILURES =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-circuit-failures"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of seconds for which calls to a
+     * Docker host are refused once it has stopped responding.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_CIRCUIT_COOLDOWN =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-circuit-cooldown"; }
+                
+    };
+    
+    /**
+     * A property that configures whether or not the timers of Docker
+     * operations are served in the Prometheus text format through the REST
+     * API of this extension.
+     */
+    public final static BooleanGuacamoleProperty DOCKER_METRICS_ENDPOINT =
+            new BooleanGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-metrics-endpoint"; }
+                
+    };
+    
+    /**
+     * A property listing additional images, beyond the configured image,
+     * which should be pulled when the extension starts.
+     */
+    public final static StringListProperty DOCKER_PREPULL_IMAGES =
+            new StringListProperty() {
+    
+        @Override
+        public String getName() { return "docker-prepull-images"; }
+                
+    };
+    
+    /**
+     * A property that specifies the name of the Docker image that will be
+     * started to establish the connection.  This is required.
+     */
+    public final static StringGuacamoleProperty DOCKER_IMAGE_NAME =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-name"; }
+                
+    };
+    
+    /**
+     * A property that specifies the protocol that should be used to communicate
+     * with the container once it is started.  This is required.
+     */
+    public final static ProtocolGuacamoleProperty DOCKER_IMAGE_PROTOCOL =
+            new ProtocolGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-protocol"; }
+                
+    };
+    
+    /**
+     * A property to configure the TCP port that the Docker container will
+     * listen on that should be published by the Docker host.
+     */
+    public final static PortGuacamoleProperty DOCKER_IMAGE_PORT =
+            new PortGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-port"; }
+                
+    };
+    
+    /**
+     * A property containing the command to run in the Docker container.  This
+     * is optional.
+     */
+    public final static StringGuacamoleProperty DOCKER_IMAGE_CMD =
+            new StringGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-cmd"; }
+                
+    };
+    
+    /**
+     * A property that configures the relative CPU weight of containers, used
+     * when containers compete for CPU.  This is optional, and may be overridden
+     * by the attributes of a user or group.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_IMAGE_CPU_SHARES =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-cpu-shares"; }
+                
+    };
+    
+    /**
+     * A property that configures the number of microseconds of CPU time a
+     * container may use in each 100ms period.  This is optional, and may be
+     * overridden by the attributes of a user or group.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_IMAGE_CPU_QUOTA =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-cpu-quota"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum memory a container may use, in
+     * megabytes.  This is optional, and may be overridden by the attributes of
+     * a user or group.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_IMAGE_MEMORY =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-memory"; }
+                
+    };
+    
+    /**
+     * A property that configures the memory reserved for a container when
+     * memory is contended, in megabytes.  This is optional, and may be
+     * overridden by the attributes of a user or group.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_IMAGE_MEMORY_RESERVATION =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-memory-reservation"; }
+                
+    };
+    
+    /**
+     * A property that configures the maximum number of processes which may run
+     * within a container.  This is optional, and may be overridden by the
+     * attributes of a user or group.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_IMAGE_PIDS_LIMIT =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-pids-limit"; }
+                
+    };
+    
+    /**
+     * A property that configures the size of /dev/shm within a container, in
+     * megabytes.  This is optional, and may be overridden by the attributes of
+     * a user or group.
+     */
+    public final static IntegerGuacamoleProperty DOCKER_IMAGE_SHM_SIZE =
+            new IntegerGuacamoleProperty() {
+    
+        @Override
+        public String getName() { return "docker-image-shm-size"; }
+                
+    };
+    
+    /**
+     * Get the name of the image that will be used to start containers.
+     * 
+     * @return
+     *     The name of the image that will be used to start containers.
+     * 
+     * @throws GuacamoleException 
+     *     If guacamole.properties cannot be parsed, or this property is
+     *     missing.
+     */
+    public String getDockerImageName() throws GuacamoleException {
+        return environment.getProperty(DOCKER_IMAGE_NAME);
+    }
+    
+    /**
+     * Return the protocol that will be used to communicate with the Docker
+     * container and will be set as part of the connection.
+     * 
+     * @return
+     *     The protocol used to communicate with the Docker container.
+     * 
+     * @throws GuacamoleException 
+     *     If guacamole.properties cannot be parsed or this parameter is not
+     *     found.
+     */
+    public GuacamoleProtocol getDockerImageProtocol() throws GuacamoleException {
+        return environment.getProperty(DOCKER_IMAGE_PROTOCOL);
+    }
+    
+    /**
+     * Return the TCP port on which the Docker container will listen, and that
+     * the Docker host will then publish to a random port of its choosing.
+     * 
+     * @return
+     *     The TCP port on which the Docker container will listen.
+     * 
+     * @throws GuacamoleException 
+     *     If guacamole.properties cannot be parsed or this parameter is not
+     *     found.
+     */
+    public int getDockerImagePort() throws GuacamoleException {
+        return environment.getProperty(DOCKER_IMAGE_PORT);
+    }
+    
+    /**
+     * Returns the command that will be executed in the Docker container during
+     * startup.
+     * 
+     * @return
+     *     The command to execute in the Docker container during startup.
+     * 
+     * @throws GuacamoleException 
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getDockerImageCmd() throws GuacamoleException {
+        return environment.getProperty(DOCKER_IMAGE_CMD);
+    }
+    
+    /**
+     * Return the spec of the containers started from the image configured in
+     * guacamole.properties, if any.
+     * 
+     * @return
+     *     The spec of containers of the configured image, or null if no
+     *     image name and port are configured.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public ContainerSpec getDockerImageSpec() throws GuacamoleException {
+        
+        String imageName = environment.getProperty(DOCKER_IMAGE_NAME);
+        Integer imagePort = environment.getProperty(DOCKER_IMAGE_PORT);
+        if (imageName == null || imageName.isEmpty() || imagePort == null)
+            return null;
+        
+        return new ContainerSpec(imageName, imagePort,
+                environment.getProperty(DOCKER_IMAGE_CMD),
+                getDockerResourceLimits());
+        
+    }
+    
+    /**
+     * Return the default resource limits applied to containers, which may
+     * be overridden by the attributes of a user or group.
+     * 
+     * @return
+     *     The default resource limits, where any limit not configured is left
+     *     to the Docker defaults.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public ResourceLimits getDockerResourceLimits() throws GuacamoleException {
+        
+        Integer cpuQuota = environment.getProperty(DOCKER_IMAGE_CPU_QUOTA);
+        Integer pidsLimit = environment.getProperty(DOCKER_IMAGE_PIDS_LIMIT);
+        
+        return new ResourceLimits(
+                environment.getProperty(DOCKER_IMAGE_CPU_SHARES),
+                cpuQuota != null ? cpuQuota.longValue() : null,
+                ResourceLimits.megabytes(environment.getProperty(DOCKER_IMAGE_MEMORY)),
+                ResourceLimits.megabytes(environment.getProperty(DOCKER_IMAGE_MEMORY_RESERVATION)),
+                pidsLimit != null ? pidsLimit.longValue() : null,
+                ResourceLimits.megabytes(environment.getProperty(DOCKER_IMAGE_SHM_SIZE)));
+        
+    }
+    
+    /**
+     * Return the URI used to communicate with the Docker host.  If not specified
+     * this will default to the local Docker UNIX socket.
+     * 
+     * @return
+     *     The URI used to communicate with the Docker host, or the local UNIX
+     *     socket if not specified.
+     * 
+     * @throws GuacamoleException 
+     *     If guacamole.properties cannot be parsed.
+     */
+    public String getDockerHost() throws GuacamoleException {
+        return environment.getProperty(DOCKER_HOST,
+                "unix:///var/run/docker.sock");
+    }
+    
+    /**
+     * Return a boolean value indicating whether or not the Docker client
+     * should verify TLS certificates during the connection process.
+     * 
+     * @return
+     *     A boolean true if certificates should be verified; otherwise false.
+     *     The default is false.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private Boolean getVerifyTls() throws GuacamoleException {
+        return environment.getProperty(DOCKER_VERIFY_TLS, false);
+    }
+    
+    /**
+     * Return the path to a directory that stores certificates used to verify
+     * TLS connections to the Docker host.
+     * 
+     * @return
+     *     The path to a directory containing certificates to use for TLS
+     *     verification.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private File getDockerCertPath() throws GuacamoleException {
+        return environment.getProperty(DOCKER_CERT_PATH);
+    }
+    
+    /**
+     * Return the path to the directory where configuration files can be found
+     * for the Docker client used to communicate with the Docker host.
+     * 
+     * @return
+     *     The path to the directory used to store Docker client configuration
+     *     files.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private File getDockerConfigPath() throws GuacamoleException {
+        return environment.getProperty(DOCKER_CONFIG_PATH);
+    }
+    
+    /**
+     * Return the API version used to communicate with the Docker host.
+     * 
+     * @return
+     *     The RemoteApiVersion used to communicate with the Docker host.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private RemoteApiVersion getApiVersion() throws GuacamoleException {
+        return environment.getProperty(DOCKER_API_VERSION,
+                RemoteApiVersion.VERSION_1_38);
+    }
+    
+    /**
+     * Return the maximum number of pooled HTTP connections that will be opened
+     * to the Docker host.  If not specified this will default to 20.
+     * 
+     * @return
+     *     The maximum number of pooled connections to the Docker host.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerMaxConnections() throws GuacamoleException {
+        return environment.getProperty(DOCKER_MAX_CONNECTIONS, 20);
+    }
+    
+    /**
+     * Return the number of seconds a pooled connection to the Docker host may
+     * remain idle before it is closed.  If not specified this will default to
+     * 60 seconds.
+     * 
+     * @return
+     *     The number of seconds after which idle connections are closed, or
+     *     zero if idle connections should never be closed.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerConnectionIdleTimeout() throws GuacamoleException {
+        return environment.getProperty(DOCKER_CONNECTION_IDLE_TIMEOUT, 60);
+    }
+    
+    /**
+     * Return the number of seconds for which the result of inspecting a
+     * container is cached.  If not specified this will default to 5 seconds.
+     * 
+     * @return
+     *     The number of seconds for which container inspection results are
+     *     cached, or zero if they should not be cached.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerInspectCacheTtl() throws GuacamoleException {
+        return environment.getProperty(DOCKER_INSPECT_CACHE_TTL, 5);
+    }
+    
+    /**
+     * Return the maximum number of container inspection results that will be
+     * cached.  If not specified this will default to 1000.
+     * 
+     * @return
+     *     The maximum number of cached container inspection results.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerInspectCacheSize() throws GuacamoleException {
+        return environment.getProperty(DOCKER_INSPECT_CACHE_SIZE, 1000);
+    }
+    
+    /**
+     * Return whether or not the Docker events stream should be used to track
+     * the state of managed containers in memory.  If not specified this will
+     * default to true.
+     * 
+     * @return
+     *     True if container events should be tracked, otherwise false.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getDockerTrackEvents() throws GuacamoleException {
+        return environment.getProperty(DOCKER_TRACK_EVENTS, true);
+    }
+    
+    /**
+     * Return the maximum number of threads used to run Docker operations
+     * asynchronously.  If not specified this will default to 8.
+     * 
+     * @return
+     *     The maximum number of threads for asynchronous Docker operations.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerAsyncThreads() throws GuacamoleException {
+        return environment.getProperty(DOCKER_ASYNC_THREADS, 8);
+    }
+    
+    /**
+     * Return the maximum number of asynchronous Docker operations that may
+     * wait for a thread.  If not specified this will default to 256.
+     * 
+     * @return
+     *     The maximum number of queued asynchronous Docker operations.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerAsyncQueueSize() throws GuacamoleException {
+        return environment.getProperty(DOCKER_ASYNC_QUEUE_SIZE, 256);
+    }
+    
+    /**
+     * Return the number of idle, pre-created containers maintained for each
+     * image.  If not specified this will default to zero, disabling the pool.
+     * 
+     * @return
+     *     The number of idle containers to maintain for each image.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerPoolSize() throws GuacamoleException {
+        return environment.getProperty(DOCKER_POOL_SIZE, 0);
+    }
+    
+    /**
+     * Return the maximum number of idle, pre-created containers retained for
+     * each image.  If not specified this will default to the pool size.
+     * 
+     * @return
+     *     The maximum number of idle containers to retain for each image.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerPoolMaxSize() throws GuacamoleException {
+        return environment.getProperty(DOCKER_POOL_MAX_SIZE, getDockerPoolSize());
+    }
+    
+    /**
+     * Return whether pre-created containers should also be started before
+     * being claimed.  If not specified this will default to true.
+     * 
+     * @return
+     *     True if pooled containers should be started in advance, otherwise
+     *     false.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getDockerPoolPrestart() throws GuacamoleException {
+        return environment.getProperty(DOCKER_POOL_PRESTART, true);
+    }
+    
+    /**
+     * Return the number of seconds to wait for the service within a container
+     * to accept connections before the container is handed to guacd.  If not
+     * specified this will default to 30 seconds.
+     * 
+     * @return
+     *     The number of seconds to wait for a container to become ready, or
+     *     zero if containers should not be probed.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public final static StringGuacamoleProperty DOCKER_REGISTRY_USER =
-            new StringGuacamoleProperty() {
-        
-        @Override
-        public String getName() { return "docker-registry-user"; }
-                
-    };
+    public int getDockerReadyTimeout() throws GuacamoleException {
+        return environment.getProperty(DOCKER_READY_TIMEOUT, 30);
+    }
     
     /**
-     * A property to configure the password used when accessing the Docker
-     * registry.
+     * Return the number of seconds a container may have no open connections
+     * before it is stopped.  If not specified this will default to 600
+     * seconds.
+     * 
+     * @return
+     *     The number of seconds after which idle containers are stopped, or
+     *     zero if containers should be left running.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public final static StringGuacamoleProperty DOCKER_REGISTRY_PASSWORD =
-            new StringGuacamoleProperty() {
-    
-        @Override
-        public String getName() { return "docker-registry-password"; }
-                
-    };
+    public int getDockerIdleTimeout() throws GuacamoleException {
+        return environment.getProperty(DOCKER_IDLE_TIMEOUT, 600);
+    }
     
     /**
-     * A property that specifies the e-mail address to use with the Docker
-     * registry.
+     * Return whether idle containers should be paused, rather than stopped.
+     * If not specified this will default to false.
+     * 
+     * @return
+     *     True if idle containers should be paused, false if they should be
+     *     stopped.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public final static StringGuacamoleProperty DOCKER_REGISTRY_EMAIL =
-            new StringGuacamoleProperty() {
-    
-        @Override
-        public String getName() { return "docker-registry-email"; }
-                
-    };
+    public boolean getDockerSuspendIdle() throws GuacamoleException {
+        return environment.getProperty(DOCKER_SUSPEND_IDLE, false);
+    }
     
     /**
-     * A property that specifies the name of the Docker image that will be
-     * started to establish the connection.  This is required.
+     * Return the name of the Docker network over which guacd connects
+     * directly to containers.
+     * 
+     * @return
+     *     The name of the network, or null if guacd should connect to ports
+     *     published on the Docker host.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public final static StringGuacamoleProperty DOCKER_IMAGE_NAME =
-            new StringGuacamoleProperty() {
-    
-        @Override
-        public String getName() { return "docker-image-name"; }
-                
-    };
+    public String getDockerDirectNetwork() throws GuacamoleException {
+        return environment.getProperty(DOCKER_DIRECT_NETWORK);
+    }
     
     /**
-     * A property that specifies the protocol that should be used to communicate
-     * with the container once it is started.  This is required.
+     * Return the name of the user-defined Docker network to which all
+     * containers are attached.
+     * 
+     * @return
+     *     The name of the network, or null if containers should be attached
+     *     to the Docker default network.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public final static ProtocolGuacamoleProperty DOCKER_IMAGE_PROTOCOL =
-            new ProtocolGuacamoleProperty() {
+    public String getDockerNetwork() throws GuacamoleException {
+        return environment.getProperty(DOCKER_NETWORK);
+    }
     
-        @Override
-        public String getName() { return "docker-image-protocol"; }
-                
-    };
+    /**
+     * Return whether the Docker network should be created when the extension
+     * starts, if it does not already exist.  If not specified this will
+     * default to false.
+     * 
+     * @return
+     *     True if the network should be created, otherwise false.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public boolean getDockerNetworkCreate() throws GuacamoleException {
+        return environment.getProperty(DOCKER_NETWORK_CREATE, false);
+    }
     
     /**
-     * A property to configure the TCP port that the Docker container will
-     * listen on that should be published by the Docker host.
+     * Return the driver of the Docker network, if it is created by the
+     * extension.  If not specified this will default to "bridge".
+     * 
+     * @return
+     *     The driver of the Docker network.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public final static PortGuacamoleProperty DOCKER_IMAGE_PORT =
-            new PortGuacamoleProperty() {
+    public String getDockerNetworkDriver() throws GuacamoleException {
+        return environment.getProperty(DOCKER_NETWORK_DRIVER, "bridge");
+    }
     
-        @Override
-        public String getName() { return "docker-image-port"; }
-                
-    };
+    /**
+     * Return the driver options of the Docker network, if it is created by
+     * the extension.  Currently this is only the MTU, if specified.
+     * 
+     * @return
+     *     The driver options of the Docker network, which may be empty.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public Map<String, String> getDockerNetworkOptions() throws GuacamoleException {
+        
+        Map<String, String> options = new HashMap<>();
+        
+        Integer mtu = environment.getProperty(DOCKER_NETWORK_MTU);
+        if (mtu != null)
+            options.put("com.docker.network.driver.mtu", mtu.toString());
+        
+        return options;
+        
+    }
     
     /**
-     * A property containing the command to run in the Docker container.  This
-     * is optional.
+     * Return the address guacd should use to reach ports published on the
+     * Docker host.
+     * 
+     * @return
+     *     The address of the Docker host for guacd, or null if the Docker host
+     *     should be resolved.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public final static StringGuacamoleProperty DOCKER_IMAGE_CMD =
-            new StringGuacamoleProperty() {
+    public String getDockerHostAddress() throws GuacamoleException {
+        return environment.getProperty(DOCKER_HOST_ADDRESS);
+    }
     
-        @Override
-        public String getName() { return "docker-image-cmd"; }
-                
-    };
+    /**
+     * Return the number of seconds for which the resolved address of the
+     * Docker host is cached.  If not specified this will default to 300
+     * seconds.
+     * 
+     * @return
+     *     The number of seconds to cache the Docker host address, or zero if
+     *     it should be resolved for every connection.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public int getDockerHostResolveTtl() throws GuacamoleException {
+        return environment.getProperty(DOCKER_HOST_RESOLVE_TTL, 300);
+    }
     
     /**
-     * Get the name of the image that will be used to start containers.
+     * Return the strategy deciding on which Docker host new containers are
+     * placed.  If not specified this will default to placing each container
+     * on the host with the fewest containers.
      * 
      * @return
-     *     The name of the image that will be used to start containers.
+     *     The placement strategy.
      * 
-     * @throws GuacamoleException 
-     *     If guacamole.properties cannot be parsed, or this property is
-     *     missing.
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed, or the configured
+     *     strategy is not recognized.
      */
-    public String getDockerImageName() throws GuacamoleException {
-        return environment.getProperty(DOCKER_IMAGE_NAME);
+    public PlacementStrategy getDockerPlacementStrategy()
+            throws GuacamoleException {
+        
+        String placement = environment.getProperty(DOCKER_PLACEMENT,
+                "least-containers");
+        switch (placement) {
+            case "least-containers":
+                return new LeastLoadedPlacement(
+                        LeastLoadedPlacement.Criterion.CONTAINERS);
+            case "most-memory":
+                return new LeastLoadedPlacement(
+                        LeastLoadedPlacement.Criterion.MEMORY);
+            case "consistent-hash":
+                return new ConsistentHashPlacement(environment.getProperty(
+                        DOCKER_PLACEMENT_VIRTUAL_NODES,
+                        ConsistentHashPlacement.DEFAULT_VIRTUAL_NODES));
+            default:
+                throw new GuacamoleServerException("Unknown value for "
+                        + DOCKER_PLACEMENT.getName() + ": " + placement);
+        }
+        
     }
     
     /**
-     * Return the protocol that will be used to communicate with the Docker
-     * container and will be set as part of the connection.
+     * Return the number of seconds between refreshes of the containers and
+     * load of each Docker host.  If not specified this will default to 10
+     * seconds.
      * 
      * @return
-     *     The protocol used to communicate with the Docker container.
+     *     The number of seconds between refreshes.
      * 
-     * @throws GuacamoleException 
-     *     If guacamole.properties cannot be parsed or this parameter is not
-     *     found.
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public GuacamoleProtocol getDockerImageProtocol() throws GuacamoleException {
-        return environment.getProperty(DOCKER_IMAGE_PROTOCOL);
+    public int getDockerLoadRefreshInterval() throws GuacamoleException {
+        return environment.getProperty(DOCKER_LOAD_REFRESH_INTERVAL, 10);
     }
     
     /**
-     * Return the TCP port on which the Docker container will listen, and that
-     * the Docker host will then publish to a random port of its choosing.
+     * Return the maximum number of containers which may be created and
+     * started at once on each Docker host.  If not specified this will
+     * default to 8.
      * 
      * @return
-     *     The TCP port on which the Docker container will listen.
+     *     The maximum number of concurrent container starts per host, or zero
+     *     if starts should not be limited.
      * 
-     * @throws GuacamoleException 
-     *     If guacamole.properties cannot be parsed or this parameter is not
-     *     found.
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
      */
-    public int getDockerImagePort() throws GuacamoleException {
-        return environment.getProperty(DOCKER_IMAGE_PORT);
+    public int getDockerMaxConcurrentStarts() throws GuacamoleException {
+        return environment.getProperty(DOCKER_MAX_CONCURRENT_STARTS, 8);
     }
     
     /**
-     * Returns the command that will be executed in the Docker container during
-     * startup.
+     * Return the maximum number of container starts which may wait for
+     * others to finish on each Docker host.  If not specified this will
+     * default to 100.
      * 
      * @return
-     *     The command to execute in the Docker container during startup.
+     *     The maximum number of queued container starts per host.
      * 
-     * @throws GuacamoleException 
+     * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed.
      */
-    public String getDockerImageCmd() throws GuacamoleException {
-        return environment.getProperty(DOCKER_IMAGE_CMD);
+    public int getDockerStartQueueSize() throws GuacamoleException {
+        return environment.getProperty(DOCKER_START_QUEUE_SIZE, 100);
     }
     
     /**
-     * Return the URI used to communicate with the Docker host.  If not specified
-     * this will default to the local Docker UNIX socket.
+     * Return the maximum number of seconds a container start may wait for
+     * others to finish before failing.  If not specified this will default
+     * to 60 seconds.
      * 
      * @return
-     *     The URI used to communicate with the Docker host, or the local UNIX
-     *     socket if not specified.
+     *     The maximum number of seconds a container start may be queued.
      * 
-     * @throws GuacamoleException 
+     * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed.
      */
-    public String getDockerHost() throws GuacamoleException {
-        return environment.getProperty(DOCKER_HOST,
-                "unix:///var/run/docker.sock");
+    public int getDockerStartQueueTimeout() throws GuacamoleException {
+        return environment.getProperty(DOCKER_START_QUEUE_TIMEOUT, 60);
     }
     
     /**
-     * Return a boolean value indicating whether or not the Docker client
-     * should verify TLS certificates during the connection process.
+     * Return the number of seconds within which each Docker API call must
+     * complete.  If not specified this will default to 30 seconds.
      * 
      * @return
-     *     A boolean true if certificates should be verified; otherwise false.
-     *     The default is false.
+     *     The number of seconds each Docker API call may take, or zero if
+     *     calls should not be timed out.
      * 
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed.
      */
-    private Boolean getVerifyTls() throws GuacamoleException {
-        return environment.getProperty(DOCKER_VERIFY_TLS, false);
+    public int getDockerCallTimeout() throws GuacamoleException {
+        return environment.getProperty(DOCKER_CALL_TIMEOUT, 30);
     }
     
     /**
-     * Return the path to a directory that stores certificates used to verify
-     * TLS connections to the Docker host.
+     * Return the number of consecutive Docker API calls which must fail for
+     * lack of response before calls to that Docker host are refused.  If not
+     * specified this will default to 5.
      * 
      * @return
-     *     The path to a directory containing certificates to use for TLS
-     *     verification.
+     *     The number of consecutive failures which open the circuit breaker,
+     *     or zero if the circuit breaker is disabled.
      * 
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed.
      */
-    private File getDockerCertPath() throws GuacamoleException {
-        return environment.getProperty(DOCKER_CERT_PATH);
+    public int getDockerCircuitFailures() throws GuacamoleException {
+        return environment.getProperty(DOCKER_CIRCUIT_FAILURES, 5);
     }
     
     /**
-     * Return the path to the directory where configuration files can be found
-     * for the Docker client used to communicate with the Docker host.
+     * Return the number of seconds for which calls to a Docker host are
+     * refused once it has stopped responding.  If not specified this will
+     * default to 30 seconds.
      * 
      * @return
-     *     The path to the directory used to store Docker client configuration
-     *     files.
+     *     The number of seconds for which the circuit breaker remains open.
      * 
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed.
      */
-    private File getDockerConfigPath() throws GuacamoleException {
-        return environment.getProperty(DOCKER_CONFIG_PATH);
+    public int getDockerCircuitCooldown() throws GuacamoleException {
+        return environment.getProperty(DOCKER_CIRCUIT_COOLDOWN, 30);
     }
     
     /**
-     * Return the API version used to communicate with the Docker host.
+     * Return whether or not the timers of Docker operations should be served
+     * in the Prometheus text format through the REST API of this extension.
+     * If not specified this will default to false, as the endpoint requires
+     * no authentication.
      * 
      * @return
-     *     The RemoteApiVersion used to communicate with the Docker host.
+     *     True if the metrics endpoint should be served, otherwise false.
      * 
      * @throws GuacamoleException
      *     If guacamole.properties cannot be parsed.
      */
-    private RemoteApiVersion getApiVersion() throws GuacamoleException {
-        return environment.getProperty(DOCKER_API_VERSION,
-                RemoteApiVersion.VERSION_1_38);
+    public boolean getDockerMetricsEndpoint() throws GuacamoleException {
+        return environment.getProperty(DOCKER_METRICS_ENDPOINT, false);
     }
     
     /**
@@ -355,8 +1354,13 @@ public class ConfigurationService {
      *     If guacamole.properties cannot be parsed.
      */
     private URI getRegistryUrl() throws GuacamoleException {
+        
+        String registryUrl = environment.getProperty(DOCKER_REGISTRY_URL);
+        if (registryUrl == null)
+            return null;
+        
         try {
-            return new URI(environment.getProperty(DOCKER_REGISTRY_URL));
+            return new URI(registryUrl);
         }
         catch (URISyntaxException e) {
             throw new GuacamoleServerException(e);
@@ -402,6 +1406,63 @@ public class ConfigurationService {
         return environment.getProperty(DOCKER_REGISTRY_EMAIL);
     }
     
+    /**
+     * Return the credentials to use when pulling images from the Docker
+     * registry, derived from the registry URL, username, password, and
+     * e-mail address.
+     * 
+     * @return
+     *     The credentials for the Docker registry, or null if no registry
+     *     username is configured and images should be pulled anonymously.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public AuthConfig getRegistryAuthConfig() throws GuacamoleException {
+        
+        String user = getRegistryUser();
+        if (user == null || user.isEmpty())
+            return null;
+        
+        AuthConfig authConfig = new AuthConfig()
+                .withUsername(user)
+                .withPassword(getRegistryPassword())
+                .withEmail(getRegistryEmail());
+        
+        URI registryUrl = getRegistryUrl();
+        if (registryUrl != null)
+            authConfig.withRegistryAddress(registryUrl.toString());
+        
+        return authConfig;
+        
+    }
+    
+    /**
+     * Return all images which should be pulled when the extension starts:
+     * the configured image, if any, and any additional images listed.
+     * 
+     * @return
+     *     The images to pull at startup, which may be empty.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public List<String> getDockerPrepullImages() throws GuacamoleException {
+        
+        List<String> images = new ArrayList<>();
+        
+        String imageName = environment.getProperty(DOCKER_IMAGE_NAME);
+        if (imageName != null && !imageName.isEmpty())
+            images.add(imageName);
+        
+        List<String> additional = environment.getProperty(DOCKER_PREPULL_IMAGES);
+        if (additional != null)
+            images.addAll(additional);
+        
+        return images;
+        
+    }
+    
     /**
      * Returns a DockerClientConfig that contains the parameters specified in
      * the guacamole.properties file, a configuration that can be passed on to
@@ -415,14 +1476,58 @@ public class ConfigurationService {
      *     If guacamole.properties cannot be parsed.
      */
     public DockerClientConfig getDockerClientConfig() throws GuacamoleException {
+        return getDockerClientConfig(getDockerHost());
+    }
+    
+    /**
+     * Returns a DockerClientConfig for each configured Docker host, sharing
+     * all parameters other than the host.  If docker-hosts is not specified,
+     * this is the single configuration for docker-host.
+     * 
+     * @return
+     *     A DockerClientConfig for each Docker host, in configured order.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    public List<DockerClientConfig> getDockerClientConfigs()
+            throws GuacamoleException {
+        
+        List<String> hosts = environment.getProperty(DOCKER_HOSTS);
+        if (hosts == null)
+            return Collections.singletonList(getDockerClientConfig());
+        
+        List<DockerClientConfig> configs = new ArrayList<>();
+        for (String host : hosts)
+            configs.add(getDockerClientConfig(host));
+        
+        return configs;
+        
+    }
+    
+    /**
+     * Returns a DockerClientConfig for the given Docker host, with all other
+     * parameters as specified in the guacamole.properties file.
+     * 
+     * @param host
+     *     The URI of the Docker host.
+     * 
+     * @return
+     *     A DockerClientConfig for the given host.
+     * 
+     * @throws GuacamoleException
+     *     If guacamole.properties cannot be parsed.
+     */
+    private DockerClientConfig getDockerClientConfig(String host)
+            throws GuacamoleException {
         
         logger.debug(">>>DOCKER<<< Returning Docker config with parameters...");
-        logger.debug(">>>DOCKER<<< Host: {}", getDockerHost());
+        logger.debug(">>>DOCKER<<< Host: {}", host);
         logger.debug(">>>DOCKER<<< Verify: {}", getVerifyTls().toString());
         logger.debug(">>>DOCKER<<< API: {}", getApiVersion().toString());
         
         return DefaultDockerClientConfig.createDefaultConfigBuilder()
-                .withDockerHost(getDockerHost())
+                .withDockerHost(host)
                 .withDockerTlsVerify(getVerifyTls())
                 .withApiVersion(getApiVersion())
                 .build();
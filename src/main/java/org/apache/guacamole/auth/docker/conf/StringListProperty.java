@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.docker.conf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.properties.GuacamoleProperty;
+
+/**
+ * A GuacamoleProperty whose value is a comma-separated list of strings.
+ * Empty entries are ignored.
+ */
+public abstract class StringListProperty implements GuacamoleProperty<List<String>> {
+    
+    /**
+     * A regular expression pattern that matches to delimit values within
+     * the list.  Currently this is a comma plus surrounding whitespace.
+     */
+    private static final Pattern DELIMITER_PATTERN = Pattern.compile("\\s*,\\s*");
+    
+    @Override
+    public List<String> parseValue(String values) throws GuacamoleException {
+        
+        // Nothing in, nothing out
+        if (values == null)
+            return null;
+        
+        List<String> strings = new ArrayList<>();
+        for (String value : DELIMITER_PATTERN.split(values.trim())) {
+            if (!value.isEmpty())
+                strings.add(value);
+        }
+        
+        if (strings.isEmpty())
+            return null;
+        
+        return strings;
+        
+    }
+    
+}
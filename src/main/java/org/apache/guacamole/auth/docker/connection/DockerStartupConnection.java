@@ -27,15 +27,25 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.GuacamoleServerException;
 import org.apache.guacamole.auth.docker.conf.GuacamoleProtocol;
 import org.apache.guacamole.auth.docker.user.DockerStartupUserContext;
+import org.apache.guacamole.docker.ContainerReaper;
+import org.apache.guacamole.docker.ContainerSpec;
+import org.apache.guacamole.docker.DockerCluster;
 import org.apache.guacamole.docker.DockerStartupClient;
+import org.apache.guacamole.docker.DockerStartupException;
+import org.apache.guacamole.docker.Quota;
+import org.apache.guacamole.docker.QuotaLedger;
+import org.apache.guacamole.docker.ResourceLimits;
 import org.apache.guacamole.form.EnumField;
 import org.apache.guacamole.form.Form;
 import org.apache.guacamole.form.NumericField;
 import org.apache.guacamole.form.PasswordField;
 import org.apache.guacamole.form.TextField;
+import org.apache.guacamole.net.GuacamoleTunnel;
 import org.apache.guacamole.net.auth.simple.SimpleConnection;
+import org.apache.guacamole.protocol.GuacamoleClientInformation;
 import org.apache.guacamole.protocol.GuacamoleConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -95,6 +105,56 @@ public class DockerStartupConnection extends SimpleConnection {
      */
     public static final String DOCKER_IMAGE_DOMAIN_ATTRIBUTE = "docker-image-domain";
     
+    /**
+     * The name of the attribute that defines the relative CPU weight of the
+     * container.
+     */
+    public static final String DOCKER_IMAGE_CPU_SHARES_ATTRIBUTE = "docker-image-cpu-shares";
+    
+    /**
+     * The name of the attribute that defines the microseconds of CPU time the
+     * container may use in each 100ms period.
+     */
+    public static final String DOCKER_IMAGE_CPU_QUOTA_ATTRIBUTE = "docker-image-cpu-quota";
+    
+    /**
+     * The name of the attribute that defines the maximum memory the container
+     * may use, in megabytes.
+     */
+    public static final String DOCKER_IMAGE_MEMORY_ATTRIBUTE = "docker-image-memory";
+    
+    /**
+     * The name of the attribute that defines the memory reserved for the
+     * container when memory is contended, in megabytes.
+     */
+    public static final String DOCKER_IMAGE_MEMORY_RESERVATION_ATTRIBUTE = "docker-image-memory-reservation";
+    
+    /**
+     * The name of the attribute that defines the maximum number of processes
+     * within the container.
+     */
+    public static final String DOCKER_IMAGE_PIDS_LIMIT_ATTRIBUTE = "docker-image-pids-limit";
+    
+    /**
+     * The name of the attribute that defines the size of /dev/shm within the
+     * container, in megabytes.
+     */
+    public static final String DOCKER_IMAGE_SHM_SIZE_ATTRIBUTE = "docker-image-shm-size";
+    
+    /**
+     * The name of the attribute that defines the maximum number of containers
+     * which may be running at once on behalf of a user, or of all members of
+     * a group.
+     */
+    public static final String DOCKER_QUOTA_MAX_CONTAINERS_ATTRIBUTE = "docker-quota-max-containers";
+    
+    /**
+     * The name of the attribute that defines the maximum total memory limit,
+     * in megabytes, of the containers which may be running at once on behalf
+     * of a user, or of all members of a group.
+     */
+    public static final String DOCKER_QUOTA_MAX_MEMORY_ATTRIBUTE = "docker-quota-max-memory";
+    
     /**
      * The set of all attributes that are available for this delegating user
      * group.
@@ -106,7 +166,15 @@ public class DockerStartupConnection extends SimpleConnection {
             DOCKER_IMAGE_CMD_ATTRIBUTE,
             DOCKER_IMAGE_USER_ATTRIBUTE,
             DOCKER_IMAGE_PASSWORD_ATTRIBUTE,
-            DOCKER_IMAGE_DOMAIN_ATTRIBUTE
+            DOCKER_IMAGE_DOMAIN_ATTRIBUTE,
+            DOCKER_IMAGE_CPU_SHARES_ATTRIBUTE,
+            DOCKER_IMAGE_CPU_QUOTA_ATTRIBUTE,
+            DOCKER_IMAGE_MEMORY_ATTRIBUTE,
+            DOCKER_IMAGE_MEMORY_RESERVATION_ATTRIBUTE,
+            DOCKER_IMAGE_PIDS_LIMIT_ATTRIBUTE,
+            DOCKER_IMAGE_SHM_SIZE_ATTRIBUTE,
+            DOCKER_QUOTA_MAX_CONTAINERS_ATTRIBUTE,
+            DOCKER_QUOTA_MAX_MEMORY_ATTRIBUTE
     );
     
     /**
@@ -124,7 +192,24 @@ public class DockerStartupConnection extends SimpleConnection {
                     new TextField(DOCKER_IMAGE_CMD_ATTRIBUTE),
                     new TextField(DOCKER_IMAGE_USER_ATTRIBUTE),
                     new PasswordField(DOCKER_IMAGE_PASSWORD_ATTRIBUTE),
-                    new TextField(DOCKER_IMAGE_DOMAIN_ATTRIBUTE)
+                    new TextField(DOCKER_IMAGE_DOMAIN_ATTRIBUTE),
+                    new NumericField(DOCKER_IMAGE_CPU_SHARES_ATTRIBUTE),
+                    new NumericField(DOCKER_IMAGE_CPU_QUOTA_ATTRIBUTE),
+                    new NumericField(DOCKER_IMAGE_MEMORY_ATTRIBUTE),
+                    new NumericField(DOCKER_IMAGE_MEMORY_RESERVATION_ATTRIBUTE),
+                    new NumericField(DOCKER_IMAGE_PIDS_LIMIT_ATTRIBUTE),
+                    new NumericField(DOCKER_IMAGE_SHM_SIZE_ATTRIBUTE)
+            )
+    );
+    
+    /**
+     * The Form that will be used to allow administrators to limit the
+     * containers run on behalf of a user or group.
+     */
+    public static final Form DOCKER_QUOTA_FORM = new Form("docker-quota",
+            Arrays.asList(
+                    new NumericField(DOCKER_QUOTA_MAX_CONTAINERS_ATTRIBUTE),
+                    new NumericField(DOCKER_QUOTA_MAX_MEMORY_ATTRIBUTE)
             )
     );
     
@@ -133,12 +218,13 @@ public class DockerStartupConnection extends SimpleConnection {
      * user group.
      */
     public static final Collection<Form> ATTRIBUTES = 
-            Collections.unmodifiableCollection(Arrays.asList(DOCKER_IMAGE_FORM));
+            Collections.unmodifiableCollection(Arrays.asList(DOCKER_IMAGE_FORM,
+                    DOCKER_QUOTA_FORM));
     
     /**
-     * The DockerStartupClient to use for starting up this connection.
+     * The Docker hosts, one of which runs the container of this connection.
      */
-    private final DockerStartupClient client;
+    private final DockerCluster cluster;
     
     /**
      * The identifier of the container associated with this Connection.
@@ -147,16 +233,46 @@ public class DockerStartupConnection extends SimpleConnection {
     
     /**
      * The object that describes the Guacamole Configuration associated with
-     * this Connection.
+     * this Connection, lacking the parameters which locate the container.
      */
     private final GuacamoleConfiguration config;
     
     /**
-     * Create a new Docker Startup Connection, with the given client, image
-     * name, port, container name, command, and protocol.
+     * The name of the image from which the container is created.
+     */
+    private final String imageName;
+    
+    /**
+     * The port within the container which is published for the connection.
+     */
+    private final int imagePort;
+    
+    /**
+     * The command to run within the container at startup, or null to use
+     * the default command of the image.
+     */
+    private final String imageCmd;
+    
+    /**
+     * The resource limits applied to the container when it is created.
+     */
+    private final ResourceLimits limits;
+    
+    /**
+     * The quotas of the user and their groups, which must not be exceeded
+     * by starting the container.
+     */
+    private final Collection<Quota> quotas;
+    
+    /**
+     * Create a new Docker Startup Connection, with the given cluster, image
+     * name, port, container name, command, protocol, and resource limits.
+     * No container is created or started until the connection is actually
+     * used.
      * 
-     * @param client
-     *     The DockerStartupClient that will be used to start this container.
+     * @param cluster
+     *     The Docker hosts, one of which will be chosen to run this
+     *     container.
      * 
      * @param containerName
      *     The name to assign the container.
@@ -164,22 +280,39 @@ public class DockerStartupConnection extends SimpleConnection {
      * @param attributes
      *     The attributes to use for the connection.
      * 
+     * @param defaultLimits
+     *     The resource limits to apply where not overridden by the given
+     *     attributes.
+     * 
+     * @param quotas
+     *     The quotas of the user and their groups, which must not be
+     *     exceeded by starting the container.
+     * 
      * @throws GuacamoleException 
-     *     If an error occurs starting the container.
+     *     If the attributes contain an invalid resource limit.
      */
-    public DockerStartupConnection(DockerStartupClient client, 
-            String containerName, Map<String, String> attributes) 
+    public DockerStartupConnection(DockerCluster cluster, 
+            String containerName, Map<String, String> attributes,
+            ResourceLimits defaultLimits, Collection<Quota> quotas)
             throws GuacamoleException {
         
-        String imageName = attributes.get(DOCKER_IMAGE_NAME_ATTRIBUTE);
-        int imagePort = Integer.parseInt(
+        this.imageName = attributes.get(DOCKER_IMAGE_NAME_ATTRIBUTE);
+        this.imagePort = Integer.parseInt(
                 attributes.get(DOCKER_IMAGE_PORT_ATTRIBUTE));
         GuacamoleProtocol imageProtocol = GuacamoleProtocol.valueOf(
                 attributes.get(DOCKER_IMAGE_PROTOCOL_ATTRIBUTE));
-        String imageCmd = attributes.get(DOCKER_IMAGE_CMD_ATTRIBUTE);
+        this.imageCmd = attributes.get(DOCKER_IMAGE_CMD_ATTRIBUTE);
         String imageUser = attributes.get(DOCKER_IMAGE_USER_ATTRIBUTE);
         String imagePass = attributes.get(DOCKER_IMAGE_PASSWORD_ATTRIBUTE);
         String imageDomain = attributes.get(DOCKER_IMAGE_DOMAIN_ATTRIBUTE);
+        this.limits = new ResourceLimits(
+                parseInteger(attributes, DOCKER_IMAGE_CPU_SHARES_ATTRIBUTE),
+                toLong(parseInteger(attributes, DOCKER_IMAGE_CPU_QUOTA_ATTRIBUTE)),
+                ResourceLimits.megabytes(parseInteger(attributes, DOCKER_IMAGE_MEMORY_ATTRIBUTE)),
+                ResourceLimits.megabytes(parseInteger(attributes, DOCKER_IMAGE_MEMORY_RESERVATION_ATTRIBUTE)),
+                toLong(parseInteger(attributes, DOCKER_IMAGE_PIDS_LIMIT_ATTRIBUTE)),
+                ResourceLimits.megabytes(parseInteger(attributes, DOCKER_IMAGE_SHM_SIZE_ATTRIBUTE)))
+                .orElse(defaultLimits);
         
         logger.debug(">>>DOCKER<<< Image: {}", imageName);
         logger.debug(">>>DOCKER<<< Port: {}", Integer.toString(imagePort));
@@ -188,21 +321,15 @@ public class DockerStartupConnection extends SimpleConnection {
         logger.debug(">>>DOCKER<<< User: {}", imageUser);
         logger.debug(">>>DOCKER<<< Password: {}", imagePass);
         logger.debug(">>>DOCKER<<< Domain: {}", imageDomain);
+        logger.debug(">>>DOCKER<<< Limits: {}", limits);
         
-        this.client = client;
-        if (!client.containerExists(containerName))
-            this.containerId = client.createContainer(imageName, imagePort,
-                    containerName, imageCmd);
-        else
-            this.containerId = containerName;
-        
-        if (!client.containerRunning(containerName))
-            client.startContainer(containerName);
+        this.cluster = cluster;
+        this.containerId = containerName;
+        this.quotas = quotas;
         
         // Create the Guacamole configuration
         this.config = new GuacamoleConfiguration();
         config.setProtocol(imageProtocol.toString().toLowerCase());
-        config.setParameters(client.getContainerConnection(containerId));
         
         // Set up authentication information
         if (imageUser != null && !imageUser.isEmpty())
@@ -220,12 +347,170 @@ public class DockerStartupConnection extends SimpleConnection {
         
     }
     
+    /**
+     * Parse the value of the given numeric attribute, if present.
+     * 
+     * @param attributes
+     *     The attributes of the connection.
+     * 
+     * @param name
+     *     The name of the attribute.
+     * 
+     * @return
+     *     The value of the attribute, or null if it is not set.
+     * 
+     * @throws GuacamoleException
+     *     If the attribute is set but is not a valid number.
+     */
+    private static Integer parseInteger(Map<String, String> attributes,
+            String name) throws GuacamoleException {
+        
+        String value = attributes.get(name);
+        if (value == null || value.isEmpty())
+            return null;
+        
+        try {
+            return Integer.valueOf(value);
+        }
+        catch (NumberFormatException e) {
+            throw new GuacamoleServerException("Attribute " + name
+                    + " is not a valid number: " + value, e);
+        }
+        
+    }
+    
+    /**
+     * Return the quota defined by the given attributes of a user or group.
+     * 
+     * @param subject
+     *     The user or group to which the quota applies, such as
+     *     "user:alice".
+     * 
+     * @param attributes
+     *     The attributes of the user or group.
+     * 
+     * @return
+     *     The quota defined by the attributes, or null if they define none.
+     * 
+     * @throws GuacamoleException
+     *     If a quota attribute is set but is not a valid number.
+     */
+    public static Quota getQuota(String subject, Map<String, String> attributes)
+            throws GuacamoleException {
+        
+        Integer maxContainers = parseInteger(attributes,
+                DOCKER_QUOTA_MAX_CONTAINERS_ATTRIBUTE);
+        Long maxMemory = ResourceLimits.megabytes(parseInteger(attributes,
+                DOCKER_QUOTA_MAX_MEMORY_ATTRIBUTE));
+        if (maxContainers == null && maxMemory == null)
+            return null;
+        
+        return new Quota(subject, maxContainers, maxMemory);
+        
+    }
+    
+    /**
+     * Widen the given value to a Long, if present.
+     * 
+     * @param value
+     *     The value to widen, or null.
+     * 
+     * @return
+     *     The value as a Long, or null if no value was given.
+     */
+    private static Long toLong(Integer value) {
+        return (value != null) ? value.longValue() : null;
+    }
+    
+    /**
+     * Create and start the container of this connection as needed, waiting
+     * for it to be running and accepting connections, and returning the full
+     * Guacamole Configuration needed to connect to it.
+     * 
+     * @return
+     *     The Guacamole Configuration for connecting to the running container.
+     * 
+     * @throws GuacamoleException
+     *     If the container could not be created or started.
+     */
+    public GuacamoleConfiguration getReadyConfiguration()
+            throws GuacamoleException {
+        
+        ContainerSpec spec = getContainerSpec();
+        DockerStartupClient client = cluster.getClient(containerId, spec);
+        
+        // Refuse before anything is created or started if over quota
+        QuotaLedger ledger = cluster.getQuotaLedger();
+        boolean charged = cluster.charge(containerId, limits.getMemory(), quotas);
+        
+        Map<String, String> parameters;
+        try {
+            parameters = DockerStartupClient.await(
+                    client.provisionContainerAsync(spec, containerId)
+                    .thenCompose(snapshot -> client.getContainerConnectionAsync(snapshot, imagePort))
+                    .thenCompose(params -> client.awaitReadyAsync(params, imageName)));
+        }
+        catch (GuacamoleException e) {
+            if (charged)
+                ledger.release(containerId);
+            throw e;
+        }
+        
+        GuacamoleConfiguration readyConfig = new GuacamoleConfiguration(config);
+        for (Map.Entry<String, String> parameter : parameters.entrySet())
+            readyConfig.setParameter(parameter.getKey(), parameter.getValue());
+        
+        return readyConfig;
+        
+    }
+    
+    @Override
+    public GuacamoleTunnel connect(GuacamoleClientInformation info)
+            throws GuacamoleException {
+        
+        logger.debug(">>>DOCKER<<< Provisioning container {} for connection.", containerId);
+        
+        // Keep the container from being reaped while it is being connected
+        ContainerReaper reaper = cluster.getClient(containerId,
+                getContainerSpec()).getContainerReaper();
+        if (reaper != null)
+            reaper.touch(containerId);
+        
+        // Only now that the connection is used is the container started
+        GuacamoleTunnel tunnel = new SimpleConnection(getName(), getIdentifier(),
+                getReadyConfiguration()).connect(info);
+        
+        if (reaper == null)
+            return tunnel;
+        
+        return new DockerStartupTunnel(tunnel, reaper, containerId);
+        
+    }
+    
+    /**
+     * Return the spec of the container of this connection.
+     * 
+     * @return
+     *     The spec describing the image, port, command, and resource limits
+     *     of the container.
+     */
+    public ContainerSpec getContainerSpec() {
+        return new ContainerSpec(imageName, imagePort, imageCmd, limits);
+    }
+    
     public String getContainerId() {
         return containerId;
     }
     
     public String stopContainer() throws GuacamoleException {
+        
+        DockerStartupClient client = cluster.locate(containerId);
+        if (client == null)
+            throw new DockerStartupException("Container " + containerId
+                    + " does not exist.");
+        
         return client.stopContainer(containerId);
+        
     }
     
     
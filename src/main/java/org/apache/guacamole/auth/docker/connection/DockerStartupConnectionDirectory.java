@@ -19,66 +19,26 @@
 
 package org.apache.guacamole.auth.docker.connection;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.net.auth.Connection;
 import org.apache.guacamole.net.auth.simple.SimpleDirectory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
- * A directory containing a single connection that is started in a Docker
- * container.
+ * A read-only directory containing the connections to the Docker containers
+ * available to the current user, served entirely from a precomputed index.
  */
 public class DockerStartupConnectionDirectory 
         extends SimpleDirectory<Connection> {
     
-    private final static Logger logger = LoggerFactory.getLogger(DockerStartupConnectionDirectory.class);
-    
-    private final Map<String, Connection> connections;
-    
-    public DockerStartupConnectionDirectory()
-            throws GuacamoleException {
-        this.connections = new ConcurrentHashMap<>();
-    }
-    
-    @Override
-    public void add(Connection connection) {
-        logger.debug(">>>DOCKER<<< Adding connection {} to directory.", connection.getIdentifier());
-        connections.put(connection.getIdentifier(), connection);
-    }
-    
-    @Override
-    public Connection get(String identifier) throws GuacamoleException {
-        if (!connections.containsKey(identifier))
-            return super.get(identifier);
-        return connections.get(identifier);
-    }
-    
-    @Override
-    public Collection<Connection> getAll(Collection<String> identifiers) 
-            throws GuacamoleException {
-        Collection<Connection> allConnections = new ArrayList<>();
-        for (String identifier : identifiers) {
-            if (!connections.containsKey(identifier))
-                allConnections.add(super.get(identifier));
-            else
-                allConnections.add(connections.get(identifier));
-        }
-        
-        return allConnections;
-    }
-    
-    @Override
-    public Set<String> getIdentifiers() throws GuacamoleException {
-        Set<String> allIds = new HashSet<>(super.getIdentifiers());
-        allIds.addAll(connections.keySet());
-        return allIds;
+    /**
+     * Create a new directory serving the given index of connections.
+     * 
+     * @param connections
+     *     All connections within this directory, keyed by identifier, as
+     *     produced by a DockerStartupConnectionResolver.
+     */
+    public DockerStartupConnectionDirectory(Map<String, Connection> connections) {
+        super(connections);
     }
     
 }
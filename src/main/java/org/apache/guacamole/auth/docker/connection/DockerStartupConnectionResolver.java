@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.docker.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.docker.ContainerPool;
+import org.apache.guacamole.docker.ContainerSpec;
+import org.apache.guacamole.docker.DockerCluster;
+import org.apache.guacamole.docker.DockerStartupClient;
+import org.apache.guacamole.docker.Quota;
+import org.apache.guacamole.docker.ResourceLimits;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
+import org.apache.guacamole.net.auth.Connection;
+import org.apache.guacamole.net.auth.User;
+import org.apache.guacamole.net.auth.UserContext;
+import org.apache.guacamole.net.auth.UserGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines the Docker connections available to the current user, derived
+ * from the Docker image attributes of the user and of each group of which
+ * the user is a member.  Resolution reads the user and group objects of the
+ * decorated UserContext directly and has no side effects.
+ */
+public class DockerStartupConnectionResolver {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DockerStartupConnectionResolver.class);
+
+    /**
+     * The prefix of the subject of each quota defined on a user.
+     */
+    private static final String USER_QUOTA_PREFIX = "user:";
+
+    /**
+     * The prefix of the subject of each quota defined on a user group.
+     */
+    private static final String GROUP_QUOTA_PREFIX = "group:";
+
+    /**
+     * The Docker hosts that resolved connections will use.
+     */
+    private final DockerCluster cluster;
+
+    /**
+     * The resource limits applied to containers where not overridden by
+     * attributes.
+     */
+    private final ResourceLimits defaultLimits;
+
+    /**
+     * Create a new resolver whose connections will use the given hosts.
+     *
+     * @param cluster
+     *     The Docker hosts that resolved connections will use to start their
+     *     containers.
+     *
+     * @param defaultLimits
+     *     The resource limits applied to containers where not overridden by
+     *     the attributes of a user or group.
+     */
+    public DockerStartupConnectionResolver(DockerCluster cluster,
+            ResourceLimits defaultLimits) {
+        this.cluster = cluster;
+        this.defaultLimits = defaultLimits;
+    }
+
+    /**
+     * Return whether or not the given attributes fully describe a Docker
+     * connection.
+     *
+     * @param attributes
+     *     The attributes of a user or user group.
+     *
+     * @return
+     *     True if the image name, protocol, and port are all present,
+     *     otherwise false.
+     */
+    public static boolean hasDockerConnection(Map<String, String> attributes) {
+        return isSet(attributes, DockerStartupConnection.DOCKER_IMAGE_NAME_ATTRIBUTE)
+                && isSet(attributes, DockerStartupConnection.DOCKER_IMAGE_PROTOCOL_ATTRIBUTE)
+                && isSet(attributes, DockerStartupConnection.DOCKER_IMAGE_PORT_ATTRIBUTE);
+    }
+
+    /**
+     * Return whether the given attribute has a non-empty value.
+     *
+     * @param attributes
+     *     The attributes to check.
+     *
+     * @param name
+     *     The name of the attribute.
+     *
+     * @return
+     *     True if the attribute is present and non-empty, otherwise false.
+     */
+    private static boolean isSet(Map<String, String> attributes, String name) {
+        String value = attributes.get(name);
+        return value != null && !value.isEmpty();
+    }
+
+    /**
+     * Add a connection for the given user or group to the given index, if
+     * its attributes describe a Docker connection and no connection of the
+     * same identifier has already been added.
+     *
+     * @param index
+     *     The index of connections, keyed by identifier.
+     *
+     * @param identifier
+     *     The identifier of the user or group, which is also used as the
+     *     name of its container.
+     *
+     * @param attributes
+     *     The attributes of the user or group.
+     *
+     * @param quotas
+     *     The quotas of the current user and their groups.
+     *
+     * @return
+     *     The connection added, or null if no connection was added.
+     *
+     * @throws GuacamoleException
+     *     If the connection cannot be created.
+     */
+    private DockerStartupConnection addConnection(Map<String, Connection> index,
+            String identifier, Map<String, String> attributes,
+            Collection<Quota> quotas) throws GuacamoleException {
+
+        if (index.containsKey(identifier) || !hasDockerConnection(attributes))
+            return null;
+
+        Map<String, String> connectionAttrs = new HashMap<>();
+        for (String attr : DockerStartupConnection.DOCKER_IMAGE_ATTRIBUTES) {
+            if (attributes.containsKey(attr))
+                connectionAttrs.put(attr, attributes.get(attr));
+        }
+
+        logger.debug(">>>DOCKER<<< Resolved Docker connection {}.", identifier);
+        DockerStartupConnection connection = new DockerStartupConnection(
+                cluster, identifier, connectionAttrs, defaultLimits, quotas);
+        index.put(identifier, connection);
+        return connection;
+
+    }
+
+    /**
+     * Add the quota defined by the given attributes of a user or group, if
+     * any, to the given list.
+     *
+     * @param quotas
+     *     The list of quotas to add to.
+     *
+     * @param subject
+     *     The user or group to which the quota applies.
+     *
+     * @param attributes
+     *     The attributes of the user or group.
+     *
+     * @throws GuacamoleException
+     *     If a quota attribute is not a valid number.
+     */
+    private static void addQuota(List<Quota> quotas, String subject,
+            Map<String, String> attributes) throws GuacamoleException {
+        Quota quota = DockerStartupConnection.getQuota(subject, attributes);
+        if (quota != null)
+            quotas.add(quota);
+    }
+
+    /**
+     * Register the given spec with the container pool of every host which
+     * pools containers, as the container may be placed on any host.
+     *
+     * @param spec
+     *     The spec of the containers to pool.
+     */
+    private void registerPooled(ContainerSpec spec) {
+        for (DockerStartupClient client : cluster.getClients()) {
+            ContainerPool pool = client.getContainerPool();
+            if (pool != null)
+                pool.register(spec);
+        }
+    }
+
+    /**
+     * Resolve all Docker connections available to the user of the given
+     * context, from the attributes of that user and of the groups of which
+     * they are a member.
+     *
+     * @param userContext
+     *     The undecorated UserContext of the current user.
+     *
+     * @param authenticatedUser
+     *     The current user, as authenticated, which may report group
+     *     memberships beyond those stored alongside the user's attributes.
+     *
+     * @return
+     *     An index of all Docker connections available to the user, keyed
+     *     by connection identifier.
+     *
+     * @throws GuacamoleException
+     *     If the user or groups cannot be read.
+     */
+    public Map<String, Connection> resolve(UserContext userContext,
+            AuthenticatedUser authenticatedUser) throws GuacamoleException {
+
+        Map<String, Connection> index = new HashMap<>();
+
+        User self = userContext.self();
+
+        // Direct memberships plus any reported by authentication
+        Set<String> groupIdentifiers = new HashSet<>(self.getUserGroups().getObjects());
+        if (authenticatedUser != null)
+            groupIdentifiers.addAll(authenticatedUser.getEffectiveUserGroups());
+
+        // Fetch all groups at once; groups the user cannot read are skipped
+        Collection<UserGroup> groups = groupIdentifiers.isEmpty()
+                ? Collections.<UserGroup>emptyList()
+                : userContext.getUserGroupDirectory().getAll(groupIdentifiers);
+
+        // Every connection is subject to the quotas of the user and groups
+        List<Quota> quotas = new ArrayList<>();
+        addQuota(quotas, USER_QUOTA_PREFIX + self.getIdentifier(),
+                self.getAttributes());
+        for (UserGroup group : groups)
+            addQuota(quotas, GROUP_QUOTA_PREFIX + group.getIdentifier(),
+                    group.getAttributes());
+
+        addConnection(index, self.getIdentifier(), self.getAttributes(), quotas);
+        for (UserGroup group : groups) {
+
+            DockerStartupConnection connection = addConnection(index,
+                    group.getIdentifier(), group.getAttributes(), quotas);
+
+            // Images shared by a group are worth keeping ready
+            if (connection != null)
+                registerPooled(connection.getContainerSpec());
+
+        }
+
+        return index;
+
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.auth.docker.connection;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.docker.ContainerReaper;
+import org.apache.guacamole.net.DelegatingGuacamoleTunnel;
+import org.apache.guacamole.net.GuacamoleTunnel;
+
+/**
+ * A tunnel to a Docker container which records its opening and closing with
+ * the reaper, such that the container is not stopped while in use.
+ */
+public class DockerStartupTunnel extends DelegatingGuacamoleTunnel {
+    
+    /**
+     * The reaper tracking activity of the container.
+     */
+    private final ContainerReaper reaper;
+    
+    /**
+     * The name of the container to which this tunnel is connected.
+     */
+    private final String containerName;
+    
+    /**
+     * Whether or not this tunnel has already been closed.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    
+    /**
+     * Wrap the given tunnel, recording it as open with the given reaper.
+     * 
+     * @param tunnel
+     *     The tunnel to the container.
+     * 
+     * @param reaper
+     *     The reaper tracking activity of the container.
+     * 
+     * @param containerName
+     *     The name of the container to which the tunnel is connected.
+     */
+    public DockerStartupTunnel(GuacamoleTunnel tunnel, ContainerReaper reaper,
+            String containerName) {
+        super(tunnel);
+        this.reaper = reaper;
+        this.containerName = containerName;
+        reaper.tunnelOpened(containerName);
+    }
+    
+    @Override
+    public void close() throws GuacamoleException {
+        try {
+            super.close();
+        }
+        finally {
+            if (closed.compareAndSet(false, true))
+                reaper.tunnelClosed(containerName);
+        }
+    }
+    
+}
@@ -21,10 +21,7 @@ package org.apache.guacamole.auth.docker.user;
 
 import java.util.HashMap;
 import java.util.Map;
-import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.docker.connection.DockerStartupConnection;
-import org.apache.guacamole.docker.DockerStartupClient;
-import org.apache.guacamole.net.auth.Connection;
 import org.apache.guacamole.net.auth.DelegatingUser;
 import org.apache.guacamole.net.auth.User;
 
@@ -115,26 +112,4 @@ public class DockerStartupUser extends DelegatingUser {
         super.setAttributes(setAttributes);
     }
     
-    public Boolean hasDockerConnection() {
-        return (attributes.containsKey(DockerStartupConnection.DOCKER_IMAGE_NAME_ATTRIBUTE)
-                && attributes.containsKey(DockerStartupConnection.DOCKER_IMAGE_PROTOCOL_ATTRIBUTE)
-                && attributes.containsKey(DockerStartupConnection.DOCKER_IMAGE_PORT_ATTRIBUTE));
-    }
-    
-    public Connection getDockerConnection(DockerStartupClient dockerClient)
-            throws GuacamoleException {
-        
-        if (!hasDockerConnection())
-            return null;
-        
-        Map<String, String> connectionAttrs = new HashMap<>();
-        for (String attr : DockerStartupConnection.DOCKER_IMAGE_ATTRIBUTES) {
-            if (attributes.containsKey(attr))
-                connectionAttrs.put(attr, attributes.get(attr));
-        }
-        
-        return new DockerStartupConnection(dockerClient, this.getIdentifier(),
-                connectionAttrs);
-    }
-    
 }
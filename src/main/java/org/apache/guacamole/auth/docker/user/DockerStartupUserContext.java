@@ -25,8 +25,9 @@ import java.util.HashSet;
 import org.apache.guacamole.GuacamoleException;
 import org.apache.guacamole.auth.docker.connection.DockerStartupConnection;
 import org.apache.guacamole.auth.docker.connection.DockerStartupConnectionDirectory;
-import org.apache.guacamole.docker.DockerStartupClient;
+import org.apache.guacamole.auth.docker.connection.DockerStartupConnectionResolver;
 import org.apache.guacamole.form.Form;
+import org.apache.guacamole.net.auth.AuthenticatedUser;
 import org.apache.guacamole.net.auth.Connection;
 import org.apache.guacamole.net.auth.DecoratingDirectory;
 import org.apache.guacamole.net.auth.DelegatingUserContext;
@@ -76,27 +77,35 @@ public class DockerStartupUserContext extends DelegatingUserContext {
     
     /**
      * Initialize a new DockerStartupUserContext, decorating the provided
-     * userContext object, and using the provided DockerStartupClient to
-     * perform Docker-related operations.
+     * userContext object, and using the provided resolver to determine the
+     * Docker connections available.  The Docker connections available to
+     * the current user are resolved once, here.
      * 
      * @param userContext
      *     The UserContext to decorate.
      * 
-     * @param dockerClient
-     *     The DockerStartupClient to use to perform Docker-related operations.
+     * @param authenticatedUser
+     *     The user whose UserContext is being decorated.
+     * 
+     * @param resolver
+     *     The resolver to use to determine the Docker connections available
+     *     to the user.
      * 
      * @throws GuacamoleException
-     *     If errors occur using the DockerStartupClient or initializing
+     *     If errors occur resolving Docker connections or initializing
      *     the various directories.
      */
     public DockerStartupUserContext(UserContext userContext,
-            DockerStartupClient dockerClient) throws GuacamoleException {
+            AuthenticatedUser authenticatedUser,
+            DockerStartupConnectionResolver resolver) throws GuacamoleException {
         
         super(userContext);
         
-        logger.debug(">>>DOCKER<<< Building user directory.");
+        logger.debug(">>>DOCKER<<< Resolving Docker connections.");
+        connectionDirectory = new DockerStartupConnectionDirectory(
+                resolver.resolve(userContext, authenticatedUser));
         
-        connectionDirectory = new DockerStartupConnectionDirectory();
+        logger.debug(">>>DOCKER<<< Building user directory.");
         
         this.userDirectory = new DecoratingDirectory<User>(super.getUserDirectory()) {
             
@@ -109,10 +118,7 @@ public class DockerStartupUserContext extends DelegatingUserContext {
                 if (sys.hasPermission(SystemPermission.Type.ADMINISTER)
                         || obj.hasPermission(ObjectPermission.Type.UPDATE, object.getIdentifier()))
                     canUpdate = true;
-                DockerStartupUser decoratedUser = new DockerStartupUser(object, canUpdate);
-                if (decoratedUser.hasDockerConnection())
-                    connectionDirectory.add(decoratedUser.getDockerConnection(dockerClient));
-                return decoratedUser;
+                return new DockerStartupUser(object, canUpdate);
             }
             
             @Override
@@ -136,12 +142,7 @@ public class DockerStartupUserContext extends DelegatingUserContext {
                 if (sys.hasPermission(SystemPermission.Type.ADMINISTER)
                         || obj.hasPermission(ObjectPermission.Type.UPDATE, object.getIdentifier()))
                     canUpdate = true;
-                DockerStartupUserGroup decoratedGroup = new DockerStartupUserGroup(object, canUpdate);
-                if (decoratedGroup.hasDockerConnection())
-                    connectionDirectory.add(decoratedGroup.getDockerConnection(dockerClient));
-                return decoratedGroup;
-                    
-                
+                return new DockerStartupUserGroup(object, canUpdate);
             }
             
             @Override
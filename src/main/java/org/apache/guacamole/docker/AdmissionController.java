@@ -0,0 +1,387 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.apache.guacamole.GuacamoleServerBusyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of container starts in progress at once on a single
+ * Docker host, such that a burst of logins does not overload the Docker
+ * daemon.  Starts beyond the limit wait in a first-in, first-out queue of
+ * bounded length for a bounded time, after which they fail with an error
+ * telling the user to try again.  No thread is blocked while waiting.
+ */
+public class AdmissionController implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    /**
+     * The maximum number of starts which may be in progress at once.
+     */
+    private final int maxInFlight;
+
+    /**
+     * The maximum number of starts which may wait to be admitted.
+     */
+    private final int maxQueued;
+
+    /**
+     * The maximum number of milliseconds a start may wait to be admitted.
+     */
+    private final long maxWait;
+
+    /**
+     * The number of starts currently in progress.  Guarded by the queue.
+     */
+    private int inFlight = 0;
+
+    /**
+     * All starts waiting to be admitted, in order of arrival.  Waiters which
+     * have timed out are removed eagerly.
+     */
+    private final Queue<Waiter> queue = new ArrayDeque<>();
+
+    /**
+     * The thread on which queue timeouts are scheduled.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The number of starts admitted, with or without waiting.
+     */
+    private final LongAdder admitted = new LongAdder();
+
+    /**
+     * The number of starts which waited before being admitted.
+     */
+    private final LongAdder queued = new LongAdder();
+
+    /**
+     * The number of starts refused because the queue was full, or which
+     * timed out while queued.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * The total number of milliseconds spent queued by admitted starts.
+     */
+    private final LongAdder totalWait = new LongAdder();
+
+    /**
+     * The longest number of milliseconds any admitted start spent queued.
+     */
+    private final AtomicLong longestWait = new AtomicLong();
+
+    /**
+     * Create a new controller admitting up to the given number of starts at
+     * once.
+     *
+     * @param maxInFlight
+     *     The maximum number of starts which may be in progress at once.
+     *
+     * @param maxQueued
+     *     The maximum number of starts which may wait to be admitted.
+     *
+     * @param maxWait
+     *     The maximum number of seconds a start may wait to be admitted.
+     */
+    public AdmissionController(int maxInFlight, int maxQueued, int maxWait) {
+        this.maxInFlight = Math.max(maxInFlight, 1);
+        this.maxQueued = Math.max(maxQueued, 0);
+        this.maxWait = TimeUnit.SECONDS.toMillis(Math.max(maxWait, 0));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-startup-admission");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run the given start once admitted, holding its place among the starts
+     * in progress until the future it returns completes.
+     *
+     * @param <T>
+     *     The type of value produced by the start.
+     *
+     * @param start
+     *     The start to run, returning a future which completes once the
+     *     start is finished.
+     *
+     * @return
+     *     A future which completes with the result of the start, or fails
+     *     with a GuacamoleServerBusyException if the start could not be
+     *     admitted in time.
+     */
+    public <T> CompletableFuture<T> admit(Supplier<CompletableFuture<T>> start) {
+
+        Waiter waiter = new Waiter();
+        boolean admittedNow = false;
+        boolean full = false;
+
+        synchronized (queue) {
+            if (inFlight < maxInFlight) {
+                inFlight++;
+                admittedNow = true;
+            }
+            else if (queue.size() >= maxQueued || maxWait == 0)
+                full = true;
+            else
+                queue.add(waiter);
+        }
+
+        if (admittedNow) {
+            admitted.increment();
+            waiter.ticket.complete(null);
+        }
+        else if (full) {
+            rejected.increment();
+            waiter.ticket.completeExceptionally(new GuacamoleServerBusyException(
+                    "Too many containers are waiting to start. Please try "
+                    + "again shortly."));
+        }
+        else {
+            logger.debug(">>>DOCKER<<< Queueing container start behind {} others.",
+                    getQueueDepth() - 1);
+            scheduleTimeout(waiter);
+        }
+
+        return waiter.ticket.thenCompose(ticket -> {
+
+            CompletableFuture<T> result;
+            try {
+                result = start.get();
+            }
+            catch (RuntimeException e) {
+                release();
+                throw e;
+            }
+
+            return result.whenComplete((value, error) -> release());
+
+        });
+
+    }
+
+    /**
+     * Fail the given waiter if it has not been admitted within the maximum
+     * wait.
+     *
+     * @param waiter
+     *     The waiter just added to the queue.
+     */
+    private void scheduleTimeout(Waiter waiter) {
+
+        try {
+            waiter.timeout = scheduler.schedule(() -> {
+
+                synchronized (queue) {
+                    if (!queue.remove(waiter))
+                        return;
+                }
+
+                rejected.increment();
+                waiter.ticket.completeExceptionally(new GuacamoleServerBusyException(
+                        "Your container is queued behind other containers "
+                        + "which are starting, and was not started within "
+                        + TimeUnit.MILLISECONDS.toSeconds(maxWait)
+                        + " seconds. Please try again shortly."));
+
+            }, maxWait, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            synchronized (queue) {
+                queue.remove(waiter);
+            }
+            waiter.ticket.completeExceptionally(new DockerStartupException(
+                    "Admission controller has been closed.", e));
+        }
+
+    }
+
+    /**
+     * Release the place of a finished start, admitting the longest waiting
+     * start, if any.
+     */
+    private void release() {
+
+        Waiter next;
+        synchronized (queue) {
+            next = queue.poll();
+            if (next == null)
+                inFlight--;
+        }
+
+        if (next == null)
+            return;
+
+        // The place of the finished start passes directly to the next
+        if (next.timeout != null)
+            next.timeout.cancel(false);
+
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - next.enqueued);
+        admitted.increment();
+        queued.increment();
+        totalWait.add(waited);
+        longestWait.accumulateAndGet(waited, Math::max);
+        logger.debug(">>>DOCKER<<< Admitted container start after {} ms.", waited);
+
+        next.ticket.complete(null);
+
+    }
+
+    /**
+     * Return the number of starts currently in progress.
+     *
+     * @return
+     *     The number of starts currently in progress.
+     */
+    public int getInFlight() {
+        synchronized (queue) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * Return the number of starts currently waiting to be admitted.
+     *
+     * @return
+     *     The number of starts currently queued.
+     */
+    public int getQueueDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Return the number of starts admitted, with or without waiting.
+     *
+     * @return
+     *     The number of starts admitted.
+     */
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * Return the number of starts which waited in the queue before being
+     * admitted.
+     *
+     * @return
+     *     The number of starts admitted after queueing.
+     */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    /**
+     * Return the number of starts refused because the queue was full, or
+     * which timed out while queued.
+     *
+     * @return
+     *     The number of starts refused.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Return the average time spent queued by starts which had to wait.
+     *
+     * @return
+     *     The average number of milliseconds spent queued, or zero if no
+     *     start has waited.
+     */
+    public long getAverageWait() {
+        long n = queued.sum();
+        return n > 0 ? totalWait.sum() / n : 0;
+    }
+
+    /**
+     * Return the longest time any admitted start spent queued.
+     *
+     * @return
+     *     The longest number of milliseconds spent queued.
+     */
+    public long getMaxWait() {
+        return longestWait.get();
+    }
+
+    /**
+     * Stop admitting starts, failing any which are queued.
+     */
+    @Override
+    public void close() {
+
+        scheduler.shutdownNow();
+
+        Queue<Waiter> abandoned;
+        synchronized (queue) {
+            abandoned = new ArrayDeque<>(queue);
+            queue.clear();
+        }
+
+        for (Waiter waiter : abandoned)
+            waiter.ticket.completeExceptionally(new DockerStartupException(
+                    "Admission controller has been closed."));
+
+    }
+
+    /**
+     * A single start awaiting admission.
+     */
+    private static class Waiter {
+
+        /**
+         * The future completed once the start is admitted.
+         */
+        private final CompletableFuture<Void> ticket = new CompletableFuture<>();
+
+        /**
+         * The value of System.nanoTime() when the start was queued.
+         */
+        private final long enqueued = System.nanoTime();
+
+        /**
+         * The scheduled failure of this waiter, if it is queued.
+         */
+        private volatile ScheduledFuture<?> timeout;
+
+    }
+
+}
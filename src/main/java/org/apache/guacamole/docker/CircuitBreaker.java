@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calls from being made to a Docker host which has stopped responding,
+ * such that callers fail immediately rather than waiting on a host which is
+ * known to be down.  After a configurable number of consecutive failures the
+ * breaker opens, refusing all calls for a cool-down period.  A single trial
+ * call is then allowed through; if it succeeds the breaker closes, and if it
+ * fails the breaker opens for another cool-down period.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * The state of a circuit breaker.
+     */
+    public enum State {
+
+        /**
+         * Calls are allowed.
+         */
+        CLOSED,
+
+        /**
+         * Calls are refused until the cool-down period ends.
+         */
+        OPEN,
+
+        /**
+         * The cool-down period has ended, and a single trial call is in
+         * progress.
+         */
+        HALF_OPEN
+
+    }
+
+    /**
+     * The name of the host protected by this breaker, for logging.
+     */
+    private final String name;
+
+    /**
+     * The number of consecutive failures after which the breaker opens.
+     */
+    private final int failureThreshold;
+
+    /**
+     * The number of milliseconds for which the breaker remains open.
+     */
+    private final long coolDown;
+
+    /**
+     * The current state of the breaker.  Guarded by this breaker.
+     */
+    private State state = State.CLOSED;
+
+    /**
+     * The number of consecutive failures since the last success.  Guarded
+     * by this breaker.
+     */
+    private int consecutiveFailures = 0;
+
+    /**
+     * The time the breaker last opened, in milliseconds since the epoch.
+     * Guarded by this breaker.
+     */
+    private long openedAt;
+
+    /**
+     * The number of calls refused while the breaker was open.
+     */
+    private final LongAdder refused = new LongAdder();
+
+    /**
+     * The number of times the breaker has opened.
+     */
+    private final LongAdder trips = new LongAdder();
+
+    /**
+     * Create a new, closed breaker.
+     *
+     * @param name
+     *     The name of the host protected by this breaker, for logging.
+     *
+     * @param failureThreshold
+     *     The number of consecutive failures after which the breaker opens.
+     *
+     * @param coolDown
+     *     The number of seconds for which the breaker remains open.
+     */
+    public CircuitBreaker(String name, int failureThreshold, int coolDown) {
+        this.name = name;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.coolDown = TimeUnit.SECONDS.toMillis(Math.max(coolDown, 1));
+    }
+
+    /**
+     * Return whether a call may be made now.  If the cool-down period has
+     * ended, the caller is permitted to make the single trial call, and must
+     * report its outcome.
+     *
+     * @return
+     *     True if the call may be made, false if it must fail immediately.
+     */
+    public synchronized boolean allowRequest() {
+
+        switch (state) {
+
+            case CLOSED:
+                return true;
+
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= coolDown) {
+                    logger.debug(">>>DOCKER<<< Trying Docker host {} again.", name);
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                break;
+
+            case HALF_OPEN:
+                break;
+
+        }
+
+        refused.increment();
+        return false;
+
+    }
+
+    /**
+     * Record that a call succeeded, closing the breaker.
+     */
+    public synchronized void recordSuccess() {
+
+        if (state != State.CLOSED)
+            logger.info("Docker host {} is responding again.", name);
+
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+
+    }
+
+    /**
+     * Record that a call permitted by allowRequest() was never made, such as
+     * because it could not be queued locally.  Nothing is learned about the
+     * host, so the breaker is left as it was, other than that a trial call
+     * not made may be made by the next caller.
+     */
+    public synchronized void recordAbandoned() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis() - coolDown;
+        }
+    }
+
+    /**
+     * Record that a call failed because the host did not respond, opening
+     * the breaker if the trial call failed or too many calls have failed in
+     * a row.
+     */
+    public synchronized void recordFailure() {
+
+        consecutiveFailures++;
+        if (state == State.OPEN)
+            return;
+
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            logger.warn("Docker host {} is not responding; refusing calls for "
+                    + "{} seconds.", name, TimeUnit.MILLISECONDS.toSeconds(coolDown));
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trips.increment();
+        }
+
+    }
+
+    /**
+     * Return whether calls would currently be refused.  Unlike
+     * allowRequest(), this never begins a trial call.
+     *
+     * @return
+     *     True if the breaker is open and its cool-down period has not
+     *     ended, or a trial call is in progress, otherwise false.
+     */
+    public synchronized boolean isOpen() {
+        return state == State.HALF_OPEN || (state == State.OPEN
+                && System.currentTimeMillis() - openedAt < coolDown);
+    }
+
+    /**
+     * Return the current state of the breaker.
+     *
+     * @return
+     *     The current state of the breaker.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Return the number of calls refused while the breaker was open.
+     *
+     * @return
+     *     The number of calls refused.
+     */
+    public long getRefusedCount() {
+        return refused.sum();
+    }
+
+    /**
+     * Return the number of times the breaker has opened.
+     *
+     * @return
+     *     The number of times the breaker has opened.
+     */
+    public long getTripCount() {
+        return trips.sum();
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Places each container on a host chosen by hashing its name onto a ring of
+ * hosts, such that the container of a given user or group is always placed
+ * on the same host, regardless of load.  Each host occupies many points on
+ * the ring, so containers are spread evenly, and adding or removing one of N
+ * hosts moves only about 1/N of containers.
+ *
+ * If the chosen host is unreachable, the next reachable host around the
+ * ring is chosen, such that only the containers of that host move.
+ */
+public class ConsistentHashPlacement implements PlacementStrategy {
+
+    /**
+     * The number of points each host occupies on the ring by default.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    /**
+     * The number of points each host occupies on the ring.
+     */
+    private final int virtualNodes;
+
+    /**
+     * The ring of the hosts last placed onto, or null if nothing has been
+     * placed yet.
+     */
+    private volatile Ring ring;
+
+    /**
+     * Create a new strategy in which each host occupies the given number of
+     * points on the ring.
+     *
+     * @param virtualNodes
+     *     The number of points each host occupies on the ring.  More points
+     *     spread containers more evenly, at the cost of memory.
+     */
+    public ConsistentHashPlacement(int virtualNodes) {
+        this.virtualNodes = Math.max(virtualNodes, 1);
+    }
+
+    /**
+     * Return the position on the ring of the given key.
+     *
+     * @param key
+     *     The key to hash.
+     *
+     * @return
+     *     The position of the key, taken from the first eight bytes of its
+     *     MD5 digest.
+     */
+    private static long hash(String key) {
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available.", e);
+        }
+
+        long position = 0;
+        for (int i = 0; i < 8; i++)
+            position = (position << 8) | (digest[i] & 0xFF);
+
+        return position;
+
+    }
+
+    @Override
+    public HostLoad place(String containerName, List<HostLoad> hosts) {
+
+        Ring current = ring;
+        if (current == null || !current.hasHosts(hosts)) {
+            current = new Ring(hosts, virtualNodes);
+            ring = current;
+        }
+
+        Map<String, HostLoad> loads = new HashMap<>();
+        for (HostLoad host : hosts)
+            loads.put(host.getHostId(), host);
+
+        // Walk clockwise from the name until a reachable host is found
+        HostLoad first = null;
+        for (String hostId : current.from(hash(containerName))) {
+            HostLoad host = loads.get(hostId);
+            if (first == null)
+                first = host;
+            if (host.isReachable())
+                return host;
+        }
+
+        // If no host is known to be reachable, let creation report the error
+        return first;
+
+    }
+
+    @Override
+    public boolean isSticky() {
+        return true;
+    }
+
+    /**
+     * An immutable ring of the points of a fixed set of hosts.
+     */
+    private static class Ring {
+
+        /**
+         * The identifiers of the hosts on the ring, in the order given.
+         */
+        private final List<String> hostIds = new ArrayList<>();
+
+        /**
+         * The identifier of the host at each point of the ring, keyed by
+         * position.
+         */
+        private final NavigableMap<Long, String> points = new TreeMap<>();
+
+        /**
+         * Create a new ring of the given hosts.
+         *
+         * @param hosts
+         *     The hosts to place on the ring.
+         *
+         * @param virtualNodes
+         *     The number of points each host occupies.
+         */
+        Ring(List<HostLoad> hosts, int virtualNodes) {
+            for (HostLoad host : hosts) {
+                String hostId = host.getHostId();
+                hostIds.add(hostId);
+                for (int i = 0; i < virtualNodes; i++)
+                    points.putIfAbsent(hash(hostId + "#" + i), hostId);
+            }
+        }
+
+        /**
+         * Return whether this ring was built from exactly the given hosts.
+         *
+         * @param hosts
+         *     The hosts to compare against.
+         *
+         * @return
+         *     True if this ring contains the given hosts in the same order,
+         *     otherwise false.
+         */
+        boolean hasHosts(List<HostLoad> hosts) {
+
+            if (hosts.size() != hostIds.size())
+                return false;
+
+            for (int i = 0; i < hosts.size(); i++) {
+                if (!hostIds.get(i).equals(hosts.get(i).getHostId()))
+                    return false;
+            }
+
+            return true;
+
+        }
+
+        /**
+         * Return the host at every point of the ring, in the order met when
+         * walking clockwise around the ring from the given position.
+         *
+         * @param position
+         *     The position from which to walk.
+         *
+         * @return
+         *     The identifier of the host at each point, nearest first.
+         */
+        Iterable<String> from(long position) {
+            return () -> Stream.concat(
+                    points.tailMap(position, true).values().stream(),
+                    points.headMap(position, false).values().stream())
+                    .iterator();
+        }
+
+    }
+
+}
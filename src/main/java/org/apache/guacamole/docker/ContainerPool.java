@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import com.github.dockerjava.api.model.Container;
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of pre-created, and optionally pre-started, containers for each
+ * registered container spec.  When a container is needed which does not yet
+ * exist, an idle pooled container of the same spec is claimed by renaming it,
+ * avoiding the cost of creating and starting a container while the user
+ * waits.  The pool is refilled in the background.
+ *
+ * Docker does not allow the labels of an existing container to be changed, so
+ * pooled containers are recognized by the prefix of their name as well as by
+ * their labels.  Once claimed and renamed, a container is no longer
+ * considered part of the pool.
+ */
+public class ContainerPool implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ContainerPool.class);
+
+    /**
+     * The prefix of the name of every pooled container which has not yet been
+     * claimed.
+     */
+    public static final String NAME_PREFIX = "guacamole-pool-";
+
+    /**
+     * The label applied to every pooled container.
+     */
+    public static final String POOL_LABEL = DockerStartupClient.MANAGED_LABEL + ".pool";
+
+    /**
+     * The label recording the port published by a pooled container.
+     */
+    public static final String PORT_LABEL = POOL_LABEL + ".port";
+
+    /**
+     * The label recording the image reference a pooled container was
+     * created from, which Docker reports as an image ID once the tag of that
+     * image has moved.
+     */
+    public static final String IMAGE_LABEL = POOL_LABEL + ".image";
+
+    /**
+     * The label recording the command run by a pooled container, if any.
+     */
+    public static final String CMD_LABEL = POOL_LABEL + ".cmd";
+
+    /**
+     * The prefix of the labels recording the resource limits of a pooled
+     * container.
+     */
+    public static final String LIMIT_LABEL_PREFIX = POOL_LABEL + ".limit.";
+
+    /**
+     * The number of seconds between periodic refills of the pool, which
+     * replace pooled containers that were removed outside of this extension.
+     */
+    private static final long REFILL_INTERVAL = 30;
+
+    /**
+     * The client used to create, rename, and remove pooled containers.
+     */
+    private final DockerStartupClient client;
+
+    /**
+     * The number of idle containers to maintain for each spec.
+     */
+    private final int targetSize;
+
+    /**
+     * The maximum number of idle containers to retain for each spec.
+     */
+    private final int maxSize;
+
+    /**
+     * Whether or not pooled containers are started as soon as they are
+     * created.
+     */
+    private final boolean prestart;
+
+    /**
+     * The identifiers of idle pooled containers, keyed by spec.  The presence
+     * of a spec as a key registers that spec with the pool.
+     */
+    private final ConcurrentMap<ContainerSpec, Queue<String>> idle =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The single thread on which the pool is filled.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Whether or not this pool has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Create a new, empty pool which uses the given client.  Nothing is
+     * pooled until start() is invoked and specs are registered.
+     *
+     * @param client
+     *     The client to use to create, rename, and remove pooled containers.
+     *
+     * @param targetSize
+     *     The number of idle containers to maintain for each spec.
+     *
+     * @param maxSize
+     *     The maximum number of idle containers to retain for each spec.
+     *     Existing pooled containers beyond this number are removed.
+     *
+     * @param prestart
+     *     Whether or not pooled containers should be started as soon as they
+     *     are created.
+     */
+    public ContainerPool(DockerStartupClient client, int targetSize,
+            int maxSize, boolean prestart) {
+        this.client = client;
+        this.targetSize = targetSize;
+        this.maxSize = Math.max(maxSize, targetSize);
+        this.prestart = prestart;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-startup-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adopt any pooled containers left by a previous run, and begin refilling
+     * the pool periodically.  This returns immediately.
+     */
+    public void start() {
+        submit(this::adopt, 0);
+        try {
+            executor.scheduleWithFixedDelay(this::refill, REFILL_INTERVAL,
+                    REFILL_INTERVAL, TimeUnit.SECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            logger.debug("Ignoring pool start after close.", e);
+        }
+    }
+
+    /**
+     * Register the given spec with the pool, such that idle containers of
+     * that spec are maintained from now on.  Registering a spec more than
+     * once has no effect.
+     *
+     * @param spec
+     *     The spec of the containers to pool.
+     */
+    public void register(ContainerSpec spec) {
+        if (idle.putIfAbsent(spec, new ConcurrentLinkedQueue<>()) == null) {
+            logger.debug(">>>DOCKER<<< Pooling containers for {}.", spec);
+            submit(this::refill, 0);
+        }
+    }
+
+    /**
+     * Claim an idle pooled container of the given spec, renaming it to the
+     * given name.  A refill of the pool is triggered regardless of whether a
+     * container could be claimed.
+     *
+     * @param spec
+     *     The spec of the container required.
+     *
+     * @param containerName
+     *     The name to give to the claimed container.
+     *
+     * @return
+     *     The identifier of the claimed container, or null if no pooled
+     *     container was available.
+     */
+    public String claim(ContainerSpec spec, String containerName) {
+
+        Queue<String> containers = idle.get(spec);
+        if (containers == null)
+            return null;
+
+        try {
+            String id;
+            while ((id = containers.poll()) != null) {
+                try {
+                    client.renameContainer(id, containerName);
+                    logger.debug(">>>DOCKER<<< Claimed pooled container {} as {}.",
+                            id, containerName);
+                    return id;
+                }
+                catch (DockerStartupException e) {
+                    logger.debug(">>>DOCKER<<< Discarding pooled container {}.", id, e);
+                    removeQuietly(id);
+                }
+            }
+            return null;
+        }
+        finally {
+            submit(this::refill, 0);
+        }
+
+    }
+
+    /**
+     * Schedule the given task on the pool thread, unless the pool has been
+     * closed.
+     *
+     * @param task
+     *     The task to run.
+     *
+     * @param delay
+     *     The number of seconds to wait before running the task.
+     */
+    private void submit(Runnable task, long delay) {
+        try {
+            if (!closed)
+                executor.schedule(task, delay, TimeUnit.SECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            logger.debug("Ignoring pool task submitted after close.", e);
+        }
+    }
+
+    /**
+     * Take ownership of all unclaimed pooled containers which already exist,
+     * registering their specs and removing any beyond the maximum pool size.
+     */
+    private void adopt() {
+
+        List<Container> containers;
+        try {
+            containers = client.getClient().listContainersCmd()
+                    .withShowAll(true)
+                    .withLabelFilter(Collections.singletonList(POOL_LABEL))
+                    .exec();
+        }
+        catch (RuntimeException e) {
+            logger.warn("Unable to list pooled containers: {}", e.getMessage());
+            logger.debug("Error listing pooled containers.", e);
+            return;
+        }
+
+        for (Container container : containers) {
+
+            ContainerSnapshot snapshot = ContainerSnapshot.fromListing(container);
+            if (!snapshot.getName().startsWith(NAME_PREFIX))
+                continue;
+
+            ContainerSpec spec = specOf(container);
+            if (spec == null) {
+                removeQuietly(snapshot.getId());
+                continue;
+            }
+
+            Queue<String> containersOfSpec = idle.computeIfAbsent(spec,
+                    key -> new ConcurrentLinkedQueue<>());
+            if (containersOfSpec.size() >= maxSize)
+                removeQuietly(snapshot.getId());
+            else
+                containersOfSpec.add(snapshot.getId());
+
+        }
+
+        logger.debug(">>>DOCKER<<< Adopted pooled containers for {} specs.", idle.size());
+        refill();
+
+    }
+
+    /**
+     * Reconstruct the spec of the given pooled container from its labels.
+     * Containers pooled before the image was recorded in a label fall back
+     * to the image reported by Docker, unless that is only an image ID.
+     *
+     * @param container
+     *     The pooled container, as returned when listing containers.
+     *
+     * @return
+     *     The spec of the container, or null if its labels are incomplete.
+     */
+    private static ContainerSpec specOf(Container container) {
+
+        Map<String, String> labels = container.getLabels();
+        if (labels == null)
+            return null;
+
+        String image = labels.get(IMAGE_LABEL);
+        if (image == null) {
+            image = container.getImage();
+            if (image == null || image.startsWith("sha256:"))
+                return null;
+        }
+
+        Map<String, String> limits = new HashMap<>();
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (label.getKey().startsWith(LIMIT_LABEL_PREFIX))
+                limits.put(label.getKey().substring(LIMIT_LABEL_PREFIX.length()),
+                        label.getValue());
+        }
+
+        try {
+            return new ContainerSpec(image,
+                    Integer.parseInt(labels.get(PORT_LABEL)),
+                    labels.get(CMD_LABEL), ResourceLimits.fromMap(limits));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+
+    }
+
+    /**
+     * Create containers as needed until each registered spec has the target
+     * number of idle containers.
+     */
+    private void refill() {
+
+        for (Map.Entry<ContainerSpec, Queue<String>> entry : idle.entrySet()) {
+
+            ContainerSpec spec = entry.getKey();
+            Queue<String> containers = entry.getValue();
+
+            while (!closed && containers.size() < targetSize) {
+                String id = createPooled(spec);
+                if (id == null)
+                    break;
+                containers.add(id);
+            }
+
+        }
+
+    }
+
+    /**
+     * Create, and if configured start, a single pooled container of the given
+     * spec.
+     *
+     * @param spec
+     *     The spec of the container to create.
+     *
+     * @return
+     *     The identifier of the created container, or null if it could not
+     *     be created.
+     */
+    private String createPooled(ContainerSpec spec) {
+
+        Map<String, String> labels = new HashMap<>();
+        labels.put(POOL_LABEL, "true");
+        labels.put(IMAGE_LABEL, spec.getImageName());
+        labels.put(PORT_LABEL, Integer.toString(spec.getImagePort()));
+        if (spec.getImageCmd() != null)
+            labels.put(CMD_LABEL, spec.getImageCmd());
+        for (Map.Entry<String, String> limit : spec.getLimits().toMap().entrySet())
+            labels.put(LIMIT_LABEL_PREFIX + limit.getKey(), limit.getValue());
+
+        String name = NAME_PREFIX + UUID.randomUUID().toString();
+        try {
+            String id = client.createContainer(spec, name, labels);
+            if (prestart)
+                client.startContainer(id);
+            logger.debug(">>>DOCKER<<< Added container {} to pool for {}.", name, spec);
+            return id;
+        }
+        catch (DockerStartupException | RuntimeException e) {
+            logger.warn("Unable to add container to pool for {}: {}", spec, e.getMessage());
+            logger.debug("Error creating pooled container.", e);
+            removeQuietly(name);
+            return null;
+        }
+
+    }
+
+    /**
+     * Remove the given container, logging rather than propagating any error.
+     *
+     * @param cid
+     *     The identifier or name of the container to remove.
+     */
+    private void removeQuietly(String cid) {
+        try {
+            client.removeContainer(cid);
+        }
+        catch (DockerStartupException | RuntimeException e) {
+            logger.debug(">>>DOCKER<<< Unable to remove pooled container {}.", cid, e);
+        }
+    }
+
+    /**
+     * Stop filling the pool.  Idle pooled containers are left in place, to be
+     * adopted when the pool is next started.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops, or in suspend mode pauses, containers which have had no open tunnels
+ * for a configurable period.
+ * Activity is recorded in memory as tunnels are opened and closed, and the
+ * decision to stop a container is made from that record alone, without
+ * consulting Docker.  Only containers used through this instance of the
+ * extension are tracked.
+ *
+ * The record is checked again under the lock of the container immediately
+ * before it is stopped, and the container is left running if it was used
+ * since it was found idle.  Provisioning of a container waits for any stop
+ * already under way, such that a container is never stopped beneath a
+ * tunnel which has just been opened.
+ */
+public class ContainerReaper implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ContainerReaper.class);
+
+    /**
+     * The maximum number of seconds between checks for idle containers.
+     */
+    private static final long MAX_SWEEP_INTERVAL = 60;
+
+    /**
+     * The client used to stop idle containers.
+     */
+    private final DockerStartupClient client;
+
+    /**
+     * The number of milliseconds a container may have no open tunnels
+     * before it is stopped.
+     */
+    private final long idleTimeout;
+
+    /**
+     * Whether idle containers are paused rather than stopped.
+     */
+    private final boolean suspend;
+
+    /**
+     * The activity of each tracked container, keyed by container name.  All
+     * changes to an entry are made atomically through the map.
+     */
+    private final ConcurrentMap<String, Activity> activity = new ConcurrentHashMap<>();
+
+    /**
+     * The stop or pause of each container currently being reaped, keyed by
+     * container name.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Boolean>> reaping =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The thread on which idle containers are found and stopped.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Create a new reaper which stops containers idle for longer than the
+     * given number of seconds.  No containers are stopped until start() is
+     * invoked.
+     *
+     * @param client
+     *     The client to use to stop idle containers.
+     *
+     * @param idleTimeout
+     *     The number of seconds a container may have no open tunnels before
+     *     it is stopped or paused.
+     *
+     * @param suspend
+     *     Whether idle containers should be paused rather than stopped.
+     */
+    public ContainerReaper(DockerStartupClient client, int idleTimeout,
+            boolean suspend) {
+        this.client = client;
+        this.idleTimeout = TimeUnit.SECONDS.toMillis(idleTimeout);
+        this.suspend = suspend;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-startup-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Begin periodically stopping idle containers.
+     */
+    public void start() {
+        long interval = Math.max(1, Math.min(
+                TimeUnit.MILLISECONDS.toSeconds(idleTimeout) / 4, MAX_SWEEP_INTERVAL));
+        executor.scheduleWithFixedDelay(this::sweep, interval, interval,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Record that the given container is about to be used, such that it is
+     * not considered idle while its tunnel is being established.
+     *
+     * @param containerName
+     *     The name of the container.
+     */
+    public void touch(String containerName) {
+        long now = System.currentTimeMillis();
+        activity.compute(containerName, (name, current) -> {
+            Activity updated = (current != null) ? current : new Activity();
+            updated.lastActive = now;
+            return updated;
+        });
+    }
+
+    /**
+     * Record that a tunnel to the given container has been opened.
+     *
+     * @param containerName
+     *     The name of the container.
+     */
+    public void tunnelOpened(String containerName) {
+        long now = System.currentTimeMillis();
+        activity.compute(containerName, (name, current) -> {
+            Activity updated = (current != null) ? current : new Activity();
+            updated.tunnels++;
+            updated.lastActive = now;
+            return updated;
+        });
+    }
+
+    /**
+     * Record that a tunnel to the given container has been closed.
+     *
+     * @param containerName
+     *     The name of the container.
+     */
+    public void tunnelClosed(String containerName) {
+        long now = System.currentTimeMillis();
+        activity.computeIfPresent(containerName, (name, current) -> {
+            current.tunnels = Math.max(current.tunnels - 1, 0);
+            current.lastActive = now;
+            return current;
+        });
+    }
+
+    /**
+     * Return the number of tunnels currently open to the given container.
+     *
+     * @param containerName
+     *     The name of the container.
+     *
+     * @return
+     *     The number of open tunnels, which is zero for untracked containers.
+     */
+    public int getTunnelCount(String containerName) {
+        Activity current = activity.get(containerName);
+        return (current != null) ? current.tunnels : 0;
+    }
+
+    /**
+     * Return a future which completes once any stop or pause of the given
+     * container already under way has finished, successfully or not.
+     *
+     * @param containerName
+     *     The name of the container.
+     *
+     * @return
+     *     A future which completes once the container is not being reaped.
+     */
+    public CompletableFuture<Void> awaitReaped(String containerName) {
+
+        CompletableFuture<Boolean> reaped = reaping.get(containerName);
+        if (reaped == null)
+            return CompletableFuture.completedFuture(null);
+
+        logger.debug(">>>DOCKER<<< Waiting for idle container {} to be reaped.",
+                containerName);
+        return reaped.handle((result, error) -> null);
+
+    }
+
+    /**
+     * Stop or pause every tracked container which has been idle for longer
+     * than the idle timeout, ceasing to track it.
+     */
+    private void sweep() {
+
+        long now = System.currentTimeMillis();
+        Map<String, Long> idle = new HashMap<>();
+
+        for (Map.Entry<String, Activity> entry : activity.entrySet()) {
+            Activity current = entry.getValue();
+            long lastActive = current.lastActive;
+            if (current.tunnels == 0 && now - lastActive >= idleTimeout)
+                idle.put(entry.getKey(), lastActive);
+        }
+
+        for (Map.Entry<String, Long> entry : idle.entrySet()) {
+
+            String containerName = entry.getKey();
+            long lastActive = entry.getValue();
+
+            // Registered first, such that provisioning from now on waits
+            CompletableFuture<Boolean> pending = new CompletableFuture<>();
+            if (reaping.putIfAbsent(containerName, pending) != null)
+                continue;
+
+            client.reapContainerAsync(containerName, suspend,
+                    () -> forgetIfIdle(containerName, lastActive))
+                    .whenComplete((reaped, error) -> {
+
+                        reaping.remove(containerName, pending);
+
+                        if (error != null) {
+                            logger.warn("Unable to {} idle container {}: {}",
+                                    suspend ? "pause" : "stop", containerName,
+                                    error.getMessage());
+                            logger.debug("Error reaping idle container.", error);
+                            pending.completeExceptionally(error);
+                            return;
+                        }
+
+                        if (reaped)
+                            logger.debug(">>>DOCKER<<< {} idle container {}.",
+                                    suspend ? "Paused" : "Stopped", containerName);
+                        else
+                            logger.debug(">>>DOCKER<<< Container {} was used "
+                                    + "again; not reaping.", containerName);
+
+                        pending.complete(reaped);
+
+                    });
+
+        }
+
+    }
+
+    /**
+     * Cease tracking the given container if it has had no open tunnels and
+     * no activity since it was found idle.
+     *
+     * @param containerName
+     *     The name of the container.
+     *
+     * @param lastActive
+     *     The time the container was last active when it was found idle, in
+     *     milliseconds since the epoch.
+     *
+     * @return
+     *     True if the container is still idle and is no longer tracked,
+     *     false if it has been used since.
+     */
+    private boolean forgetIfIdle(String containerName, long lastActive) {
+
+        AtomicBoolean forgotten = new AtomicBoolean(false);
+        activity.computeIfPresent(containerName, (name, current) -> {
+            if (current.tunnels > 0 || current.lastActive != lastActive)
+                return current;
+            forgotten.set(true);
+            return null;
+        });
+
+        return forgotten.get();
+
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The recorded activity of a single container.
+     */
+    private static class Activity {
+
+        /**
+         * The number of tunnels currently open to the container.
+         */
+        private volatile int tunnels = 0;
+
+        /**
+         * The time the container was last used or had a tunnel opened or
+         * closed, in milliseconds since the epoch.
+         */
+        private volatile long lastActive;
+
+    }
+
+}
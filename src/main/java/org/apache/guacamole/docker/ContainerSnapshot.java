@@ -0,0 +1,364 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.command.InspectContainerResponse.ContainerState;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.ContainerNetwork;
+import com.github.dockerjava.api.model.ContainerPort;
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.api.model.NetworkSettings;
+import com.github.dockerjava.api.model.Ports.Binding;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable point-in-time view of a single container, combining whether
+ * the container exists, its current state, and its published ports, such
+ * that all of this information may be obtained with a single inspection of
+ * the container.
+ */
+public class ContainerSnapshot {
+
+    /**
+     * The name or identifier by which the container was requested.
+     */
+    private final String name;
+
+    /**
+     * The full identifier of the container, or null if the container does
+     * not exist.
+     */
+    private final String id;
+
+    /**
+     * The image from which the container was created, or null if the
+     * container does not exist.
+     */
+    private final String image;
+
+    /**
+     * The status reported by Docker for the container, such as "running" or
+     * "exited", or null if the container does not exist.
+     */
+    private final String status;
+
+    /**
+     * Whether or not the container is running, including while paused.
+     */
+    private final boolean running;
+    
+    /**
+     * Whether or not the container is paused.
+     */
+    private final boolean paused;
+
+    /**
+     * The host ports published for the container, keyed by the TCP port
+     * within the container, in the order reported by Docker.
+     */
+    private final Map<Integer, String> publishedPorts;
+
+    /**
+     * The IP address of the container on each Docker network to which it is
+     * attached, keyed by network name.
+     */
+    private final Map<String, String> networkAddresses;
+
+    /**
+     * Create a new snapshot of a container with the given details.
+     *
+     * @param name
+     *     The name or identifier by which the container was requested.
+     *
+     * @param id
+     *     The full identifier of the container, or null if the container
+     *     does not exist.
+     *
+     * @param image
+     *     The image from which the container was created.
+     *
+     * @param status
+     *     The status reported by Docker for the container.
+     *
+     * @param running
+     *     Whether or not the container is running, including while paused.
+     *
+     * @param paused
+     *     Whether or not the container is paused.
+     *
+     * @param publishedPorts
+     *     The host ports published for the container, keyed by the TCP port
+     *     within the container.
+     *
+     * @param networkAddresses
+     *     The IP address of the container on each network to which it is
+     *     attached, keyed by network name.
+     */
+    public ContainerSnapshot(String name, String id, String image,
+            String status, boolean running, boolean paused,
+            Map<Integer, String> publishedPorts,
+            Map<String, String> networkAddresses) {
+        this.name = name;
+        this.id = id;
+        this.image = image;
+        this.status = status;
+        this.running = running;
+        this.paused = paused;
+        this.publishedPorts = Collections.unmodifiableMap(
+                new LinkedHashMap<>(publishedPorts));
+        this.networkAddresses = Collections.unmodifiableMap(
+                new LinkedHashMap<>(networkAddresses));
+    }
+
+    /**
+     * Return the IP address of the container on each of the given networks,
+     * keyed by network name, omitting networks on which the container has no
+     * address.
+     *
+     * @param networks
+     *     The networks of the container, keyed by network name, or null.
+     *
+     * @return
+     *     The IP address of the container on each network.
+     */
+    private static Map<String, String> addressesOf(Map<String, ContainerNetwork> networks) {
+
+        Map<String, String> addresses = new LinkedHashMap<>();
+        if (networks == null)
+            return addresses;
+
+        for (Map.Entry<String, ContainerNetwork> network : networks.entrySet()) {
+            String address = network.getValue().getIpAddress();
+            if (address != null && !address.isEmpty())
+                addresses.put(network.getKey(), address);
+        }
+
+        return addresses;
+
+    }
+
+    /**
+     * Return a snapshot representing a container that does not exist.
+     *
+     * @param name
+     *     The name or identifier by which the container was requested.
+     *
+     * @return
+     *     A snapshot of a container which does not exist.
+     */
+    public static ContainerSnapshot absent(String name) {
+        return new ContainerSnapshot(name, null, null, null, false, false,
+                Collections.<Integer, String>emptyMap(),
+                Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Return a snapshot built from the result of inspecting a container.
+     *
+     * @param name
+     *     The name or identifier by which the container was requested.
+     *
+     * @param response
+     *     The response from inspecting the container.
+     *
+     * @return
+     *     A snapshot of the inspected container.
+     */
+    public static ContainerSnapshot fromInspect(String name,
+            InspectContainerResponse response) {
+
+        if (response.getId() == null)
+            return absent(name);
+
+        ContainerState state = response.getState();
+        String status = null;
+        boolean running = false;
+        boolean paused = false;
+        if (state != null) {
+            status = state.getStatus();
+            running = Boolean.TRUE.equals(state.getRunning());
+            paused = Boolean.TRUE.equals(state.getPaused());
+        }
+
+        // Record the first host binding of each exposed TCP port
+        Map<Integer, String> publishedPorts = new LinkedHashMap<>();
+        NetworkSettings networkSettings = response.getNetworkSettings();
+        if (networkSettings != null && networkSettings.getPorts() != null) {
+            Map<ExposedPort, Binding[]> portBindings =
+                    networkSettings.getPorts().getBindings();
+            for (Map.Entry<ExposedPort, Binding[]> entry : portBindings.entrySet()) {
+                Binding[] bindings = entry.getValue();
+                if (bindings != null
+                        && bindings.length > 0
+                        && bindings[0] != null)
+                    publishedPorts.put(entry.getKey().getPort(),
+                            bindings[0].getHostPortSpec());
+            }
+        }
+
+        return new ContainerSnapshot(name, response.getId(),
+                response.getConfig() != null ? response.getConfig().getImage() : null,
+                status, running, paused, publishedPorts,
+                addressesOf(networkSettings != null ? networkSettings.getNetworks() : null));
+
+    }
+
+    /**
+     * Return a snapshot built from an entry in the list of containers
+     * returned by Docker, keyed by the first name of that container.
+     *
+     * @param container
+     *     The container entry, as returned when listing containers.
+     *
+     * @return
+     *     A snapshot of the listed container.
+     */
+    public static ContainerSnapshot fromListing(Container container) {
+
+        // Docker reports container names with a leading slash
+        String name = container.getId();
+        String[] names = container.getNames();
+        if (names != null && names.length > 0)
+            name = names[0].startsWith("/") ? names[0].substring(1) : names[0];
+
+        // Record the first published host port of each TCP port
+        Map<Integer, String> publishedPorts = new LinkedHashMap<>();
+        ContainerPort[] ports = container.getPorts();
+        if (ports != null) {
+            for (ContainerPort port : ports) {
+                if (port.getPrivatePort() != null
+                        && port.getPublicPort() != null
+                        && "tcp".equals(port.getType()))
+                    publishedPorts.putIfAbsent(port.getPrivatePort(),
+                            port.getPublicPort().toString());
+            }
+        }
+
+        // Docker reports paused containers as running when inspected
+        boolean paused = "paused".equals(container.getState());
+        return new ContainerSnapshot(name, container.getId(),
+                container.getImage(), container.getState(),
+                paused || "running".equals(container.getState()), paused,
+                publishedPorts, addressesOf(container.getNetworkSettings() != null
+                        ? container.getNetworkSettings().getNetworks() : null));
+
+    }
+
+    /**
+     * Return the name or identifier by which the container was requested.
+     *
+     * @return
+     *     The name or identifier by which the container was requested.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the full identifier of the container.
+     *
+     * @return
+     *     The full identifier of the container, or null if the container does
+     *     not exist.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Return the image from which the container was created.
+     *
+     * @return
+     *     The image from which the container was created, or null if the
+     *     container does not exist or the image is not known.
+     */
+    public String getImage() {
+        return image;
+    }
+
+    /**
+     * Return the status reported by Docker for the container.
+     *
+     * @return
+     *     The status reported by Docker for the container, or null if the
+     *     container does not exist.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Return whether or not the container exists.
+     *
+     * @return
+     *     True if the container exists, otherwise false.
+     */
+    public boolean exists() {
+        return id != null;
+    }
+
+    /**
+     * Return whether or not the container exists and is running, and is not
+     * paused, such that it is ready for use.
+     *
+     * @return
+     *     True if the container exists, is running, and is not paused,
+     *     otherwise false.
+     */
+    public boolean isRunning() {
+        return running && !paused;
+    }
+
+    /**
+     * Return whether or not the container exists and is paused.
+     *
+     * @return
+     *     True if the container exists and is paused, otherwise false.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Return the host ports published for the container, keyed by the TCP
+     * port within the container.
+     *
+     * @return
+     *     An unmodifiable map of container TCP port to published host port.
+     */
+    public Map<Integer, String> getPublishedPorts() {
+        return publishedPorts;
+    }
+
+    /**
+     * Return the IP address of the container on each Docker network to which
+     * it is attached.
+     *
+     * @return
+     *     An unmodifiable map of network name to IP address.
+     */
+    public Map<String, String> getNetworkAddresses() {
+        return networkAddresses;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, time-limited cache of container snapshots, keyed by the name or
+ * identifier used to inspect each container.  Entries expire after a fixed
+ * time-to-live, and the least recently used entry is evicted once the cache
+ * is full.  Snapshots read before a concurrent invalidation of the same
+ * container are refused, such that a slow inspection cannot re-cache state
+ * which has since changed.
+ */
+public class ContainerSnapshotCache {
+
+    /**
+     * The number of nanoseconds a cached snapshot remains valid.
+     */
+    private final long ttlNanos;
+
+    /**
+     * The maximum number of snapshots which may be cached.
+     */
+    private final int maxSize;
+
+    /**
+     * All cached entries, in least-recently-used order.
+     */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * The invalidations against which snapshots are checked before being
+     * cached.
+     */
+    private final InvalidationLog invalidations = new InvalidationLog();
+
+    /**
+     * A cached snapshot, along with the time at which it expires.
+     */
+    private static class Entry {
+
+        /**
+         * The cached snapshot.
+         */
+        private final ContainerSnapshot snapshot;
+
+        /**
+         * The value of System.nanoTime() after which this entry is expired.
+         */
+        private final long expires;
+
+        /**
+         * Create a new cache entry for the given snapshot.
+         *
+         * @param snapshot
+         *     The snapshot to cache.
+         *
+         * @param expires
+         *     The value of System.nanoTime() after which this entry is
+         *     expired.
+         */
+        private Entry(ContainerSnapshot snapshot, long expires) {
+            this.snapshot = snapshot;
+            this.expires = expires;
+        }
+
+    }
+
+    /**
+     * Create a new cache with the given time-to-live and maximum size.
+     *
+     * @param ttl
+     *     The number of seconds a cached snapshot remains valid.  If zero or
+     *     negative, nothing will be cached.
+     *
+     * @param maxSize
+     *     The maximum number of snapshots to cache.
+     */
+    public ContainerSnapshotCache(int ttl, final int maxSize) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(ttl, 0));
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            /**
+             * Serial version UID of this anonymous LinkedHashMap subclass.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+
+        };
+    }
+
+    /**
+     * Return whether or not this cache will store snapshots at all.
+     *
+     * @return
+     *     True if snapshots will be cached, false if caching is disabled.
+     */
+    public boolean isEnabled() {
+        return ttlNanos > 0 && maxSize > 0;
+    }
+
+    /**
+     * Return the cached snapshot for the given container name or identifier,
+     * if one is cached and has not expired.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     *
+     * @return
+     *     The cached snapshot, or null if no valid snapshot is cached.
+     */
+    public synchronized ContainerSnapshot get(String cid) {
+
+        Entry entry = entries.get(cid);
+        if (entry == null)
+            return null;
+
+        if (System.nanoTime() - entry.expires > 0) {
+            entries.remove(cid);
+            return null;
+        }
+
+        return entry.snapshot;
+
+    }
+
+    /**
+     * Return the current generation of this cache, which must be noted
+     * before inspecting a container whose snapshot is to be cached.
+     *
+     * @return
+     *     The current generation, to be passed to put().
+     */
+    public synchronized long getGeneration() {
+        return invalidations.getGeneration();
+    }
+
+    /**
+     * Cache the given snapshot under the name or identifier used to obtain
+     * it, unless its container has been invalidated since the given
+     * generation.
+     *
+     * @param snapshot
+     *     The snapshot to cache.
+     *
+     * @param generation
+     *     The generation of this cache noted before the container was
+     *     inspected.
+     */
+    public synchronized void put(ContainerSnapshot snapshot, long generation) {
+
+        if (!isEnabled())
+            return;
+
+        if (invalidations.isStale(generation, snapshot.getName(), snapshot.getId()))
+            return;
+
+        entries.put(snapshot.getName(),
+                new Entry(snapshot, System.nanoTime() + ttlNanos));
+
+    }
+
+    /**
+     * Remove all cached snapshots of the container having the given name or
+     * identifier, including snapshots cached under any other name or
+     * identifier of the same container.
+     *
+     * @param cid
+     *     The name or identifier of the container whose snapshots should be
+     *     removed.
+     */
+    public synchronized void invalidate(String cid) {
+
+        invalidations.invalidate(cid);
+
+        Entry removed = entries.remove(cid);
+        String id = (removed != null) ? removed.snapshot.getId() : null;
+
+        Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            String cachedId = iter.next().getValue().snapshot.getId();
+            if (cachedId != null && (cachedId.equals(cid) || cachedId.equals(id)))
+                iter.remove();
+        }
+
+    }
+
+    /**
+     * Remove all cached snapshots.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+}
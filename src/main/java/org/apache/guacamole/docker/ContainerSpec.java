@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import java.util.Objects;
+
+/**
+ * The details which determine how a container is created: its image, the
+ * port it publishes, the command it runs, and its resource limits.
+ * Containers created from equal specs are interchangeable.
+ */
+public class ContainerSpec {
+
+    /**
+     * The name of the image from which the container is created.
+     */
+    private final String imageName;
+
+    /**
+     * The port within the container which is published.
+     */
+    private final int imagePort;
+
+    /**
+     * The command run within the container at startup, or null to use the
+     * default command of the image.
+     */
+    private final String imageCmd;
+
+    /**
+     * The resource limits applied to the container.
+     */
+    private final ResourceLimits limits;
+
+    /**
+     * Create a new spec for containers having the given image, port, and
+     * command, and no resource limits.
+     *
+     * @param imageName
+     *     The name of the image from which the container is created.
+     *
+     * @param imagePort
+     *     The port within the container which is published.
+     *
+     * @param imageCmd
+     *     The command run within the container at startup, or null or empty
+     *     to use the default command of the image.
+     */
+    public ContainerSpec(String imageName, int imagePort, String imageCmd) {
+        this(imageName, imagePort, imageCmd, ResourceLimits.NONE);
+    }
+
+    /**
+     * Create a new spec for containers having the given image, port,
+     * command, and resource limits.
+     *
+     * @param imageName
+     *     The name of the image from which the container is created.
+     *
+     * @param imagePort
+     *     The port within the container which is published.
+     *
+     * @param imageCmd
+     *     The command run within the container at startup, or null or empty
+     *     to use the default command of the image.
+     *
+     * @param limits
+     *     The resource limits applied to the container.
+     */
+    public ContainerSpec(String imageName, int imagePort, String imageCmd,
+            ResourceLimits limits) {
+        this.imageName = imageName;
+        this.imagePort = imagePort;
+        this.imageCmd = (imageCmd == null || imageCmd.isEmpty()) ? null : imageCmd;
+        this.limits = limits;
+    }
+
+    /**
+     * Return the name of the image from which the container is created.
+     *
+     * @return
+     *     The name of the image.
+     */
+    public String getImageName() {
+        return imageName;
+    }
+
+    /**
+     * Return the port within the container which is published.
+     *
+     * @return
+     *     The port within the container which is published.
+     */
+    public int getImagePort() {
+        return imagePort;
+    }
+
+    /**
+     * Return the command run within the container at startup.
+     *
+     * @return
+     *     The command run within the container at startup, or null if the
+     *     default command of the image is used.
+     */
+    public String getImageCmd() {
+        return imageCmd;
+    }
+
+    /**
+     * Return the resource limits applied to the container.
+     *
+     * @return
+     *     The resource limits applied to the container.
+     */
+    public ResourceLimits getLimits() {
+        return limits;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+
+        if (this == other)
+            return true;
+
+        if (!(other instanceof ContainerSpec))
+            return false;
+
+        ContainerSpec spec = (ContainerSpec) other;
+        return imagePort == spec.imagePort
+                && Objects.equals(imageName, spec.imageName)
+                && Objects.equals(imageCmd, spec.imageCmd)
+                && Objects.equals(limits, spec.limits);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(imageName, imagePort, imageCmd, limits);
+    }
+
+    @Override
+    public String toString() {
+        return imageName + " on port " + imagePort
+                + (imageCmd != null ? " running \"" + imageCmd + "\"" : "")
+                + (!limits.equals(ResourceLimits.NONE) ? " limited to " + limits : "");
+    }
+
+}
@@ -0,0 +1,517 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
+import com.github.dockerjava.core.command.EventsResultCallback;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A live, in-memory index of the state of all containers managed by this
+ * extension, maintained by listening to the Docker events stream.  Whenever
+ * the events stream is (re)established, the index is resynchronized by
+ * listing all managed containers.  While the stream is down, the index
+ * reports nothing, such that callers fall back to inspecting containers
+ * directly.  A refresh which began before a container was invalidated is
+ * discarded rather than recorded, such that a change made through the client
+ * is never undone by older state.  Containers which exit or are removed by
+ * any means have their quota charge released, if a quota ledger is attached.
+ */
+public class ContainerStateIndex implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ContainerStateIndex.class);
+
+    /**
+     * The container events which affect the state recorded in the index.
+     */
+    private static final String[] TRACKED_EVENTS = {
+        "create", "start", "restart", "die", "stop", "kill", "pause",
+        "unpause", "rename", "destroy"
+    };
+
+    /**
+     * The initial number of seconds to wait before reconnecting to the events
+     * stream after it is lost.
+     */
+    private static final long MIN_RECONNECT_DELAY = 1;
+
+    /**
+     * The maximum number of seconds to wait before reconnecting to the
+     * events stream after it is lost.
+     */
+    private static final long MAX_RECONNECT_DELAY = 60;
+
+    /**
+     * The Docker client used to listen for events and list containers.
+     */
+    private final DockerClient client;
+
+    /**
+     * Snapshots of all managed containers, keyed by container name.
+     */
+    private final Map<String, ContainerSnapshot> byName = new ConcurrentHashMap<>();
+
+    /**
+     * Snapshots of all managed containers, keyed by container identifier.
+     */
+    private final Map<String, ContainerSnapshot> byId = new ConcurrentHashMap<>();
+
+    /**
+     * The invalidations against which refreshed snapshots are checked before
+     * being recorded.  Guarded by this index, as are all changes to the
+     * snapshots, while reads of the snapshots need no lock.
+     */
+    private final InvalidationLog invalidations = new InvalidationLog();
+
+    /**
+     * The single thread on which the events stream is (re)connected and on
+     * which all events are applied to the index, in order.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Whether or not the events stream is connected and the index has been
+     * synchronized, such that the index may be trusted.
+     */
+    private volatile boolean live = false;
+
+    /**
+     * Whether or not this index has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * The callback receiving the current events stream, or null if the
+     * stream is not connected.
+     */
+    private volatile EventsResultCallback stream;
+
+    /**
+     * The ledger whose charges are released as containers exit or are
+     * removed, or null if quotas are not tracked.
+     */
+    private volatile QuotaLedger quotaLedger;
+
+    /**
+     * The number of seconds to wait before the next reconnection attempt.
+     */
+    private long reconnectDelay = MIN_RECONNECT_DELAY;
+
+    /**
+     * Create a new index which tracks containers via the given client.  The
+     * index is not populated until start() is invoked.
+     *
+     * @param client
+     *     The Docker client to use to listen for events and list containers.
+     */
+    public ContainerStateIndex(DockerClient client) {
+        this.client = client;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-startup-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Begin listening to the Docker events stream and populate the index.
+     * This returns immediately; the index reports nothing until the initial
+     * synchronization completes.
+     */
+    public void start() {
+        submit(this::connect, 0);
+    }
+
+    /**
+     * Release the quota charge of each container in the given ledger as
+     * Docker reports that the container has exited or been removed.
+     *
+     * @param ledger
+     *     The ledger recording the containers charged to each quota.
+     */
+    public void attachQuotaLedger(QuotaLedger ledger) {
+        this.quotaLedger = ledger;
+    }
+
+    /**
+     * Schedule the given task on the index thread, unless the index has been
+     * closed.
+     *
+     * @param task
+     *     The task to run.
+     *
+     * @param delay
+     *     The number of seconds to wait before running the task.
+     */
+    private void submit(Runnable task, long delay) {
+        try {
+            if (!closed)
+                executor.schedule(task, delay, TimeUnit.SECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            logger.debug("Ignoring container event task submitted after close.", e);
+        }
+    }
+
+    /**
+     * Connect to the events stream and resynchronize the index with the list
+     * of managed containers, scheduling another attempt with backoff if
+     * this fails.
+     */
+    private void connect() {
+
+        if (closed)
+            return;
+
+        try {
+
+            // Subscribe first, such that no change is missed while listing
+            EventsResultCallback callback = client.eventsCmd()
+                    .withLabelFilter(DockerStartupClient.MANAGED_LABEL)
+                    .withEventFilter(TRACKED_EVENTS)
+                    .exec(new IndexingCallback());
+            stream = callback;
+
+            resync();
+            live = true;
+            reconnectDelay = MIN_RECONNECT_DELAY;
+            logger.debug(">>>DOCKER<<< Container index synchronized with {} containers.",
+                    byName.size());
+
+        }
+        catch (RuntimeException e) {
+            logger.warn("Unable to listen for Docker container events: {}", e.getMessage());
+            logger.debug("Error connecting to Docker events stream.", e);
+            disconnected();
+        }
+
+    }
+
+    /**
+     * Mark the index as untrusted following loss of the events stream, and
+     * schedule a reconnection attempt.
+     */
+    private void disconnected() {
+
+        live = false;
+
+        EventsResultCallback oldStream = stream;
+        stream = null;
+        closeQuietly(oldStream);
+
+        if (closed)
+            return;
+
+        logger.debug(">>>DOCKER<<< Reconnecting to events stream in {} seconds.", reconnectDelay);
+        submit(this::connect, reconnectDelay);
+        reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+
+    }
+
+    /**
+     * Replace the contents of the index with the current list of managed
+     * containers.
+     */
+    private void resync() {
+
+        long generation = getGeneration();
+        List<Container> containers = client.listContainersCmd()
+                .withShowAll(true)
+                .withLabelFilter(Collections.singletonList(DockerStartupClient.MANAGED_LABEL))
+                .exec();
+
+        synchronized (this) {
+            byName.clear();
+            byId.clear();
+            for (Container container : containers)
+                record(ContainerSnapshot.fromListing(container), generation);
+        }
+
+    }
+
+    /**
+     * Return the current generation of this index, which must be noted
+     * before listing containers whose snapshots are to be recorded.
+     *
+     * @return
+     *     The current generation, to be passed to record().
+     */
+    private synchronized long getGeneration() {
+        return invalidations.getGeneration();
+    }
+
+    /**
+     * Store the given snapshot under both the name and identifier of its
+     * container, unless the container has been invalidated since the given
+     * generation.
+     *
+     * @param snapshot
+     *     The snapshot to store.
+     *
+     * @param generation
+     *     The generation of this index noted before the container was
+     *     listed.
+     */
+    private synchronized void record(ContainerSnapshot snapshot, long generation) {
+
+        if (invalidations.isStale(generation, snapshot.getName(), snapshot.getId())) {
+            logger.debug(">>>DOCKER<<< Discarding outdated state of container {}.",
+                    snapshot.getName());
+            return;
+        }
+
+        byName.put(snapshot.getName(), snapshot);
+        byId.put(snapshot.getId(), snapshot);
+
+    }
+
+    /**
+     * Update the index to reflect the given container event.
+     *
+     * @param event
+     *     The event received from Docker.
+     */
+    private void apply(Event event) {
+
+        // Managed networks carry the same label, and docker-java offers no
+        // filter by type; events of older daemons have no type at all
+        if (event.getType() != null && event.getType() != EventType.CONTAINER)
+            return;
+
+        String action = event.getAction() != null ? event.getAction() : event.getStatus();
+        String id = event.getId();
+        if (id == null && event.getActor() != null)
+            id = event.getActor().getId();
+        if (id == null)
+            return;
+
+        logger.debug(">>>DOCKER<<< Container event {} for {}.", action, id);
+
+        // Drop any existing record, which may be under an outdated name
+        long generation;
+        ContainerSnapshot previous;
+        synchronized (this) {
+            generation = invalidations.getGeneration();
+            previous = byId.remove(id);
+            if (previous != null)
+                byName.remove(previous.getName(), previous);
+        }
+
+        String name = (previous != null) ? previous.getName() : nameOf(event);
+
+        if ("destroy".equals(action)) {
+            releaseQuota(name);
+            return;
+        }
+
+        // Events do not carry state or ports, so refresh from Docker
+        try {
+            List<Container> containers = client.listContainersCmd()
+                    .withShowAll(true)
+                    .withIdFilter(Collections.singletonList(id))
+                    .exec();
+
+            boolean active = false;
+            for (Container container : containers) {
+                ContainerSnapshot snapshot = ContainerSnapshot.fromListing(container);
+                record(snapshot, generation);
+                name = snapshot.getName();
+                active |= snapshot.isRunning() || snapshot.isPaused();
+            }
+
+            // A container restarted since it died remains charged
+            if ("die".equals(action) && !active)
+                releaseQuota(name);
+
+        }
+        catch (RuntimeException e) {
+            logger.debug(">>>DOCKER<<< Unable to refresh container {}.", id, e);
+        }
+
+    }
+
+    /**
+     * Return the name of the container to which the given event applies, as
+     * reported with the event.
+     *
+     * @param event
+     *     The event received from Docker.
+     *
+     * @return
+     *     The name of the container, or null if the event does not name it.
+     */
+    private static String nameOf(Event event) {
+
+        if (event.getActor() == null || event.getActor().getAttributes() == null)
+            return null;
+
+        return event.getActor().getAttributes().get("name");
+
+    }
+
+    /**
+     * Release the quota charge of the given container, if quotas are
+     * tracked.
+     *
+     * @param containerName
+     *     The name of the container which has exited or been removed, or
+     *     null if not known.
+     */
+    private void releaseQuota(String containerName) {
+        QuotaLedger ledger = quotaLedger;
+        if (ledger != null && containerName != null)
+            ledger.release(containerName);
+    }
+
+    /**
+     * Return the indexed snapshot of the container having the given name or
+     * identifier.  Null is returned if the index is not currently live or
+     * the container is not indexed, in which case the caller must consult
+     * Docker directly.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     *
+     * @return
+     *     The indexed snapshot of the container, or null if no trusted
+     *     snapshot is available.
+     */
+    public ContainerSnapshot get(String cid) {
+
+        if (!live)
+            return null;
+
+        ContainerSnapshot snapshot = byName.get(cid);
+        if (snapshot == null)
+            snapshot = byId.get(cid);
+
+        return snapshot;
+
+    }
+
+    /**
+     * Remove any indexed snapshot of the container having the given name or
+     * identifier, such that it will not be reported until the next related
+     * event is received.  Refreshes already in progress for the container
+     * are discarded.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     */
+    public synchronized void invalidate(String cid) {
+
+        invalidations.invalidate(cid);
+
+        ContainerSnapshot snapshot = byName.remove(cid);
+        if (snapshot == null)
+            snapshot = byId.get(cid);
+
+        if (snapshot != null) {
+            byId.remove(snapshot.getId(), snapshot);
+            byName.remove(snapshot.getName(), snapshot);
+        }
+
+    }
+
+    /**
+     * Close the given events stream callback, ignoring any errors.
+     *
+     * @param callback
+     *     The callback to close, or null.
+     */
+    private static void closeQuietly(EventsResultCallback callback) {
+
+        if (callback == null)
+            return;
+
+        try {
+            callback.close();
+        }
+        catch (IOException e) {
+            logger.debug("Error closing Docker events stream.", e);
+        }
+
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        live = false;
+        closeQuietly(stream);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Callback which applies each received event to the index on the index
+     * thread, and which reconnects if the stream is lost.
+     */
+    private class IndexingCallback extends EventsResultCallback {
+
+        @Override
+        public void onNext(Event event) {
+            submit(() -> apply(event), 0);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            logger.debug(">>>DOCKER<<< Docker events stream failed.", throwable);
+            super.onError(throwable);
+            submit(() -> onStreamLost(this), 0);
+        }
+
+        @Override
+        public void onComplete() {
+            logger.debug(">>>DOCKER<<< Docker events stream closed.");
+            super.onComplete();
+            submit(() -> onStreamLost(this), 0);
+        }
+
+    }
+
+    /**
+     * Handle loss of the given events stream, reconnecting unless a newer
+     * stream has already replaced it or the index has been closed.
+     *
+     * @param callback
+     *     The callback of the events stream that was lost.
+     */
+    private void onStreamLost(EventsResultCallback callback) {
+        if (!closed && stream == callback)
+            disconnected();
+    }
+
+}
@@ -0,0 +1,640 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import com.github.dockerjava.api.model.Container;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.guacamole.GuacamoleClientTooManyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The set of Docker hosts on which containers may run, each with its own
+ * client.  The container of a given name is looked up on the host where it
+ * was last seen, and new containers are placed by a placement strategy.
+ * Both decisions are made from an in-memory table of the containers and load
+ * of each host, which is refreshed in the background, such that no host is
+ * queried while placing a container.
+ *
+ * With a single host, the table is never refreshed and every container is
+ * placed on that host.
+ */
+public class DockerCluster implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DockerCluster.class);
+
+    /**
+     * The maximum number of milliseconds to wait for the first refresh of
+     * the load table before placing a container regardless.
+     */
+    private static final long INITIAL_REFRESH_TIMEOUT = 10000;
+
+    /**
+     * The number of refresh intervals for which a placement is remembered
+     * without the container being seen on its host.
+     */
+    private static final int PLACEMENT_EXPIRY_INTERVALS = 3;
+
+    /**
+     * The clients of all hosts, in configured order.
+     */
+    private final List<DockerStartupClient> clients;
+
+    /**
+     * The strategy deciding where new containers are placed.
+     */
+    private final PlacementStrategy strategy;
+
+    /**
+     * The number of milliseconds between refreshes of the load table.
+     */
+    private final long refreshInterval;
+
+    /**
+     * The last observed load of each host, keyed by client, including the
+     * containers placed on it since.
+     */
+    private final ConcurrentMap<DockerStartupClient, HostLoad> loads =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The host on which each managed container was last seen, keyed by
+     * container name.
+     */
+    private volatile Map<String, DockerStartupClient> locations =
+            Collections.emptyMap();
+
+    /**
+     * Containers recently placed but not yet seen on their host, keyed by
+     * container name.
+     */
+    private final ConcurrentMap<String, Placement> placements =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The ledger of the containers charged to each quota, across all hosts.
+     */
+    private final QuotaLedger quotaLedger = new QuotaLedger();
+
+    /**
+     * The timers of the operations of all hosts.
+     */
+    private final DockerMetrics metrics = new DockerMetrics();
+
+    /**
+     * Released once the load table has been refreshed for the first time.
+     */
+    private final CountDownLatch refreshed = new CountDownLatch(1);
+
+    /**
+     * The thread on which the load table is refreshed.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Create a new cluster of the hosts of the given clients.  Nothing is
+     * refreshed until start() is invoked.  Each client is attached to the
+     * quota ledger of the cluster, such that stopping a container through
+     * any client, or its exit being reported by any host, releases its quota
+     * charge, and to the metrics of the cluster, such that its operations
+     * are timed.
+     *
+     * @param clients
+     *     The clients of all hosts, in configured order.  This must not be
+     *     empty.
+     *
+     * @param strategy
+     *     The strategy deciding where new containers are placed.
+     *
+     * @param refreshInterval
+     *     The number of seconds between refreshes of the load table.
+     */
+    public DockerCluster(List<DockerStartupClient> clients,
+            PlacementStrategy strategy, int refreshInterval) {
+
+        this.clients = Collections.unmodifiableList(new ArrayList<>(clients));
+        this.strategy = strategy;
+        this.refreshInterval = TimeUnit.SECONDS.toMillis(Math.max(refreshInterval, 1));
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-startup-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (DockerStartupClient client : clients) {
+            loads.put(client, HostLoad.unknown(client));
+            client.attachQuotaLedger(quotaLedger);
+            client.attachMetrics(metrics);
+        }
+
+    }
+
+    /**
+     * Export the state of each host through JMX, and begin refreshing the
+     * load table periodically, if there is more than one host.  This returns
+     * immediately.
+     */
+    public void start() {
+
+        for (DockerStartupClient client : clients)
+            metrics.register(new HostStats(client, () -> loads.get(client)),
+                    "Host", client.getConfig().getDockerHost().toString(),
+                    Collections.<String, String>emptyMap());
+
+        if (clients.size() == 1) {
+            refreshed.countDown();
+            return;
+        }
+
+        executor.scheduleWithFixedDelay(this::refresh, 0, refreshInterval,
+                TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Return the clients of all hosts.
+     *
+     * @return
+     *     An unmodifiable list of the clients of all hosts, in configured
+     *     order.
+     */
+    public List<DockerStartupClient> getClients() {
+        return clients;
+    }
+
+    /**
+     * Return the ledger of the containers charged to each quota, shared by
+     * all hosts, as container names are unique across hosts.
+     *
+     * @return
+     *     The quota ledger of this cluster.
+     */
+    public QuotaLedger getQuotaLedger() {
+        return quotaLedger;
+    }
+
+    /**
+     * Charge the container of the given name against the given quotas, if
+     * it is not already charged.  If the charge would exceed a quota, the
+     * quota ledger is first reconciled with a listing of every host, such
+     * that containers which have exited or been removed unseen, for instance
+     * while container events are not tracked, no longer count against it.
+     *
+     * @param containerName
+     *     The name of the container about to be used.
+     *
+     * @param memory
+     *     The memory limit of the container in bytes, or null if it has
+     *     none.
+     *
+     * @param quotas
+     *     The quotas of the user using the container and of their groups.
+     *
+     * @return
+     *     True if the container was charged now, false if it was already
+     *     charged.
+     *
+     * @throws GuacamoleClientTooManyException
+     *     If charging the container would exceed any of the given quotas
+     *     even once the ledger is reconciled.
+     */
+    public boolean charge(String containerName, Long memory,
+            Collection<Quota> quotas) throws GuacamoleClientTooManyException {
+
+        try {
+            return quotaLedger.charge(containerName, memory, quotas);
+        }
+        catch (GuacamoleClientTooManyException e) {
+            if (!reconcileQuotas())
+                throw e;
+        }
+
+        return quotaLedger.charge(containerName, memory, quotas);
+
+    }
+
+    /**
+     * Release the quota charges of containers no longer running or paused on
+     * any host.  Nothing is released unless every host responds within one
+     * refresh interval, and containers charged within the last few refresh
+     * intervals are left charged, as they may still be being created.
+     *
+     * @return
+     *     True if every host responded and the ledger was reconciled,
+     *     otherwise false.
+     */
+    private boolean reconcileQuotas() {
+
+        List<CompletableFuture<List<Container>>> listings = new ArrayList<>();
+        for (DockerStartupClient client : clients)
+            listings.add(client.listManagedContainersAsync());
+
+        Set<String> active = new HashSet<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(refreshInterval);
+
+        for (CompletableFuture<List<Container>> listing : listings) {
+
+            List<Container> containers;
+            try {
+                containers = listing.get(Math.max(deadline - System.nanoTime(), 0),
+                        TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            catch (ExecutionException | TimeoutException e) {
+                logger.debug("Unable to reconcile quotas with Docker hosts.", e);
+                return false;
+            }
+
+            for (Container container : containers) {
+                ContainerSnapshot snapshot = ContainerSnapshot.fromListing(container);
+                if (snapshot.isRunning() || snapshot.isPaused())
+                    active.add(snapshot.getName());
+            }
+
+        }
+
+        quotaLedger.retainActive(active, System.currentTimeMillis()
+                - refreshInterval * PLACEMENT_EXPIRY_INTERVALS);
+        return true;
+
+    }
+
+    /**
+     * Return the timers of the operations of all hosts.
+     *
+     * @return
+     *     The metrics of this cluster.
+     */
+    public DockerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Return the last observed load of each host.  Hosts currently refusing
+     * calls because they are not responding are reported as unreachable.
+     *
+     * @return
+     *     The load of each host, in configured order.
+     */
+    public List<HostLoad> getLoads() {
+        List<HostLoad> current = new ArrayList<>(clients.size());
+        for (DockerStartupClient client : clients)
+            current.add(client.isAvailable()
+                    ? loads.get(client) : HostLoad.unknown(client));
+        return current;
+    }
+
+    /**
+     * Return whether any host is currently accepting calls, rather than
+     * refusing them because it is not responding.
+     *
+     * @return
+     *     True if at least one host is believed to be responding, otherwise
+     *     false.
+     */
+    public boolean isAvailable() {
+        for (DockerStartupClient client : clients) {
+            if (client.isAvailable())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the client of the host on which the container of the given
+     * name exists or was recently placed, without placing it.
+     *
+     * @param containerName
+     *     The name of the container.
+     *
+     * @return
+     *     The client of the host of the container, or null if the container
+     *     is not known to exist on any host.
+     */
+    public DockerStartupClient locate(String containerName) {
+
+        if (clients.size() == 1)
+            return clients.get(0);
+
+        // Sticky placement finds existing containers without any listing
+        if (!strategy.isSticky())
+            awaitFirstRefresh();
+
+        DockerStartupClient located = locations.get(containerName);
+        if (located != null)
+            return located;
+
+        Placement placement = placements.get(containerName);
+        return (placement != null) ? placement.client : null;
+
+    }
+
+    /**
+     * Return the client of the host on which the container of the given
+     * name exists, placing the container on a host if it is not known to
+     * exist on any.  Concurrent requests to place the same container are
+     * given the same host.
+     *
+     * @param containerName
+     *     The name of the container.
+     *
+     * @param spec
+     *     The spec of the container, whose memory limit is counted against
+     *     the host on which it is placed.
+     *
+     * @return
+     *     The client of the host on which the container exists or is to be
+     *     created.
+     */
+    public DockerStartupClient getClient(String containerName,
+            ContainerSpec spec) {
+
+        DockerStartupClient located = locate(containerName);
+        if (located != null)
+            return located;
+
+        return placements.computeIfAbsent(containerName, name -> {
+
+            HostLoad chosen = strategy.place(name, getLoads());
+            loads.computeIfPresent(chosen.getClient(),
+                    (client, load) -> load.withContainer(spec.getLimits().getMemory()));
+
+            logger.debug(">>>DOCKER<<< Placing container {} on {}.", name,
+                    chosen.getHostId());
+            return new Placement(chosen.getClient());
+
+        }).client;
+
+    }
+
+    /**
+     * Wait for the load table to be refreshed for the first time, such that
+     * existing containers are found rather than placed again, giving up
+     * after a short time.
+     */
+    private void awaitFirstRefresh() {
+        try {
+            if (!refreshed.await(INITIAL_REFRESH_TIMEOUT, TimeUnit.MILLISECONDS))
+                logger.warn("Placing containers before the load of all Docker "
+                        + "hosts is known.");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Refresh the load table from a listing of the managed containers of
+     * every host.  All hosts are listed at once, through the timed and
+     * breaker-guarded calls of their clients, and any host which has not
+     * responded within one refresh interval is considered unknown.  The
+     * last known locations of containers on hosts which do not respond are
+     * retained.
+     */
+    private void refresh() {
+
+        Map<DockerStartupClient, CompletableFuture<HostListing>> listings =
+                new HashMap<>();
+        for (DockerStartupClient client : clients)
+            listings.put(client, client.listManagedContainersAsync()
+                    .thenCombine(client.getMemoryTotalAsync(), HostListing::new));
+
+        Map<String, DockerStartupClient> updated = new HashMap<>();
+        Set<String> active = new HashSet<>();
+        boolean complete = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(refreshInterval);
+
+        for (DockerStartupClient client : clients) {
+
+            HostListing listing;
+            try {
+                listing = listings.get(client).get(
+                        Math.max(deadline - System.nanoTime(), 0),
+                        TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (ExecutionException | TimeoutException e) {
+                Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+                logger.warn("Unable to refresh load of Docker host {}: {}",
+                        client.getConfig().getDockerHost(),
+                        (e instanceof TimeoutException)
+                                ? "No response within the refresh interval."
+                                : cause.getMessage());
+                logger.debug("Error refreshing Docker host load.", cause);
+                loads.put(client, HostLoad.unknown(client));
+                complete = false;
+                for (Map.Entry<String, DockerStartupClient> location : locations.entrySet()) {
+                    if (location.getValue() == client)
+                        updated.putIfAbsent(location.getKey(), client);
+                }
+                continue;
+            }
+
+            int activeCount = 0;
+            long memoryCommitted = 0;
+            for (Container container : listing.containers) {
+
+                ContainerSnapshot snapshot = ContainerSnapshot.fromListing(container);
+                DockerStartupClient previous = updated.putIfAbsent(snapshot.getName(), client);
+                if (previous != null && previous != client)
+                    logger.warn("Container {} exists on more than one Docker "
+                            + "host; using the first.", snapshot.getName());
+
+                if (!snapshot.isRunning() && !snapshot.isPaused())
+                    continue;
+
+                active.add(snapshot.getName());
+                activeCount++;
+                memoryCommitted += memoryOf(container);
+
+            }
+
+            HostLoad load = new HostLoad(client, true, activeCount, listing.memoryTotal,
+                    memoryCommitted);
+            loads.put(client, load);
+            logger.debug(">>>DOCKER<<< Refreshed load of {}.", load);
+
+        }
+
+        locations = updated;
+
+        // Placements are no longer needed once seen, or once long overdue
+        long expiry = System.currentTimeMillis()
+                - refreshInterval * PLACEMENT_EXPIRY_INTERVALS;
+        placements.entrySet().removeIf(entry -> updated.containsKey(entry.getKey())
+                || entry.getValue().placed < expiry);
+
+        // Charges of containers which exited unseen are released likewise,
+        // provided every host responded and none could be hiding them
+        if (complete)
+            quotaLedger.retainActive(active, expiry);
+
+        refreshed.countDown();
+
+    }
+
+    /**
+     * Return the memory limit recorded in the labels of the given container.
+     *
+     * @param container
+     *     The container, as returned when listing containers.
+     *
+     * @return
+     *     The memory limit of the container in bytes, or zero if it has none.
+     */
+    private static long memoryOf(Container container) {
+
+        Map<String, String> labels = container.getLabels();
+        String memory = (labels != null)
+                ? labels.get(DockerStartupClient.MEMORY_LABEL) : null;
+        if (memory == null)
+            return 0;
+
+        try {
+            return Long.parseLong(memory);
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+
+    }
+
+    /**
+     * Stop refreshing the load table, withdraw all metrics from JMX, and
+     * close the clients of all hosts.
+     *
+     * @throws IOException
+     *     If any client cannot be closed.  All clients are closed regardless.
+     */
+    @Override
+    public void close() throws IOException {
+
+        executor.shutdownNow();
+        metrics.close();
+
+        IOException failure = null;
+        for (DockerStartupClient client : clients) {
+            try {
+                client.close();
+            }
+            catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+
+        if (failure != null)
+            throw failure;
+
+    }
+
+    /**
+     * The managed containers and total memory of a host, as listed during a
+     * refresh of the load table.
+     */
+    private static class HostListing {
+
+        /**
+         * The managed containers of the host.
+         */
+        private final List<Container> containers;
+
+        /**
+         * The total memory of the host in bytes, or zero if not reported.
+         */
+        private final long memoryTotal;
+
+        /**
+         * Record the listing of a host.
+         *
+         * @param containers
+         *     The managed containers of the host.
+         *
+         * @param memoryTotal
+         *     The total memory of the host in bytes, or zero if not
+         *     reported.
+         */
+        HostListing(List<Container> containers, long memoryTotal) {
+            this.containers = containers;
+            this.memoryTotal = memoryTotal;
+        }
+
+    }
+
+    /**
+     * The placement of a container which has not yet been seen on its host.
+     */
+    private static class Placement {
+
+        /**
+         * The client of the host on which the container was placed.
+         */
+        private final DockerStartupClient client;
+
+        /**
+         * The time the container was placed, in milliseconds since the
+         * epoch.
+         */
+        private final long placed = System.currentTimeMillis();
+
+        /**
+         * Record the placement of a container on the host of the given
+         * client.
+         *
+         * @param client
+         *     The client of the host on which the container was placed.
+         */
+        Placement(DockerStartupClient client) {
+            this.client = client;
+        }
+
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines the address guacd should use to reach ports published on the
+ * Docker host.  The address is either configured explicitly or resolved
+ * from the Docker host and cached, with expired entries refreshed in the
+ * background such that lookups are not performed while a user waits.
+ */
+public class DockerHostResolver {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DockerHostResolver.class);
+
+    /**
+     * The Docker host to resolve, or null for the local host.
+     */
+    private final String host;
+
+    /**
+     * The address configured to be used instead of resolving the Docker
+     * host, or null if the Docker host should be resolved.
+     */
+    private final String override;
+
+    /**
+     * The number of nanoseconds for which a resolved address is used before
+     * being refreshed, or zero to resolve on every use.
+     */
+    private final long ttl;
+
+    /**
+     * The executor on which expired addresses are refreshed.
+     */
+    private final Executor executor;
+
+    /**
+     * The most recently resolved address, or null if the host has not yet
+     * been resolved.
+     */
+    private volatile Resolved cached;
+
+    /**
+     * Whether a background refresh is currently in progress.
+     */
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    /**
+     * Create a new resolver for the given Docker host.
+     *
+     * @param host
+     *     The Docker host to resolve, or null for the local host.
+     *
+     * @param override
+     *     The address guacd should use instead, or null or empty if the
+     *     Docker host should be resolved.
+     *
+     * @param ttl
+     *     The number of seconds for which a resolved address is cached, or
+     *     zero to resolve the Docker host on every use.
+     *
+     * @param executor
+     *     The executor on which expired addresses are refreshed.
+     */
+    public DockerHostResolver(String host, String override, int ttl,
+            Executor executor) {
+        this.host = host;
+        this.override = (override == null || override.isEmpty()) ? null : override;
+        this.ttl = TimeUnit.SECONDS.toNanos(Math.max(ttl, 0));
+        this.executor = executor;
+    }
+
+    /**
+     * Begin resolving the Docker host in the background, such that an address
+     * is already cached when first needed.
+     */
+    public void warm() {
+        if (override == null && ttl > 0)
+            refreshInBackground();
+    }
+
+    /**
+     * Return the address guacd should use to reach the Docker host.  Once an
+     * address has been resolved, an expired address is returned while a
+     * fresh one is resolved in the background.
+     *
+     * @return
+     *     The address of the Docker host.
+     *
+     * @throws DockerStartupException
+     *     If the Docker host has never been resolved and cannot be resolved
+     *     now.
+     */
+    public String resolve() throws DockerStartupException {
+
+        if (override != null)
+            return override;
+
+        Resolved current = cached;
+        if (current == null || ttl == 0)
+            return refresh().address;
+
+        if (System.nanoTime() - current.expires > 0)
+            refreshInBackground();
+
+        return current.address;
+
+    }
+
+    /**
+     * Start refreshing the cached address in the background, unless a
+     * refresh is already in progress.
+     */
+    private void refreshInBackground() {
+
+        if (!refreshing.compareAndSet(false, true))
+            return;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh();
+                }
+                catch (DockerStartupException e) {
+                    logger.warn("Unable to resolve Docker host: {}", e.getMessage());
+                    logger.debug("Error resolving Docker host.", e);
+                }
+                finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            refreshing.set(false);
+            logger.debug("Unable to schedule resolution of Docker host.", e);
+        }
+
+    }
+
+    /**
+     * Resolve the Docker host now, caching the result.
+     *
+     * @return
+     *     The newly resolved address.
+     *
+     * @throws DockerStartupException
+     *     If the Docker host cannot be resolved.
+     */
+    private Resolved refresh() throws DockerStartupException {
+
+        try {
+            InetAddress hostAddr = InetAddress.getByName(host);
+            Resolved resolved = new Resolved(hostAddr.getHostName(),
+                    System.nanoTime() + ttl);
+            logger.debug(">>>DOCKER<<< Resolved Docker host {} as {}", host,
+                    resolved.address);
+            cached = resolved;
+            return resolved;
+        }
+        catch (UnknownHostException e) {
+            throw new DockerStartupException("Cannot resolve docker host.", e);
+        }
+
+    }
+
+    /**
+     * A resolved address and the time at which it expires.
+     */
+    private static class Resolved {
+
+        /**
+         * The resolved address.
+         */
+        private final String address;
+
+        /**
+         * The value of System.nanoTime() after which the address should be
+         * refreshed.
+         */
+        private final long expires;
+
+        /**
+         * Create a new resolved address.
+         *
+         * @param address
+         *     The resolved address.
+         *
+         * @param expires
+         *     The value of System.nanoTime() after which the address should
+         *     be refreshed.
+         */
+        Resolved(String address, long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The latency timers of all instrumented operations, each identified by a
+ * metric name and a set of labels such as the Docker host or image.  Each
+ * timer, and any other object registered here, is also exported as a
+ * platform MBean under the "org.apache.guacamole.docker" domain until this
+ * registry is closed.
+ */
+public class DockerMetrics implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DockerMetrics.class);
+
+    /**
+     * The JMX domain of all exported MBeans.
+     */
+    public static final String JMX_DOMAIN = "org.apache.guacamole.docker";
+
+    /**
+     * The timer of individual Docker API operations, labelled by operation
+     * and host.
+     */
+    public static final String OPERATION = "operation";
+
+    /**
+     * The timer of provisioning containers until running, labelled by image.
+     */
+    public static final String PROVISION_BY_IMAGE = "provision_by_image";
+
+    /**
+     * The timer of provisioning containers until running, labelled by host.
+     */
+    public static final String PROVISION_BY_HOST = "provision_by_host";
+
+    /**
+     * The timer of containers becoming ready to accept connections, labelled
+     * by image.
+     */
+    public static final String READINESS_BY_IMAGE = "readiness_by_image";
+
+    /**
+     * The timer of decorating the user context at login.
+     */
+    public static final String DECORATION = "decoration";
+
+    /**
+     * All timers, keyed by metric name and labels.
+     */
+    private final ConcurrentMap<Key, LatencyTimer> timers = new ConcurrentHashMap<>();
+
+    /**
+     * The names of all MBeans registered by this registry.
+     */
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Return the timer of the given metric and labels, creating and
+     * exporting it if it does not yet exist.
+     *
+     * @param name
+     *     The name of the metric.
+     *
+     * @param labels
+     *     The names and values of the labels of the timer, alternating.
+     *
+     * @return
+     *     The timer of the given metric and labels.
+     */
+    public LatencyTimer timer(String name, String... labels) {
+
+        Key key = new Key(name, labels);
+        LatencyTimer timer = timers.get(key);
+        if (timer != null)
+            return timer;
+
+        LatencyTimer created = new LatencyTimer();
+        timer = timers.putIfAbsent(key, created);
+        if (timer != null)
+            return timer;
+
+        register(created, "Timer", key.name, key.getLabels());
+        return created;
+
+    }
+
+    /**
+     * Return all timers.
+     *
+     * @return
+     *     An unmodifiable view of all timers, keyed by metric name and labels.
+     */
+    public Map<Key, LatencyTimer> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
+    /**
+     * Export the given MBean under the given type, name, and labels.
+     * Failure to export is logged and otherwise ignored, as metrics must not
+     * prevent the extension from working.
+     *
+     * @param mbean
+     *     The MBean to export.
+     *
+     * @param type
+     *     The type of the MBean.
+     *
+     * @param name
+     *     The name of the MBean.
+     *
+     * @param labels
+     *     Additional properties identifying the MBean.
+     */
+    public void register(Object mbean, String type, String name,
+            Map<String, String> labels) {
+
+        StringBuilder objectName = new StringBuilder(JMX_DOMAIN)
+                .append(":type=").append(type)
+                .append(",name=").append(ObjectName.quote(name));
+        for (Map.Entry<String, String> label : labels.entrySet())
+            objectName.append(',').append(label.getKey())
+                    .append('=').append(ObjectName.quote(label.getValue()));
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName registeredName = server.registerMBean(mbean,
+                    new ObjectName(objectName.toString())).getObjectName();
+            registered.add(registeredName);
+        }
+        catch (JMException | RuntimeException e) {
+            logger.debug(">>>DOCKER<<< Unable to export {} through JMX.", objectName, e);
+        }
+
+    }
+
+    /**
+     * Withdraw all MBeans exported by this registry.
+     */
+    @Override
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (JMException e) {
+                logger.debug(">>>DOCKER<<< Unable to withdraw {} from JMX.", name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * The name and labels identifying a single timer.
+     */
+    public static class Key {
+
+        /**
+         * The name of the metric.
+         */
+        private final String name;
+
+        /**
+         * The names and values of the labels, alternating.
+         */
+        private final List<String> labels;
+
+        /**
+         * Create a new key.
+         *
+         * @param name
+         *     The name of the metric.
+         *
+         * @param labels
+         *     The names and values of the labels, alternating.
+         */
+        Key(String name, String... labels) {
+            if (labels.length % 2 != 0)
+                throw new IllegalArgumentException("Labels must be given as "
+                        + "name/value pairs.");
+            this.name = name;
+            this.labels = Arrays.asList(labels);
+        }
+
+        /**
+         * Return the name of the metric.
+         *
+         * @return
+         *     The name of the metric.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Return the labels of the timer.
+         *
+         * @return
+         *     The value of each label, keyed by label name, in the order
+         *     given.
+         */
+        public Map<String, String> getLabels() {
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < labels.size(); i += 2)
+                map.put(labels.get(i), labels.get(i + 1));
+            return map;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return name.equals(key.name) && labels.equals(key.labels);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + labels.hashCode();
+        }
+
+    }
+
+}
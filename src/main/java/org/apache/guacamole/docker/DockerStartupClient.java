@@ -21,36 +21,83 @@ package org.apache.guacamole.docker;
 
 import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.command.CreateContainerCmd;
-import com.github.dockerjava.api.command.CreateContainerResponse;
-import com.github.dockerjava.api.command.InspectContainerResponse;
-import com.github.dockerjava.api.command.InspectContainerResponse.ContainerState;
+import com.github.dockerjava.api.command.DockerCmdExecFactory;
+import com.github.dockerjava.api.exception.ConflictException;
+import com.github.dockerjava.api.exception.DockerException;
 import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.exception.NotModifiedException;
+import com.github.dockerjava.api.model.AuthConfig;
+import com.github.dockerjava.api.model.Container;
 import com.github.dockerjava.api.model.ExposedPort;
 import com.github.dockerjava.api.model.HostConfig;
+import com.github.dockerjava.api.model.Network;
 import com.github.dockerjava.api.model.Ports;
-import com.github.dockerjava.api.model.Ports.Binding;
 import com.github.dockerjava.core.DockerClientBuilder;
 import com.github.dockerjava.core.DockerClientConfig;
+import com.github.dockerjava.jaxrs.JerseyDockerCmdExecFactory;
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import javax.ws.rs.ProcessingException;
 import org.apache.guacamole.GuacamoleException;
+import org.apache.guacamole.docker.ProvisioningTrace.Phase;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A utility class that handles the required Docker commands for interfacing
- * with Guacamole.
+ * with Guacamole. A single instance is intended to be shared by all users of
+ * each Docker host, as each instance maintains its own pool of HTTP
+ * connections to that host. Instances must be closed when no longer needed.
  */
-public class DockerStartupClient {
+public class DockerStartupClient implements Closeable {
     
     /**
      * The logger for this class.
      */
     private final static Logger logger = LoggerFactory.getLogger(DockerStartupClient.class);
     
+    /**
+     * The label applied to every container created by this extension, used
+     * to restrict listings and events to managed containers.
+     */
+    public static final String MANAGED_LABEL = "org.apache.guacamole.docker-startup";
+    
+    /**
+     * The label recording the memory limit of a managed container in bytes,
+     * if it has one, such that the memory committed on a host can be
+     * determined from a listing of its containers.
+     */
+    public static final String MEMORY_LABEL = MANAGED_LABEL + ".memory";
+    
+    /**
+     * The number of locks across which operations that change the state of
+     * a container are striped.
+     */
+    static final int LOCK_STRIPES = 64;
+    
     /**
      * The DockerClient instance used to talk with the Docker server and manage
      * containers.
@@ -62,6 +109,142 @@ public class DockerStartupClient {
      */
     private final DockerClientConfig config;
     
+    /**
+     * The executor which periodically evicts idle connections from the
+     * connection pool, or null if idle eviction is disabled or unavailable.
+     */
+    private final ScheduledExecutorService evictionExecutor;
+    
+    /**
+     * The cache of recent container inspection results.
+     */
+    private final ContainerSnapshotCache snapshotCache;
+    
+    /**
+     * The live index of managed container state, or null if container events
+     * are not being tracked.
+     */
+    private final ContainerStateIndex stateIndex;
+    
+    /**
+     * The manager ensuring images are present before containers are created.
+     */
+    private final ImageManager imageManager;
+    
+    /**
+     * The bounded executor on which asynchronous Docker operations run.
+     */
+    private final ThreadPoolExecutor asyncExecutor;
+    
+    /**
+     * The number of milliseconds an asynchronous operation may take before
+     * it is failed, or zero if operations are never timed out.
+     */
+    private final long callTimeout;
+    
+    /**
+     * The thread on which asynchronous operations are timed out, or null if
+     * operations are never timed out.
+     */
+    private final ScheduledExecutorService timeoutExecutor;
+    
+    /**
+     * Locks serializing changes to containers of the same name, while
+     * allowing unrelated containers to be changed in parallel.
+     */
+    private final Lock[] containerLocks = new Lock[LOCK_STRIPES];
+    
+    /**
+     * All provisioning operations currently in progress, keyed by container
+     * name, such that concurrent requests to provision the same container
+     * share a single operation.
+     */
+    private final ConcurrentMap<String, CompletableFuture<ContainerSnapshot>> provisioning =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * The pool of pre-created containers from which new containers are
+     * claimed, or null if pooling is disabled.
+     */
+    private volatile ContainerPool containerPool;
+    
+    /**
+     * The probe used to wait for containers to accept connections, or null
+     * if containers are handed out as soon as they are running.
+     */
+    private volatile ReadinessProbe readinessProbe;
+    
+    /**
+     * The reaper stopping containers which are no longer in use, or null if
+     * containers are left running.
+     */
+    private volatile ContainerReaper containerReaper;
+    
+    /**
+     * The Docker network over which guacd connects directly to containers,
+     * or null if guacd connects to ports published on the Docker host.
+     */
+    private volatile String directNetwork;
+    
+    /**
+     * The Docker network to which created containers are attached, or null
+     * to use the Docker default network.
+     */
+    private volatile String containerNetwork;
+    
+    /**
+     * The resolver providing the address guacd uses to reach ports published
+     * on the Docker host.
+     */
+    private volatile DockerHostResolver hostResolver;
+    
+    /**
+     * The controller limiting the number of container starts in progress at
+     * once, or null if starts are not limited.
+     */
+    private volatile AdmissionController admissionController;
+    
+    /**
+     * The breaker which refuses operations while the Docker host is not
+     * responding, or null if operations are always attempted.
+     */
+    private volatile CircuitBreaker circuitBreaker;
+    
+    /**
+     * The ledger whose charges are released as containers are stopped or
+     * removed, or null if quotas are not tracked.
+     */
+    private volatile QuotaLedger quotaLedger;
+    
+    /**
+     * The timers into which operations against the Docker host are recorded,
+     * or null if operations are not timed.
+     */
+    private volatile DockerMetrics metrics;
+    
+    /**
+     * An operation against Docker which may fail with a
+     * DockerStartupException, and which can be run asynchronously.
+     * 
+     * @param <T>
+     *     The type of value produced by the operation.
+     */
+    @FunctionalInterface
+    private interface DockerOperation<T> {
+        
+        /**
+         * Perform the operation.
+         * 
+         * @return
+         *     The result of the operation.
+         * 
+         * @throws DockerStartupException
+         *     If the operation fails.
+         */
+        T run() throws DockerStartupException;
+        
+    }
+    
     /**
      * Configure a new instance of the DockerStartupClient with the given
      * DockerClientConfig, derived from the options specified in the
@@ -70,16 +253,228 @@ public class DockerStartupClient {
      * @param config
      *     The configuration to use for the client
      * 
+     * @param registryAuth
+     *     The credentials to use when pulling images from the registry, or
+     *     null to pull images anonymously.
+     * 
+     * @param maxConnections
+     *     The maximum number of pooled HTTP connections that will be opened
+     *     to the Docker host.
+     * 
+     * @param idleTimeout
+     *     The number of seconds a pooled connection may remain idle before it
+     *     is closed, or zero if idle connections should never be evicted.
+     * 
+     * @param snapshotCache
+     *     The cache in which recent container inspection results should be
+     *     stored.
+     * 
+     * @param trackEvents
+     *     Whether or not the Docker events stream should be used to maintain
+     *     a live index of managed container state.
+     * 
+     * @param asyncThreads
+     *     The maximum number of threads used to run asynchronous operations.
+     * 
+     * @param asyncQueueSize
+     *     The maximum number of asynchronous operations which may be waiting
+     *     for a thread before further operations are rejected.
+     * 
+     * @param callTimeout
+     *     The number of seconds within which a connection to the Docker host
+     *     must be established, and within which each asynchronous operation
+     *     must complete, or zero to wait indefinitely.
+     * 
      * @throws GuacamoleException
      *     If an error occurs retrieving the configuration
      */
-    public DockerStartupClient(DockerClientConfig config) throws GuacamoleException {
+    public DockerStartupClient(DockerClientConfig config,
+            AuthConfig registryAuth, int maxConnections,
+            int idleTimeout, ContainerSnapshotCache snapshotCache,
+            boolean trackEvents, int asyncThreads, int asyncQueueSize,
+            int callTimeout) throws GuacamoleException {
+        this(config, registryAuth, createExecFactory(maxConnections, callTimeout),
+                idleTimeout, snapshotCache, trackEvents, asyncThreads,
+                asyncQueueSize, callTimeout);
+    }
+    
+    /**
+     * Configure a new instance of the DockerStartupClient which runs all
+     * Docker commands through the given exec factory.
+     * 
+     * @param config
+     *     The configuration to use for the client
+     * 
+     * @param registryAuth
+     *     The credentials to use when pulling images from the registry, or
+     *     null to pull images anonymously.
+     * 
+     * @param execFactory
+     *     The factory of the executors of all Docker commands.
+     * 
+     * @param idleTimeout
+     *     The number of seconds a pooled connection may remain idle before it
+     *     is closed, or zero if idle connections should never be evicted.
+     *     This has no effect unless the factory pools HTTP connections.
+     * 
+     * @param snapshotCache
+     *     The cache in which recent container inspection results should be
+     *     stored.
+     * 
+     * @param trackEvents
+     *     Whether or not the Docker events stream should be used to maintain
+     *     a live index of managed container state.
+     * 
+     * @param asyncThreads
+     *     The maximum number of threads used to run asynchronous operations.
+     * 
+     * @param asyncQueueSize
+     *     The maximum number of asynchronous operations which may be waiting
+     *     for a thread before further operations are rejected.
+     * 
+     * @param callTimeout
+     *     The number of seconds within which each asynchronous operation
+     *     must complete, or zero to wait indefinitely.
+     */
+    DockerStartupClient(DockerClientConfig config, AuthConfig registryAuth,
+            DockerCmdExecFactory execFactory, int idleTimeout,
+            ContainerSnapshotCache snapshotCache, boolean trackEvents,
+            int asyncThreads, int asyncQueueSize, int callTimeout) {
         
         // Retrieve and store configuration
         this.config = config;
+        this.snapshotCache = snapshotCache;
+        this.callTimeout = TimeUnit.SECONDS.toMillis(Math.max(callTimeout, 0));
+        
+        this.client = DockerClientBuilder.getInstance(config)
+                .withDockerCmdExecFactory(execFactory)
+                .build();
+        
+        this.evictionExecutor = scheduleIdleEviction(execFactory, idleTimeout);
+        this.imageManager = new ImageManager(client, registryAuth);
+        
+        // Maintain container state from pushed events, if enabled
+        if (trackEvents) {
+            this.stateIndex = new ContainerStateIndex(client);
+            this.stateIndex.start();
+        }
+        else
+            this.stateIndex = null;
+        
+        // Dedicated, bounded pool for the asynchronous API
+        AtomicInteger threadCount = new AtomicInteger();
+        this.asyncExecutor = new ThreadPoolExecutor(asyncThreads, asyncThreads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(asyncQueueSize, 1)),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "docker-startup-async-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.asyncExecutor.allowCoreThreadTimeOut(true);
+        
+        if (this.callTimeout > 0) {
+            this.timeoutExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "docker-startup-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        else
+            this.timeoutExecutor = null;
+        
+        for (int i = 0; i < containerLocks.length; i++)
+            containerLocks[i] = new ReentrantLock();
+        
+        // Resolve the Docker host on each use until configured otherwise
+        this.hostResolver = new DockerHostResolver(config.getDockerHost().getHost(),
+                null, 0, asyncExecutor);
+        
+    }
+    
+    /**
+     * Create the factory of the executors of all Docker commands, using a
+     * bounded pool of HTTP connections.  Reads are not timed out here, as
+     * pulls and events stream at length.
+     * 
+     * @param maxConnections
+     *     The maximum number of pooled HTTP connections that will be opened
+     *     to the Docker host.
+     * 
+     * @param callTimeout
+     *     The number of seconds within which a connection to the Docker host
+     *     must be established, or zero to wait indefinitely.
+     * 
+     * @return
+     *     A new exec factory.
+     */
+    private static DockerCmdExecFactory createExecFactory(int maxConnections,
+            int callTimeout) {
+        
+        JerseyDockerCmdExecFactory execFactory = new JerseyDockerCmdExecFactory()
+                .withMaxTotalConnections(maxConnections)
+                .withMaxPerRouteConnections(maxConnections);
+        if (callTimeout > 0)
+            execFactory.withConnectTimeout((int) TimeUnit.SECONDS.toMillis(callTimeout));
+        
+        return execFactory;
+        
+    }
+    
+    /**
+     * Schedule periodic eviction of idle and expired connections from the
+     * connection pool of the given exec factory. The factory does not expose
+     * its connection manager, so it is retrieved reflectively; if this is not
+     * possible, connections are simply left to the pool defaults.
+     * 
+     * @param execFactory
+     *     The exec factory whose connection pool should be maintained. This
+     *     factory must already have been initialized by building a client.
+     *     Factories other than the Jersey factory are left as they are.
+     * 
+     * @param idleTimeout
+     *     The number of seconds a pooled connection may remain idle before it
+     *     is closed, or zero to disable eviction.
+     * 
+     * @return
+     *     The executor running the eviction task, or null if no eviction
+     *     was scheduled.
+     */
+    private static ScheduledExecutorService scheduleIdleEviction(
+            DockerCmdExecFactory execFactory, int idleTimeout) {
+        
+        if (idleTimeout <= 0 || !(execFactory instanceof JerseyDockerCmdExecFactory))
+            return null;
+        
+        final PoolingHttpClientConnectionManager connManager;
+        try {
+            Field connManagerField = JerseyDockerCmdExecFactory.class.getDeclaredField("connManager");
+            connManagerField.setAccessible(true);
+            connManager = (PoolingHttpClientConnectionManager) connManagerField.get(execFactory);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Idle Docker connections cannot be evicted: {}", e.getMessage());
+            logger.debug("Unable to retrieve Docker connection manager.", e);
+            return null;
+        }
+        
+        // Unix socket connections do not use a pooled connection manager
+        if (connManager == null)
+            return null;
+        
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-startup-idle-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
         
-        // Build the client from the provided config.
-        this.client = DockerClientBuilder.getInstance(config).build();
+        executor.scheduleWithFixedDelay(() -> {
+            connManager.closeExpiredConnections();
+            connManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+        }, idleTimeout, idleTimeout, TimeUnit.SECONDS);
+        
+        return executor;
         
     }
     
@@ -104,227 +499,1760 @@ public class DockerStartupClient {
     }
     
     /**
-     * Start a container in Docker using the specified image name, port, and
-     * command, and using the container name specified, returning the container
-     * identifier upon success, or throwing a DockerStartupException if an
-     * error occurs.
+     * Return the manager which ensures images are present before containers
+     * are created from them.
      * 
-     * @param imageName
-     *     The name of the image to start up.
+     * @return
+     *     The image manager used by this client.
+     */
+    public ImageManager getImageManager() {
+        return imageManager;
+    }
+    
+    /**
+     * Begin maintaining a pool of pre-created containers for each registered
+     * container spec, from which containers are claimed when provisioning
+     * rather than being created on demand.
      * 
-     * @param imagePort
-     *     The port within the image that will be opened and published by
-     *     Docker.
+     * @param targetSize
+     *     The number of idle containers to maintain for each spec.
      * 
-     * @param containerName
-     *     The name to give to the container.
+     * @param maxSize
+     *     The maximum number of idle containers to retain for each spec.
      * 
-     * @param imageCmd
-     *     The command to run within the container at startup, or null if
-     *     no additional/specific command should be run.
+     * @param prestart
+     *     Whether or not pooled containers should be started as soon as they
+     *     are created.
      * 
      * @return
-     *     The identifier of the container.
-     * 
-     * @throws DockerStartupException 
-     *     If startup of the container is interrupted.
+     *     The pool, with which container specs should be registered.
      */
-    public synchronized String createContainer(String imageName, int imagePort,
-            String containerName, String imageCmd) throws DockerStartupException {
+    public synchronized ContainerPool enableContainerPool(int targetSize,
+            int maxSize, boolean prestart) {
         
-        logger.debug(">>>DOCKER<<< Creating container {} from image {}",
-                containerName, imageName);
-        
-        if (containerExists(imageName))
-            throw new DockerStartupException("Container already exists.");
+        if (containerPool == null) {
+            containerPool = new ContainerPool(this, targetSize, maxSize, prestart);
+            containerPool.start();
+        }
         
-        // Set up the port bindings
-        ExposedPort containerPort = ExposedPort.tcp(imagePort);
-        Ports portBindings = new Ports();
-        portBindings.bind(containerPort, Ports.Binding.bindPortSpec(null));
-        HostConfig hostConfig = new HostConfig()
-                .withPortBindings(portBindings)
-                .withPublishAllPorts(false);
+        return containerPool;
         
-        // Create the command to start the container
-        CreateContainerCmd containerCmd = client.createContainerCmd(imageName)
-                .withName(containerName)
-                .withExposedPorts(containerPort)
-                .withHostConfig(hostConfig);
-        if (imageCmd != null && !imageCmd.isEmpty())
-            containerCmd.withCmd(imageCmd);
-        return containerCmd.exec().getId();
     }
     
     /**
-     * Star the container with the specified container identifier or name.
+     * Begin waiting for the service within each container to accept
+     * connections before the container is considered ready for use.
      * 
-     * @param cid
-     *     The identifier or name of the container to start.
+     * @param timeout
+     *     The number of seconds within which a container must accept
+     *     connections.
      * 
-     * @throws DockerStartupException
-     *     If an error occurs starting the container.
+     * @return
+     *     The readiness probe.
      */
-    public synchronized void startContainer(String cid)
-            throws DockerStartupException {
-        
-        logger.debug(">>>DOCKER<<< Starting container {}", cid);
+    public synchronized ReadinessProbe enableReadinessProbe(int timeout) {
         
-        // Start the container and wait, returning the container ID
-        try {
-            if (containerExists(cid))
-                client.startContainerCmd(cid).exec().wait();
-            else
-                throw new DockerStartupException("Container does not exist.");
-        }
-        catch (InterruptedException e) {
-            throw new DockerStartupException("Startup interrupted.", e);
+        if (readinessProbe == null) {
+            readinessProbe = new ReadinessProbe(timeout);
+            if (metrics != null)
+                readinessProbe.attachMetrics(metrics);
         }
         
+        return readinessProbe;
         
     }
     
     /**
-     * Check wither the container exists, return true if it exists or false
-     * if not.
-     * 
-     * @param cid
-     *     The identifier or name of the container to check for existence.
+     * Return the probe used to wait for containers to accept connections.
      * 
      * @return
-     *     True if the container exists, otherwise false.
+     *     The readiness probe, or null if readiness is not probed.
+     */
+    public ReadinessProbe getReadinessProbe() {
+        return readinessProbe;
+    }
+    
+    /**
+     * Begin stopping or pausing containers which have had no open tunnels
+     * for the given number of seconds.
      * 
-     * @throws DockerStartupException
-     *     If an error occurs get the Docker Client information.
+     * @param idleTimeout
+     *     The number of seconds a container may have no open tunnels before
+     *     it is stopped or paused.
+     * 
+     * @param suspend
+     *     Whether idle containers should be paused, rather than stopped, such
+     *     that they may be resumed quickly with their state intact.
+     * 
+     * @return
+     *     The reaper, with which tunnel activity should be recorded.
      */
-    public Boolean containerExists(String cid) throws DockerStartupException {
-        logger.debug(">>>DOCKER<<< Checking if container {} exists.", cid);
-        try {
-            InspectContainerResponse findContainer = client.inspectContainerCmd(cid).exec();
-            return (findContainer.getId() != null);
-        }
-        catch (NotFoundException e) {
-            logger.debug(">>>DOCKER<<< Container {} not found.", cid);
-            return false;
+    public synchronized ContainerReaper enableContainerReaper(int idleTimeout,
+            boolean suspend) {
+        
+        if (containerReaper == null) {
+            containerReaper = new ContainerReaper(this, idleTimeout, suspend);
+            containerReaper.start();
         }
+        
+        return containerReaper;
+        
     }
     
     /**
-     * Check and see if the specified container is running, returning true
-     * if the container exists and is running, otherwise false.
-     * 
-     * @param cid
-     *     The identifier or name of the container.
+     * Return the reaper stopping containers which are no longer in use.
      * 
      * @return
-     *     True if the container exists and is running, otherwise false.
+     *     The reaper, or null if idle containers are left running.
+     */
+    public ContainerReaper getContainerReaper() {
+        return containerReaper;
+    }
+    
+    /**
+     * Connect directly to the address of each container on the given Docker
+     * network, rather than to ports published on the Docker host.  Containers
+     * created from then on publish no ports.  guacd must be able to route to
+     * the given network.
      * 
-     * @throws DockerStartupException 
-     *     If the Docker client cannot be retrieved.
+     * @param network
+     *     The name of the Docker network over which to connect.
      */
-    public Boolean containerRunning(String cid) throws DockerStartupException {
-        logger.debug(">>>DOCKER<<< Checking if container {} is running", cid);
-        if (!containerExists(cid))
-            return false;
-        ContainerState containerState = client.inspectContainerCmd(cid).exec().getState();
-        logger.debug(">>>DOCKER<<< Container {} in state {}", containerState.getStatus());
-        return containerState.getRunning();
+    public void enableDirectConnections(String network) {
+        this.directNetwork = network;
     }
     
     /**
-     * Retrieve a Map containing the host address and port that are published
-     * for the container specified by the identifier.
+     * Limit the number of containers being created and started at once,
+     * queueing any further starts.  This must be invoked before the client
+     * is first used, and at most once.
      * 
-     * @param containerId
-     *     The identifier of the container for which to retrieve the
-     *     connectivity information.
+     * @param maxInFlight
+     *     The maximum number of starts which may be in progress at once.
+     * 
+     * @param maxQueued
+     *     The maximum number of starts which may wait to be admitted.
+     * 
+     * @param maxWait
+     *     The maximum number of seconds a start may wait to be admitted.
      * 
      * @return
-     *     A Map containing the hostname and port number to use to connect
-     *     to the container.
+     *     The newly-created admission controller.
+     */
+    public synchronized AdmissionController enableAdmissionControl(
+            int maxInFlight, int maxQueued, int maxWait) {
+        AdmissionController controller = new AdmissionController(maxInFlight,
+                maxQueued, maxWait);
+        this.admissionController = controller;
+        return controller;
+    }
+    
+    /**
+     * Return the controller limiting the number of container starts in
+     * progress at once, if enabled.
      * 
-     * @throws DockerStartupException
-     *     If the Docker host cannot be resolved.
+     * @return
+     *     The admission controller, or null if starts are not limited.
      */
-    public Map<String, String> getContainerConnection(String containerId)
-            throws DockerStartupException {
-        
-        logger.debug(">>>DOCKER<<< Retrieving parameters for container {}", containerId);
-        
-        try {
-            
-            String host = config.getDockerHost().getHost();
-            logger.debug(">>>DOCKER<<< Container host: {}", host);
-            
-            Map<String, String> connectionParameters = new HashMap<>();
-            InetAddress hostAddr = InetAddress.getByName(config.getDockerHost().getHost());
-            Map<ExposedPort, Binding[]> portBindings = client
-                    .inspectContainerCmd(containerId).exec()
-                    .getNetworkSettings().getPorts().getBindings();
-            
-            logger.debug(">>>DOCKER<<< Adding hostname parameter: {}", hostAddr.getHostName());
-            connectionParameters.put("hostname", hostAddr.getHostName());
-            for (ExposedPort port : portBindings.keySet()) {
-                Binding[] bindings = portBindings.get(port);
-                if (bindings != null
-                        && bindings.length > 0
-                        && bindings[0] != null) {
-                    String hostPort = bindings[0].getHostPortSpec();
-                    logger.debug(">>>DOCKER<<< Adding port parameter: {}", hostPort);
-                    connectionParameters.put("port", hostPort);
-                    break;
-                }
-            }
-
-            return connectionParameters;
-        }
-        catch (UnknownHostException e) {
-            throw new DockerStartupException("Cannot resolve docker host.", e);
-        }
-        
+    public AdmissionController getAdmissionController() {
+        return admissionController;
     }
     
     /**
-     * Stop the container specified by the identifier, and return the
-     * identifier upon stop.
+     * Refuse operations for the given number of seconds once the given
+     * number of operations in a row have failed because the Docker host did
+     * not respond.  This must be invoked before the client is first used,
+     * and at most once.
      * 
-     * @param containerId
-     *     The identifier of the container to stop.
+     * @param failureThreshold
+     *     The number of consecutive failures after which operations are
+     *     refused.
      * 
-     * @return
-     *     The identifier of the container that was stopped.
+     * @param coolDown
+     *     The number of seconds for which operations are refused.
      * 
-     * @throws DockerStartupException 
-     *     If an error occurs during the container stop operation.
+     * @return
+     *     The newly-created circuit breaker.
      */
-    public String stopContainer(String containerId)
-            throws DockerStartupException {
-        
-        logger.debug(">>>DOCKER<<< Stopping container {}", containerId);
+    public synchronized CircuitBreaker enableCircuitBreaker(int failureThreshold,
+            int coolDown) {
+        CircuitBreaker breaker = new CircuitBreaker(
+                config.getDockerHost().toString(), failureThreshold, coolDown);
+        this.circuitBreaker = breaker;
+        return breaker;
+    }
+    
+    /**
+     * Return the breaker which refuses operations while the Docker host is
+     * not responding, if enabled.
+     * 
+     * @return
+     *     The circuit breaker, or null if operations are always attempted.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+    
+    /**
+     * Return whether operations are currently being attempted against the
+     * Docker host, rather than refused because it is not responding.
+     * 
+     * @return
+     *     True if the Docker host is believed to be responding, otherwise
+     *     false.
+     */
+    public boolean isAvailable() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker == null || !breaker.isOpen();
+    }
+    
+    /**
+     * Release the quota charge of each container in the given ledger as the
+     * container is stopped or removed through this client, or, if events are
+     * tracked, as Docker reports that it has exited or been removed.
+     * 
+     * @param ledger
+     *     The ledger recording the containers charged to each quota.
+     */
+    public void attachQuotaLedger(QuotaLedger ledger) {
+        this.quotaLedger = ledger;
+        if (stateIndex != null)
+            stateIndex.attachQuotaLedger(ledger);
+    }
+    
+    /**
+     * Record the duration of each operation against the Docker host, and of
+     * each container provisioned and made ready, in the timers of the given
+     * metrics.
+     * 
+     * @param metrics
+     *     The metrics into which operations are recorded.
+     */
+    public synchronized void attachMetrics(DockerMetrics metrics) {
+        this.metrics = metrics;
+        if (readinessProbe != null)
+            readinessProbe.attachMetrics(metrics);
+    }
+    
+    /**
+     * Return the timer of the given operation against the Docker host, if
+     * operations are timed.
+     * 
+     * @param operationName
+     *     The name of the operation, such as "inspect".
+     * 
+     * @return
+     *     The timer of the operation, or null if operations are not timed.
+     */
+    private LatencyTimer operationTimer(String operationName) {
+        DockerMetrics current = metrics;
+        return (current != null) ? current.timer(DockerMetrics.OPERATION,
+                "operation", operationName,
+                "host", config.getDockerHost().toString()) : null;
+    }
+    
+    /**
+     * Release the quota charge of the given container, if quotas are
+     * tracked.
+     * 
+     * @param containerName
+     *     The name of the container which has stopped or been removed.
+     */
+    private void releaseQuota(String containerName) {
+        QuotaLedger ledger = quotaLedger;
+        if (ledger != null)
+            ledger.release(containerName);
+    }
+    
+    /**
+     * Configure how guacd reaches ports published on the Docker host: either
+     * at the given address, or by resolving the Docker host and caching the
+     * result for the given number of seconds.  Resolution of the Docker host
+     * begins immediately in the background.
+     * 
+     * @param address
+     *     The address guacd should use to reach the Docker host, or null to
+     *     resolve the Docker host.
+     * 
+     * @param ttl
+     *     The number of seconds for which the resolved Docker host is cached,
+     *     or zero to resolve it on every use.
+     */
+    public void configureHostAddress(String address, int ttl) {
+        DockerHostResolver resolver = new DockerHostResolver(
+                config.getDockerHost().getHost(), address, ttl, asyncExecutor);
+        resolver.warm();
+        this.hostResolver = resolver;
+    }
+    
+    /**
+     * Attach all containers created from then on to the given Docker network,
+     * rather than to the Docker default network.
+     * 
+     * @param network
+     *     The name of the Docker network to attach containers to.
+     */
+    public void attachToNetwork(String network) {
+        this.containerNetwork = network;
+    }
+    
+    /**
+     * Return the Docker network to which created containers are attached.
+     * 
+     * @return
+     *     The name of the network, or null if containers are attached to the
+     *     Docker default network.
+     */
+    public String getContainerNetwork() {
+        return containerNetwork;
+    }
+    
+    /**
+     * Create the given Docker network, unless a network of that name already
+     * exists.
+     * 
+     * @param name
+     *     The name of the network.
+     * 
+     * @param driver
+     *     The network driver, such as "bridge" or "macvlan".
+     * 
+     * @param options
+     *     Any driver-specific options, such as the MTU of the network.
+     * 
+     * @return
+     *     True if the network was created, false if it already existed.
+     * 
+     * @throws DockerStartupException
+     *     If the network cannot be created.
+     */
+    public boolean createNetwork(String name, String driver,
+            Map<String, String> options) throws DockerStartupException {
+        
+        try {
+            
+            // The name filter matches partial names, so check for an exact match
+            for (Network network : client.listNetworksCmd().withNameFilter(name).exec()) {
+                if (name.equals(network.getName())) {
+                    logger.debug(">>>DOCKER<<< Network {} already exists.", name);
+                    return false;
+                }
+            }
+            
+            logger.debug(">>>DOCKER<<< Creating {} network {}", driver, name);
+            client.createNetworkCmd()
+                    .withName(name)
+                    .withDriver(driver)
+                    .withOptions(options)
+                    .withCheckDuplicate(true)
+                    .withAttachable(true)
+                    .withLabels(Collections.singletonMap(MANAGED_LABEL, "true"))
+                    .exec();
+            return true;
+        }
+        catch (ConflictException e) {
+            logger.debug(">>>DOCKER<<< Network {} created concurrently.", name);
+            return false;
+        }
+        catch (RuntimeException e) {
+            throw new DockerStartupException("Unable to create network " + name + ".", e);
+        }
+        
+    }
+    
+    /**
+     * List all containers managed by this extension on the Docker host,
+     * whether running or not.
+     * 
+     * @return
+     *     The managed containers, as returned by Docker.
+     * 
+     * @throws DockerStartupException
+     *     If the containers cannot be listed.
+     */
+    public List<Container> listManagedContainers() throws DockerStartupException {
+        
+        try {
+            return client.listContainersCmd()
+                    .withShowAll(true)
+                    .withLabelFilter(Collections.singletonList(MANAGED_LABEL))
+                    .exec();
+        }
+        catch (RuntimeException e) {
+            throw new DockerStartupException("Unable to list containers.", e);
+        }
+        
+    }
+    
+    /**
+     * Return the total memory of the Docker host.
+     * 
+     * @return
+     *     The total memory of the host in bytes, or zero if not reported.
+     * 
+     * @throws DockerStartupException
+     *     If the host cannot be queried.
+     */
+    public long getMemoryTotal() throws DockerStartupException {
+        
+        try {
+            Long reported = client.infoCmd().exec().getMemTotal();
+            return (reported != null) ? reported : 0;
+        }
+        catch (RuntimeException e) {
+            throw new DockerStartupException("Unable to query Docker host.", e);
+        }
+        
+    }
+    
+    /**
+     * Return the Docker network over which guacd connects directly to
+     * containers.
+     * 
+     * @return
+     *     The name of the network, or null if guacd connects to ports
+     *     published on the Docker host.
+     */
+    public String getDirectNetwork() {
+        return directNetwork;
+    }
+    
+    /**
+     * Return the pool of pre-created containers used by this client.
+     * 
+     * @return
+     *     The pool of pre-created containers, or null if pooling is disabled.
+     */
+    public ContainerPool getContainerPool() {
+        return containerPool;
+    }
+    
+    /**
+     * Start a container in Docker using the specified image name, port, and
+     * command, and using the container name specified, returning the container
+     * identifier upon success, or throwing a DockerStartupException if an
+     * error occurs.
+     * 
+     * @param imageName
+     *     The name of the image to start up.
+     * 
+     * @param imagePort
+     *     The port within the image that will be opened and published by
+     *     Docker.
+     * 
+     * @param containerName
+     *     The name to give to the container.
+     * 
+     * @param imageCmd
+     *     The command to run within the container at startup, or null if
+     *     no additional/specific command should be run.
+     * 
+     * @return
+     *     The identifier of the container.
+     * 
+     * @throws DockerStartupException 
+     *     If a container with the given name already exists, or the image
+     *     does not exist.
+     */
+    public String createContainer(String imageName, int imagePort,
+            String containerName, String imageCmd) throws DockerStartupException {
+        return createContainer(new ContainerSpec(imageName, imagePort, imageCmd),
+                containerName, Collections.<String, String>emptyMap());
+    }
+    
+    /**
+     * Create a container in Docker from the given spec, using the container
+     * name specified and applying the given labels in addition to the label
+     * marking the container as managed by this extension.  If the image is
+     * not present, it is first pulled from the registry.
+     * 
+     * @param spec
+     *     The spec describing the image, port, and command of the container.
+     * 
+     * @param containerName
+     *     The name to give to the container.
+     * 
+     * @param labels
+     *     Any additional labels to apply to the container.
+     * 
+     * @return
+     *     The identifier of the container.
+     * 
+     * @throws DockerStartupException 
+     *     If a container with the given name already exists, or the image
+     *     does not exist and cannot be pulled.
+     */
+    public String createContainer(ContainerSpec spec, String containerName,
+            Map<String, String> labels) throws DockerStartupException {
+        
+        String imageName = spec.getImageName();
+        
+        // Pull outside of the container lock, as this may take minutes
+        try {
+            await(imageManager.ensureImage(imageName));
+        }
+        catch (DockerStartupException e) {
+            throw e;
+        }
+        catch (GuacamoleException e) {
+            throw new DockerStartupException(e);
+        }
+        
+        logger.debug(">>>DOCKER<<< Creating container {} from image {}",
+                containerName, imageName);
+        
+        Map<String, String> allLabels = new HashMap<>(labels);
+        allLabels.put(MANAGED_LABEL, "true");
+        if (spec.getLimits().getMemory() != null)
+            allLabels.put(MEMORY_LABEL, spec.getLimits().getMemory().toString());
+        
+        // Publish the port, unless connecting directly over a network
+        ExposedPort containerPort = ExposedPort.tcp(spec.getImagePort());
+        HostConfig hostConfig = spec.getLimits().applyTo(new HostConfig()
+                .withPublishAllPorts(false));
+        if (containerNetwork != null)
+            hostConfig.withNetworkMode(containerNetwork);
+        if (directNetwork == null) {
+            Ports portBindings = new Ports();
+            portBindings.bind(containerPort, Ports.Binding.bindPortSpec(null));
+            hostConfig.withPortBindings(portBindings);
+        }
         
-        if (!containerExists(containerId))
-            throw new DockerStartupException("Container " + containerId + " does not exist.");
+        // Create the command to start the container
+        CreateContainerCmd containerCmd = client.createContainerCmd(imageName)
+                .withName(containerName)
+                .withLabels(allLabels)
+                .withExposedPorts(containerPort)
+                .withHostConfig(hostConfig);
+        if (spec.getImageCmd() != null)
+            containerCmd.withCmd(spec.getImageCmd());
         
+        // Let Docker detect name conflicts rather than inspecting first
+        Lock lock = lockFor(containerName);
+        lock.lock();
         try {
-            client.stopContainerCmd(containerId).exec().wait();
+            String containerId = containerCmd.exec().getId();
+            invalidate(containerName);
+            invalidate(containerId);
             return containerId;
         }
-        catch (InterruptedException e) {
-            throw new DockerStartupException("Container stop interrupted.", e);
+        catch (ConflictException e) {
+            throw new DockerStartupException("Container already exists.", e);
+        }
+        catch (NotFoundException e) {
+            
+            // Either the image or the network may be missing
+            imageManager.forget(imageName);
+            throw new DockerStartupException("Unable to create container "
+                    + containerName + " from image " + imageName + ": "
+                    + e.getMessage(), e);
+            
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Rename the specified container, such that it may afterwards be found
+     * under the new name.
+     * 
+     * @param cid
+     *     The identifier or name of the container to rename.
+     * 
+     * @param newName
+     *     The new name of the container.
+     * 
+     * @throws DockerStartupException
+     *     If the container does not exist, or a container with the new name
+     *     already exists.
+     */
+    public void renameContainer(String cid, String newName)
+            throws DockerStartupException {
+        
+        logger.debug(">>>DOCKER<<< Renaming container {} to {}", cid, newName);
+        
+        Lock lock = lockFor(newName);
+        lock.lock();
+        try {
+            client.renameContainerCmd(cid).withName(newName).exec();
+        }
+        catch (ConflictException e) {
+            throw new DockerStartupException("Container " + newName + " already exists.", e);
+        }
+        catch (NotFoundException e) {
+            throw new DockerStartupException("Container " + cid + " does not exist.", e);
+        }
+        finally {
+            invalidate(cid);
+            invalidate(newName);
+            lock.unlock();
         }
         
     }
     
-    @Override
-    public void finalize() throws Throwable {
+    /**
+     * Forcibly remove the specified container, along with its anonymous
+     * volumes.  Removing a container which does not exist has no effect.
+     * 
+     * @param cid
+     *     The identifier or name of the container to remove.
+     * 
+     * @throws DockerStartupException
+     *     If the container cannot be removed.
+     */
+    public void removeContainer(String cid) throws DockerStartupException {
+        
+        logger.debug(">>>DOCKER<<< Removing container {}", cid);
+        
+        Lock lock = lockFor(cid);
+        lock.lock();
+        try {
+            client.removeContainerCmd(cid)
+                    .withForce(true)
+                    .withRemoveVolumes(true)
+                    .exec();
+            releaseQuota(cid);
+        }
+        catch (NotFoundException e) {
+            logger.debug(">>>DOCKER<<< Container {} already removed.", cid);
+            releaseQuota(cid);
+        }
+        catch (ConflictException e) {
+            throw new DockerStartupException("Container " + cid + " cannot be removed.", e);
+        }
+        finally {
+            invalidate(cid);
+            lock.unlock();
+        }
+        
+    }
+    
+    /**
+     * Star the container with the specified container identifier or name.
+     * Starting a container which is already running has no effect.
+     * 
+     * @param cid
+     *     The identifier or name of the container to start.
+     * 
+     * @throws DockerStartupException
+     *     If the container does not exist.
+     */
+    public void startContainer(String cid)
+            throws DockerStartupException {
+        
+        logger.debug(">>>DOCKER<<< Starting container {}", cid);
+        
+        Lock lock = lockFor(cid);
+        lock.lock();
+        try {
+            client.startContainerCmd(cid).exec();
+        }
+        catch (NotModifiedException e) {
+            logger.debug(">>>DOCKER<<< Container {} already started.", cid);
+        }
+        catch (NotFoundException e) {
+            throw new DockerStartupException("Container does not exist.", e);
+        }
+        finally {
+            invalidate(cid);
+            lock.unlock();
+        }
+        
+    }
+    
+    /**
+     * Pause all processes within the specified container, preserving their
+     * in-memory state while freeing their CPU.  Pausing a container which is
+     * already paused has no effect.
+     * 
+     * @param cid
+     *     The identifier or name of the container to pause.
+     * 
+     * @throws DockerStartupException
+     *     If the container does not exist or is not running.
+     */
+    public void pauseContainer(String cid) throws DockerStartupException {
+        
+        logger.debug(">>>DOCKER<<< Pausing container {}", cid);
+        
+        Lock lock = lockFor(cid);
+        lock.lock();
         try {
-            // Close the Docker client.
-            client.close();
+            if (inspectContainer(cid).isPaused()) {
+                logger.debug(">>>DOCKER<<< Container {} already paused.", cid);
+                return;
+            }
+            client.pauseContainerCmd(cid).exec();
+        }
+        catch (NotFoundException e) {
+            throw new DockerStartupException("Container " + cid + " does not exist.", e);
+        }
+        catch (ConflictException e) {
+            throw new DockerStartupException("Container " + cid + " is not running.", e);
         }
-        // Ignore any exceptions.
-        catch (IOException e) {}
+        finally {
+            invalidate(cid);
+            lock.unlock();
+        }
+        
+    }
+    
+    /**
+     * Resume all processes within the specified paused container.  Resuming
+     * a container which is not paused has no effect.
+     * 
+     * @param cid
+     *     The identifier or name of the container to resume.
+     * 
+     * @throws DockerStartupException
+     *     If the container does not exist.
+     */
+    public void unpauseContainer(String cid) throws DockerStartupException {
+        
+        logger.debug(">>>DOCKER<<< Resuming container {}", cid);
+        
+        long startTime = System.nanoTime();
+        Lock lock = lockFor(cid);
+        lock.lock();
+        try {
+            client.unpauseContainerCmd(cid).exec();
+            logger.debug(">>>DOCKER<<< Resumed container {} in {} ms.", cid,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        }
+        catch (NotFoundException e) {
+            throw new DockerStartupException("Container " + cid + " does not exist.", e);
+        }
+        catch (ConflictException e) {
+            logger.debug(">>>DOCKER<<< Container {} not paused.", cid);
+        }
+        finally {
+            invalidate(cid);
+            lock.unlock();
+        }
+        
+    }
+    
+    /**
+     * Inspect the specified container a single time, returning a snapshot of
+     * whether it exists, its state, and its published ports.  Managed
+     * containers tracked by the live index and recent results are served
+     * from memory without contacting Docker.
+     * 
+     * @param cid
+     *     The identifier or name of the container to inspect.
+     * 
+     * @return
+     *     A snapshot of the container, which will indicate that the container
+     *     does not exist if Docker does not know of it.
+     * 
+     * @throws DockerStartupException
+     *     If an error occurs inspecting the container.
+     */
+    public ContainerSnapshot inspectContainer(String cid)
+            throws DockerStartupException {
+        
+        ContainerSnapshot snapshot = (stateIndex != null) ? stateIndex.get(cid) : null;
+        if (snapshot != null) {
+            logger.debug(">>>DOCKER<<< Using indexed state of container {}.", cid);
+            return snapshot;
+        }
+        
+        snapshot = snapshotCache.get(cid);
+        if (snapshot != null) {
+            logger.debug(">>>DOCKER<<< Using cached state of container {}.", cid);
+            return snapshot;
+        }
+        
+        return reinspectContainer(cid);
+        
+    }
+    
+    /**
+     * Inspect the specified container through Docker, bypassing any state
+     * held in memory.  This must be used to read the state of a container
+     * just changed through this client, which the events stream may not yet
+     * reflect.
+     * 
+     * @param cid
+     *     The identifier or name of the container to inspect.
+     * 
+     * @return
+     *     A snapshot of the container, which will indicate that the container
+     *     does not exist if Docker does not know of it.
+     * 
+     * @throws DockerStartupException
+     *     If an error occurs inspecting the container.
+     */
+    private ContainerSnapshot reinspectContainer(String cid)
+            throws DockerStartupException {
+        
+        ContainerSnapshot snapshot;
+        logger.debug(">>>DOCKER<<< Inspecting container {}.", cid);
+        long generation = snapshotCache.getGeneration();
+        try {
+            snapshot = ContainerSnapshot.fromInspect(cid,
+                    client.inspectContainerCmd(cid).exec());
+            logger.debug(">>>DOCKER<<< Container {} in state {}", cid,
+                    snapshot.getStatus());
+        }
+        catch (NotFoundException e) {
+            logger.debug(">>>DOCKER<<< Container {} not found.", cid);
+            snapshot = ContainerSnapshot.absent(cid);
+        }
+        
+        snapshotCache.put(snapshot, generation);
+        return snapshot;
+    }
+    
+    /**
+     * Return the lock which must be held while changing the state of the
+     * container having the given name.  Containers of the same name always
+     * share a lock, while unrelated containers usually do not.
+     * 
+     * @param cid
+     *     The name of the container, or its identifier if the name is not
+     *     known.
+     * 
+     * @return
+     *     The lock guarding changes to the given container.
+     */
+    private Lock lockFor(String cid) {
+        return containerLocks[(cid.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+    
+    /**
+     * Discard any state of the given container held in memory, such that the
+     * next inspection consults Docker.  This must be invoked whenever the
+     * state of a container is changed.
+     * 
+     * @param cid
+     *     The identifier or name of the container.
+     */
+    private void invalidate(String cid) {
+        snapshotCache.invalidate(cid);
+        if (stateIndex != null)
+            stateIndex.invalidate(cid);
+    }
+    
+    /**
+     * Check wither the container exists, return true if it exists or false
+     * if not.
+     * 
+     * @param cid
+     *     The identifier or name of the container to check for existence.
+     * 
+     * @return
+     *     True if the container exists, otherwise false.
+     * 
+     * @throws DockerStartupException
+     *     If an error occurs get the Docker Client information.
+     */
+    public Boolean containerExists(String cid) throws DockerStartupException {
+        return inspectContainer(cid).exists();
+    }
+    
+    /**
+     * Check and see if the specified container is running, returning true
+     * if the container exists and is running, otherwise false.  Paused
+     * containers are not considered running.
+     * 
+     * @param cid
+     *     The identifier or name of the container.
+     * 
+     * @return
+     *     True if the container exists and is running, otherwise false.
+     * 
+     * @throws DockerStartupException 
+     *     If the Docker client cannot be retrieved.
+     */
+    public Boolean containerRunning(String cid) throws DockerStartupException {
+        return inspectContainer(cid).isRunning();
+    }
+    
+    /**
+     * Retrieve a Map containing the host address and port that are published
+     * for the container specified by the identifier.
+     * 
+     * @param containerId
+     *     The identifier of the container for which to retrieve the
+     *     connectivity information.
+     * 
+     * @return
+     *     A Map containing the hostname and port number to use to connect
+     *     to the container.
+     * 
+     * @throws DockerStartupException
+     *     If the Docker host cannot be resolved.
+     */
+    public Map<String, String> getContainerConnection(String containerId)
+            throws DockerStartupException {
+        return getContainerConnection(inspectContainer(containerId));
+    }
+    
+    /**
+     * Retrieve a Map containing the host address and port that are published
+     * for the container described by the given snapshot, without inspecting
+     * the container again.
+     * 
+     * @param snapshot
+     *     A snapshot of the container for which to retrieve the connectivity
+     *     information.
+     * 
+     * @return
+     *     A Map containing the hostname and port number to use to connect
+     *     to the container.
+     * 
+     * @throws DockerStartupException
+     *     If the Docker host cannot be resolved.
+     */
+    public Map<String, String> getContainerConnection(ContainerSnapshot snapshot)
+            throws DockerStartupException {
+        
+        Integer containerPort = null;
+        for (Integer port : snapshot.getPublishedPorts().keySet()) {
+            containerPort = port;
+            break;
+        }
+        
+        return getContainerConnection(snapshot, containerPort);
+        
+    }
+    
+    /**
+     * Retrieve a Map containing the address and port to use to connect to the
+     * given port within the container described by the given snapshot.  If
+     * connecting directly over a Docker network, this is the address of the
+     * container on that network, otherwise it is the Docker host and the
+     * published host port.
+     * 
+     * @param snapshot
+     *     A snapshot of the container for which to retrieve the connectivity
+     *     information.
+     * 
+     * @param containerPort
+     *     The TCP port within the container to connect to, or null to use
+     *     the first published port.
+     * 
+     * @return
+     *     A Map containing the hostname and port number to use to connect
+     *     to the container.
+     * 
+     * @throws DockerStartupException
+     *     If the Docker host has never been resolved and cannot be resolved
+     *     now, or the container has no address on the configured network.
+     */
+    public Map<String, String> getContainerConnection(ContainerSnapshot snapshot,
+            Integer containerPort) throws DockerStartupException {
+        
+        logger.debug(">>>DOCKER<<< Retrieving parameters for container {}", snapshot.getName());
+        
+        String network = directNetwork;
+        if (network != null && containerPort != null) {
+            
+            String address = snapshot.getNetworkAddresses().get(network);
+            if (address == null)
+                throw new DockerStartupException("Container " + snapshot.getName()
+                        + " has no address on network " + network + ".");
+            
+            logger.debug(">>>DOCKER<<< Connecting directly to {}:{}", address, containerPort);
+            Map<String, String> connectionParameters = new HashMap<>();
+            connectionParameters.put("hostname", address);
+            connectionParameters.put("port", containerPort.toString());
+            return connectionParameters;
+            
+        }
+        
+        Map<String, String> connectionParameters = new HashMap<>();
+        ProvisioningTrace trace = ProvisioningTrace.begin(Phase.HOST_RESOLUTION,
+                snapshot.getName(), snapshot.getImage(),
+                config.getDockerHost().toString());
+        String hostAddress;
+        try {
+            hostAddress = hostResolver.resolve();
+        }
+        catch (DockerStartupException | RuntimeException e) {
+            trace.end(false);
+            throw e;
+        }
+        trace.end(true);
+        
+        logger.debug(">>>DOCKER<<< Adding hostname parameter: {}", hostAddress);
+        connectionParameters.put("hostname", hostAddress);
+        String hostPort = (containerPort != null)
+                ? snapshot.getPublishedPorts().get(containerPort) : null;
+        if (hostPort != null) {
+            logger.debug(">>>DOCKER<<< Adding port parameter: {}", hostPort);
+            connectionParameters.put("port", hostPort);
+        }
+        
+        return connectionParameters;
+        
+    }
+    
+    /**
+     * Stop the container specified by the identifier, and return the
+     * identifier upon stop.
+     * 
+     * @param containerId
+     *     The identifier of the container to stop.
+     * 
+     * @return
+     *     The identifier of the container that was stopped.
+     * 
+     * @throws DockerStartupException 
+     *     If the container does not exist.
+     */
+    public String stopContainer(String containerId)
+            throws DockerStartupException {
+        
+        logger.debug(">>>DOCKER<<< Stopping container {}", containerId);
+        
+        Lock lock = lockFor(containerId);
+        lock.lock();
+        try {
+            client.stopContainerCmd(containerId).exec();
+            releaseQuota(containerId);
+        }
+        catch (NotModifiedException e) {
+            logger.debug(">>>DOCKER<<< Container {} already stopped.", containerId);
+            releaseQuota(containerId);
+        }
+        catch (NotFoundException e) {
+            releaseQuota(containerId);
+            throw new DockerStartupException("Container " + containerId + " does not exist.", e);
+        }
+        finally {
+            invalidate(containerId);
+            lock.unlock();
+        }
+        
+        return containerId;
+        
+    }
+    
+    /**
+     * Run the given operation on the asynchronous executor, returning a
+     * future which completes with its result.  If the operation fails, the
+     * future completes exceptionally with the DockerStartupException thrown.
+     * If too many operations are already pending, or the Docker host is not
+     * responding, the returned future fails immediately, and if the call
+     * timeout passes once the operation has begun, the future fails without
+     * waiting further.  Only the host not responding counts against it;
+     * operations refused or delayed for want of a local thread do not.  The
+     * time until the future completes, including any wait for a thread, is
+     * recorded under the given operation name.
+     * 
+     * @param <T>
+     *     The type of value produced by the operation.
+     * 
+     * @param operationName
+     *     The name under which the duration of the operation is recorded.
+     * 
+     * @param operation
+     *     The operation to run.
+     * 
+     * @return
+     *     A future which completes with the result of the operation.
+     */
+    private <T> CompletableFuture<T> runAsync(String operationName,
+            DockerOperation<T> operation) {
+        
+        CompletableFuture<T> future = new CompletableFuture<>();
+        
+        LatencyTimer timer = operationTimer(operationName);
+        if (timer != null) {
+            long startTime = System.nanoTime();
+            future.whenComplete((result, error) ->
+                    timer.recordSince(startTime, error != null));
+        }
+        
+        // Fail fast while the Docker host is known not to be responding
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && !breaker.allowRequest()) {
+            future.completeExceptionally(new DockerStartupException(
+                    "Docker host " + config.getDockerHost()
+                    + " is not responding. Please try again later."));
+            return future;
+        }
+        
+        try {
+            asyncExecutor.execute(() -> {
+                
+                // Time spent queued for a thread is not the host's doing
+                if (timeoutExecutor != null)
+                    scheduleTimeout(future, breaker);
+                
+                try {
+                    T result = operation.run();
+                    recordOutcome(breaker, null);
+                    future.complete(result);
+                }
+                catch (DockerStartupException | RuntimeException e) {
+                    recordOutcome(breaker, e);
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            if (breaker != null)
+                breaker.recordAbandoned();
+            future.completeExceptionally(new DockerStartupException(
+                    "Too many pending Docker operations.", e));
+        }
+        
+        return future;
+        
+    }
+    
+    /**
+     * Fail the given future if it has not completed within the call timeout,
+     * recording the timeout as a failure of the Docker host.  The operation
+     * itself is left to finish in the background.
+     * 
+     * @param future
+     *     The future of the operation to time out.
+     * 
+     * @param breaker
+     *     The circuit breaker in effect when the operation was started, or
+     *     null if none.
+     */
+    private void scheduleTimeout(CompletableFuture<?> future,
+            CircuitBreaker breaker) {
+        
+        ScheduledFuture<?> timeout;
+        try {
+            timeout = timeoutExecutor.schedule(() -> {
+                if (future.completeExceptionally(new DockerStartupException(
+                        "Docker host " + config.getDockerHost()
+                        + " did not respond within "
+                        + TimeUnit.MILLISECONDS.toSeconds(callTimeout)
+                        + " seconds.")) && breaker != null)
+                    breaker.recordFailure();
+            }, callTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            logger.debug("Ignoring timeout of operation after close.", e);
+            return;
+        }
+        
+        future.whenComplete((result, error) -> timeout.cancel(false));
+        
+    }
+    
+    /**
+     * Record the outcome of an operation with the given circuit breaker.
+     * Errors reported by Docker itself show that the host is responding,
+     * and count as successes.
+     * 
+     * @param breaker
+     *     The circuit breaker to inform, or null if none.
+     * 
+     * @param error
+     *     The error with which the operation failed, or null if it
+     *     succeeded.
+     */
+    private static void recordOutcome(CircuitBreaker breaker, Throwable error) {
+        
+        if (breaker == null)
+            return;
+        
+        if (error != null && isUnresponsive(error))
+            breaker.recordFailure();
+        else
+            breaker.recordSuccess();
+        
+    }
+    
+    /**
+     * Return whether the given error shows that the Docker host could not be
+     * reached or did not respond, as opposed to having refused the request.
+     * 
+     * @param error
+     *     The error with which an operation failed.
+     * 
+     * @return
+     *     True if the Docker host did not respond, otherwise false.
+     */
+    private static boolean isUnresponsive(Throwable error) {
+        
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DockerException)
+                return false;
+            if (cause instanceof ProcessingException
+                    || cause instanceof IOException)
+                return true;
+        }
+        
+        return false;
+        
+    }
+    
+    /**
+     * Asynchronous variant of createContainer().
+     * 
+     * @param imageName
+     *     The name of the image to start up.
+     * 
+     * @param imagePort
+     *     The port within the image that will be opened and published by
+     *     Docker.
+     * 
+     * @param containerName
+     *     The name to give to the container.
+     * 
+     * @param imageCmd
+     *     The command to run within the container at startup, or null if
+     *     no additional/specific command should be run.
+     * 
+     * @return
+     *     A future which completes with the identifier of the container.
+     */
+    public CompletableFuture<String> createContainerAsync(String imageName,
+            int imagePort, String containerName, String imageCmd) {
+        return runAsync("create", () -> createContainer(imageName, imagePort,
+                containerName, imageCmd));
+    }
+    
+    /**
+     * Asynchronous variant of createNetwork().
+     * 
+     * @param name
+     *     The name of the network.
+     * 
+     * @param driver
+     *     The network driver, such as "bridge" or "macvlan".
+     * 
+     * @param options
+     *     Any driver-specific options, such as the MTU of the network.
+     * 
+     * @return
+     *     A future which completes with true if the network was created, or
+     *     false if it already existed.
+     */
+    public CompletableFuture<Boolean> createNetworkAsync(String name,
+            String driver, Map<String, String> options) {
+        return runAsync("create-network", () -> createNetwork(name, driver, options));
+    }
+    
+    /**
+     * Asynchronous variant of listManagedContainers().
+     * 
+     * @return
+     *     A future which completes with the managed containers.
+     */
+    public CompletableFuture<List<Container>> listManagedContainersAsync() {
+        return runAsync("list", this::listManagedContainers);
+    }
+    
+    /**
+     * Asynchronous variant of getMemoryTotal().
+     * 
+     * @return
+     *     A future which completes with the total memory of the host in
+     *     bytes, or zero if not reported.
+     */
+    public CompletableFuture<Long> getMemoryTotalAsync() {
+        return runAsync("info", this::getMemoryTotal);
+    }
+    
+    /**
+     * Asynchronous variant of startContainer().
+     * 
+     * @param cid
+     *     The identifier or name of the container to start.
+     * 
+     * @return
+     *     A future which completes once the container has started.
+     */
+    public CompletableFuture<Void> startContainerAsync(String cid) {
+        return runAsync("start", () -> {
+            startContainer(cid);
+            return null;
+        });
+    }
+    
+    /**
+     * Asynchronous variant of pauseContainer().
+     * 
+     * @param cid
+     *     The identifier or name of the container to pause.
+     * 
+     * @return
+     *     A future which completes once the container has been paused.
+     */
+    public CompletableFuture<Void> pauseContainerAsync(String cid) {
+        return runAsync("pause", () -> {
+            pauseContainer(cid);
+            return null;
+        });
+    }
+    
+    /**
+     * Asynchronous variant of unpauseContainer().
+     * 
+     * @param cid
+     *     The identifier or name of the container to resume.
+     * 
+     * @return
+     *     A future which completes once the container has been resumed.
+     */
+    public CompletableFuture<Void> unpauseContainerAsync(String cid) {
+        return runAsync("unpause", () -> {
+            unpauseContainer(cid);
+            return null;
+        });
+    }
+    
+    /**
+     * Asynchronous variant of inspectContainer().  Snapshots which can be
+     * served from memory are returned as an already-completed future.
+     * 
+     * @param cid
+     *     The identifier or name of the container to inspect.
+     * 
+     * @return
+     *     A future which completes with a snapshot of the container.
+     */
+    public CompletableFuture<ContainerSnapshot> inspectContainerAsync(String cid) {
+        
+        ContainerSnapshot snapshot = (stateIndex != null) ? stateIndex.get(cid) : null;
+        if (snapshot == null)
+            snapshot = snapshotCache.get(cid);
+        if (snapshot != null)
+            return CompletableFuture.completedFuture(snapshot);
+        
+        return runAsync("inspect", () -> inspectContainer(cid));
+        
+    }
+    
+    /**
+     * Asynchronous variant of reinspectContainer(), always consulting Docker.
+     * 
+     * @param cid
+     *     The identifier or name of the container to inspect.
+     * 
+     * @return
+     *     A future which completes with a snapshot of the container.
+     */
+    private CompletableFuture<ContainerSnapshot> reinspectContainerAsync(String cid) {
+        return runAsync("inspect", () -> reinspectContainer(cid));
+    }
+    
+    /**
+     * Asynchronous variant of getContainerConnection().
+     * 
+     * @param snapshot
+     *     A snapshot of the container for which to retrieve the connectivity
+     *     information.
+     * 
+     * @return
+     *     A future which completes with a Map containing the hostname and
+     *     port number to use to connect to the container.
+     */
+    public CompletableFuture<Map<String, String>> getContainerConnectionAsync(
+            ContainerSnapshot snapshot) {
+        return runAsync("port-lookup", () -> getContainerConnection(snapshot));
+    }
+    
+    /**
+     * Asynchronous variant of getContainerConnection(), connecting to the
+     * given port within the container.
+     * 
+     * @param snapshot
+     *     A snapshot of the container for which to retrieve the connectivity
+     *     information.
+     * 
+     * @param containerPort
+     *     The TCP port within the container to connect to.
+     * 
+     * @return
+     *     A future which completes with a Map containing the hostname and
+     *     port number to use to connect to the container.
+     */
+    public CompletableFuture<Map<String, String>> getContainerConnectionAsync(
+            ContainerSnapshot snapshot, int containerPort) {
+        return runAsync("port-lookup",
+                () -> getContainerConnection(snapshot, containerPort));
+    }
+    
+    /**
+     * Wait for the container located by the given connection parameters to
+     * accept connections, if readiness is being probed.
+     * 
+     * @param parameters
+     *     The connection parameters of the container, as returned by
+     *     getContainerConnection().
+     * 
+     * @param imageName
+     *     The image of the container, under which readiness timings are
+     *     recorded.
+     * 
+     * @return
+     *     A future which completes with the given parameters once the
+     *     container accepts connections.
+     */
+    public CompletableFuture<Map<String, String>> awaitReadyAsync(
+            Map<String, String> parameters, String imageName) {
+        
+        ReadinessProbe probe = readinessProbe;
+        String host = parameters.get("hostname");
+        String port = parameters.get("port");
+        if (probe == null || host == null || port == null)
+            return CompletableFuture.completedFuture(parameters);
+        
+        return probe.awaitReady(host, Integer.parseInt(port), imageName)
+                .thenApply(ready -> parameters);
+        
+    }
+    
+    /**
+     * Ensure that the container having the given name exists and is running,
+     * creating, starting, or resuming it as needed.  If the same container is already
+     * being provisioned, the operation in progress is shared rather than a
+     * second one being started.
+     * 
+     * @param imageName
+     *     The name of the image to create the container from, if it does not
+     *     exist.
+     * 
+     * @param imagePort
+     *     The port within the image that will be opened and published by
+     *     Docker.
+     * 
+     * @param containerName
+     *     The name of the container.
+     * 
+     * @param imageCmd
+     *     The command to run within the container at startup, or null if
+     *     no additional/specific command should be run.
+     * 
+     * @return
+     *     A future which completes with a snapshot of the running container.
+     */
+    public CompletableFuture<ContainerSnapshot> provisionContainerAsync(
+            String imageName, int imagePort, String containerName,
+            String imageCmd) {
+        return provisionContainerAsync(new ContainerSpec(imageName, imagePort,
+                imageCmd), containerName);
+    }
+    
+    /**
+     * Ensure that the container having the given name exists and is running,
+     * creating it from the given spec, starting, or resuming it as needed.
+     * If the same container is already being provisioned, the operation in
+     * progress is shared rather than a second one being started.  The time
+     * taken is recorded by image and by host, once for each operation
+     * started.
+     * 
+     * @param spec
+     *     The spec from which to create the container, if it does not exist.
+     * 
+     * @param containerName
+     *     The name of the container.
+     * 
+     * @return
+     *     A future which completes with a snapshot of the running container.
+     */
+    public CompletableFuture<ContainerSnapshot> provisionContainerAsync(
+            ContainerSpec spec, String containerName) {
+        
+        CompletableFuture<ContainerSnapshot> promise = new CompletableFuture<>();
+        CompletableFuture<ContainerSnapshot> inProgress =
+                provisioning.putIfAbsent(containerName, promise);
+        if (inProgress != null) {
+            logger.debug(">>>DOCKER<<< Joining provisioning of container {}.", containerName);
+            return inProgress;
+        }
+        
+        DockerMetrics current = metrics;
+        if (current != null) {
+            long startTime = System.nanoTime();
+            promise.whenComplete((snapshot, error) -> {
+                long elapsed = System.nanoTime() - startTime;
+                boolean failed = (error != null);
+                current.timer(DockerMetrics.PROVISION_BY_IMAGE,
+                        "image", spec.getImageName()).record(elapsed, failed);
+                current.timer(DockerMetrics.PROVISION_BY_HOST,
+                        "host", config.getDockerHost().toString()).record(elapsed, failed);
+            });
+        }
+        
+        // A container being reaped must not be found running and then stop
+        ContainerReaper reaper = containerReaper;
+        CompletableFuture<Void> reaped = (reaper != null)
+                ? reaper.awaitReaped(containerName)
+                : CompletableFuture.completedFuture(null);
+        
+        reaped.thenCompose(idle -> trace(Phase.EXISTENCE_CHECK, spec, containerName,
+                () -> inspectContainerAsync(containerName)))
+                .thenCompose(snapshot -> {
+                    
+                    if (snapshot.isRunning())
+                        return CompletableFuture.completedFuture(snapshot);
+                    
+                    // Suspended containers resume with their state intact
+                    if (snapshot.isPaused())
+                        return trace(Phase.UNPAUSE, spec, containerName,
+                                () -> unpauseContainerAsync(containerName))
+                                .thenCompose(resumed -> trace(Phase.INSPECT, spec,
+                                        containerName, () -> reinspectContainerAsync(containerName)));
+                    
+                    // Ensure the image first, such that no pull holds a start
+                    CompletableFuture<Void> present = snapshot.exists()
+                            ? CompletableFuture.completedFuture(null)
+                            : trace(Phase.IMAGE_PULL, spec, containerName,
+                                    () -> imageManager.ensureImage(spec.getImageName()));
+                    
+                    return present.thenCompose(ready -> admit(() -> {
+                        
+                        CompletableFuture<String> created = snapshot.exists()
+                                ? CompletableFuture.completedFuture(containerName)
+                                : trace(Phase.CREATE, spec, containerName,
+                                        () -> claimOrCreateAsync(spec, containerName));
+                        
+                        // Ports are only assigned once started, so ask Docker again
+                        return created
+                                .thenCompose(id -> trace(Phase.START, spec, containerName,
+                                        () -> startContainerAsync(containerName)))
+                                .thenCompose(started -> trace(Phase.INSPECT, spec,
+                                        containerName, () -> reinspectContainerAsync(containerName)));
+                        
+                    }));
+                    
+                })
+                .whenComplete((snapshot, error) -> {
+                    
+                    // Later requests must provision afresh
+                    provisioning.remove(containerName, promise);
+                    
+                    if (error != null)
+                        promise.completeExceptionally(error);
+                    else
+                        promise.complete(snapshot);
+                    
+                });
+        
+        return promise;
+        
+    }
+    
+    /**
+     * Time the given phase of provisioning the given container as a Flight
+     * Recorder event.
+     * 
+     * @param <T>
+     *     The type of value produced by the phase.
+     * 
+     * @param phase
+     *     The phase performed.
+     * 
+     * @param spec
+     *     The spec of the container being provisioned.
+     * 
+     * @param containerName
+     *     The name of the container being provisioned.
+     * 
+     * @param operation
+     *     Starts the phase, returning a future which completes once the
+     *     phase is done.
+     * 
+     * @return
+     *     The future returned by the operation.
+     */
+    private <T> CompletableFuture<T> trace(Phase phase, ContainerSpec spec,
+            String containerName, Supplier<CompletableFuture<T>> operation) {
+        return ProvisioningTrace.trace(phase, containerName, spec.getImageName(),
+                config.getDockerHost().toString(), operation);
+    }
+    
+    /**
+     * Run the given container start once admitted by the admission
+     * controller, if starts are limited, or immediately otherwise.
+     * 
+     * @param <T>
+     *     The type of value produced by the start.
+     * 
+     * @param start
+     *     The start to run, returning a future which completes once the
+     *     start is finished.
+     * 
+     * @return
+     *     A future which completes with the result of the start.
+     */
+    private <T> CompletableFuture<T> admit(Supplier<CompletableFuture<T>> start) {
+        AdmissionController controller = admissionController;
+        return (controller != null) ? controller.admit(start) : start.get();
+    }
+    
+    /**
+     * Claim a pooled container of the given spec under the given name, or
+     * create a new container if none is available.  The image must already
+     * be present.
+     * 
+     * @param spec
+     *     The spec of the container required.
+     * 
+     * @param containerName
+     *     The name to give to the container.
+     * 
+     * @return
+     *     A future which completes with the identifier of the container.
+     */
+    private CompletableFuture<String> claimOrCreateAsync(ContainerSpec spec,
+            String containerName) {
+        
+        DockerOperation<String> claimOrCreate = () -> {
+            
+            ContainerPool pool = containerPool;
+            String id = (pool != null) ? pool.claim(spec, containerName) : null;
+            if (id != null)
+                return id;
+            
+            return createContainer(spec, containerName,
+                    Collections.<String, String>emptyMap());
+            
+        };
+        
+        return runAsync("create", claimOrCreate);
+        
+    }
+    
+    /**
+     * Asynchronous variant of stopContainer().
+     * 
+     * @param containerId
+     *     The identifier of the container to stop.
+     * 
+     * @return
+     *     A future which completes with the identifier of the container that
+     *     was stopped.
+     */
+    public CompletableFuture<String> stopContainerAsync(String containerId) {
+        return runAsync("stop", () -> stopContainer(containerId));
+    }
+    
+    /**
+     * Stop, or pause, the given idle container, unless it is found to be in
+     * use once its lock is held.  The check and the stop are made under the
+     * same lock as every other change to the container.
+     * 
+     * @param containerName
+     *     The name of the container to reap.
+     * 
+     * @param suspend
+     *     Whether the container should be paused rather than stopped.
+     * 
+     * @param stillIdle
+     *     Checks, under the lock of the container, whether the container is
+     *     still idle.
+     * 
+     * @return
+     *     A future which completes with true if the container was stopped or
+     *     paused, or false if it was found to be in use.
+     */
+    public CompletableFuture<Boolean> reapContainerAsync(String containerName,
+            boolean suspend, BooleanSupplier stillIdle) {
+        return runAsync(suspend ? "pause" : "stop", () -> {
+            
+            Lock lock = lockFor(containerName);
+            lock.lock();
+            try {
+                
+                if (!stillIdle.getAsBoolean())
+                    return false;
+                
+                if (suspend)
+                    pauseContainer(containerName);
+                else
+                    stopContainer(containerName);
+                
+                return true;
+                
+            }
+            finally {
+                lock.unlock();
+            }
+            
+        });
+    }
+    
+    /**
+     * Wait for the given future to complete, returning its result.  If the
+     * future failed with a GuacamoleException, that exception is rethrown
+     * as-is.
+     * 
+     * @param <T>
+     *     The type of value produced by the future.
+     * 
+     * @param future
+     *     The future to wait for.
+     * 
+     * @return
+     *     The result of the future.
+     * 
+     * @throws GuacamoleException
+     *     If the future failed or the wait was interrupted.
+     */
+    public static <T> T await(CompletableFuture<T> future)
+            throws GuacamoleException {
+        
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DockerStartupException("Interrupted waiting for Docker.", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof GuacamoleException)
+                throw (GuacamoleException) cause;
+            throw new DockerStartupException(cause);
+        }
+        
+    }
+    
+    /**
+     * Close the underlying Docker client, releasing all pooled connections to
+     * the Docker host and stopping idle connection eviction.
+     * 
+     * @throws IOException
+     *     If an error occurs closing the Docker client.
+     */
+    @Override
+    public void close() throws IOException {
+        
+        logger.debug(">>>DOCKER<<< Closing Docker client.");
+        
+        if (evictionExecutor != null)
+            evictionExecutor.shutdownNow();
+        
+        if (containerPool != null)
+            containerPool.close();
+        
+        if (readinessProbe != null)
+            readinessProbe.close();
+        
+        if (containerReaper != null)
+            containerReaper.close();
+        
+        if (admissionController != null)
+            admissionController.close();
+        
+        if (timeoutExecutor != null)
+            timeoutExecutor.shutdownNow();
+        
+        imageManager.close();
+        
+        if (stateIndex != null)
+            stateIndex.close();
+        
+        asyncExecutor.shutdownNow();
         
-        super.finalize();
+        client.close();
         
     }
     
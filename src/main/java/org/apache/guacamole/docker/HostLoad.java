@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+/**
+ * The load on a single Docker host, as last observed, used to decide where
+ * new containers are placed.  Instances are immutable; placing a container
+ * produces a new instance reflecting the additional load.
+ */
+public class HostLoad {
+
+    /**
+     * The client connected to the host.
+     */
+    private final DockerStartupClient client;
+
+    /**
+     * Whether or not the host responded when its load was last refreshed.
+     */
+    private final boolean reachable;
+
+    /**
+     * The number of running or paused managed containers on the host.
+     */
+    private final int containers;
+
+    /**
+     * The total memory of the host, in bytes.
+     */
+    private final long memoryTotal;
+
+    /**
+     * The sum of the memory limits of the running or paused managed
+     * containers on the host, in bytes.
+     */
+    private final long memoryCommitted;
+
+    /**
+     * Create a new record of the load on a host.
+     *
+     * @param client
+     *     The client connected to the host.
+     *
+     * @param reachable
+     *     Whether or not the host responded when its load was refreshed.
+     *
+     * @param containers
+     *     The number of running or paused managed containers on the host.
+     *
+     * @param memoryTotal
+     *     The total memory of the host, in bytes.
+     *
+     * @param memoryCommitted
+     *     The sum of the memory limits of the running or paused managed
+     *     containers on the host, in bytes.
+     */
+    public HostLoad(DockerStartupClient client, boolean reachable,
+            int containers, long memoryTotal, long memoryCommitted) {
+        this.client = client;
+        this.reachable = reachable;
+        this.containers = containers;
+        this.memoryTotal = memoryTotal;
+        this.memoryCommitted = memoryCommitted;
+    }
+
+    /**
+     * Return a record of a host whose load is not yet known, or which did
+     * not respond.
+     *
+     * @param client
+     *     The client connected to the host.
+     *
+     * @return
+     *     A record of an unreachable host with no load.
+     */
+    public static HostLoad unknown(DockerStartupClient client) {
+        return new HostLoad(client, false, 0, 0, 0);
+    }
+
+    /**
+     * Return the load of this host after placing one more container with
+     * the given memory limit.
+     *
+     * @param memory
+     *     The memory limit of the placed container in bytes, or null if it
+     *     has none.
+     *
+     * @return
+     *     The load of this host including the placed container.
+     */
+    public HostLoad withContainer(Long memory) {
+        return new HostLoad(client, reachable, containers + 1, memoryTotal,
+                memoryCommitted + (memory != null ? memory : 0));
+    }
+
+    /**
+     * Return the client connected to this host.
+     *
+     * @return
+     *     The client connected to this host.
+     */
+    public DockerStartupClient getClient() {
+        return client;
+    }
+
+    /**
+     * Return an identifier for this host, unique within the configured
+     * hosts.
+     *
+     * @return
+     *     The URI of the Docker host.
+     */
+    public String getHostId() {
+        return client.getConfig().getDockerHost().toString();
+    }
+
+    /**
+     * Return whether the host responded when its load was last refreshed.
+     *
+     * @return
+     *     True if the host is reachable, otherwise false.
+     */
+    public boolean isReachable() {
+        return reachable;
+    }
+
+    /**
+     * Return the number of running or paused managed containers on the
+     * host.
+     *
+     * @return
+     *     The number of containers on the host.
+     */
+    public int getContainers() {
+        return containers;
+    }
+
+    /**
+     * Return the total memory of the host.
+     *
+     * @return
+     *     The total memory of the host in bytes.
+     */
+    public long getMemoryTotal() {
+        return memoryTotal;
+    }
+
+    /**
+     * Return the memory of the host not committed to managed containers.
+     * Containers without a memory limit are not counted, so this is an
+     * upper bound.
+     *
+     * @return
+     *     The uncommitted memory of the host in bytes, which may be
+     *     negative if the host is overcommitted.
+     */
+    public long getFreeMemory() {
+        return memoryTotal - memoryCommitted;
+    }
+
+    @Override
+    public String toString() {
+        return getHostId() + (reachable ? "" : " (unreachable)")
+                + " containers=" + containers
+                + " free=" + getFreeMemory() + "/" + memoryTotal;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.function.Supplier;
+
+/**
+ * The state of a single Docker host, read from its client and from the load
+ * table of the cluster each time it is requested.  Values of components which
+ * are not enabled are reported as zero.
+ */
+public class HostStats implements HostStatsMXBean {
+
+    /**
+     * The client of the host.
+     */
+    private final DockerStartupClient client;
+
+    /**
+     * Supplies the last observed load of the host.
+     */
+    private final Supplier<HostLoad> load;
+
+    /**
+     * Create a new view of the state of the host of the given client.
+     *
+     * @param client
+     *     The client of the host.
+     *
+     * @param load
+     *     Supplies the last observed load of the host.
+     */
+    public HostStats(DockerStartupClient client, Supplier<HostLoad> load) {
+        this.client = client;
+        this.load = load;
+    }
+
+    @Override
+    public String getHost() {
+        return client.getConfig().getDockerHost().toString();
+    }
+
+    @Override
+    public String getCircuitState() {
+        CircuitBreaker breaker = client.getCircuitBreaker();
+        return (breaker != null) ? breaker.getState().name() : "DISABLED";
+    }
+
+    @Override
+    public long getCallsRefused() {
+        CircuitBreaker breaker = client.getCircuitBreaker();
+        return (breaker != null) ? breaker.getRefusedCount() : 0;
+    }
+
+    @Override
+    public int getContainers() {
+        return load.get().getContainers();
+    }
+
+    @Override
+    public long getFreeMemory() {
+        return load.get().getFreeMemory();
+    }
+
+    @Override
+    public int getStartsInFlight() {
+        AdmissionController controller = client.getAdmissionController();
+        return (controller != null) ? controller.getInFlight() : 0;
+    }
+
+    @Override
+    public int getStartQueueDepth() {
+        AdmissionController controller = client.getAdmissionController();
+        return (controller != null) ? controller.getQueueDepth() : 0;
+    }
+
+    @Override
+    public long getStartsRejected() {
+        AdmissionController controller = client.getAdmissionController();
+        return (controller != null) ? controller.getRejectedCount() : 0;
+    }
+
+    @Override
+    public long getAverageStartWait() {
+        AdmissionController controller = client.getAdmissionController();
+        return (controller != null) ? controller.getAverageWait() : 0;
+    }
+
+    @Override
+    public long getMaxStartWait() {
+        AdmissionController controller = client.getAdmissionController();
+        return (controller != null) ? controller.getMaxWait() : 0;
+    }
+
+}
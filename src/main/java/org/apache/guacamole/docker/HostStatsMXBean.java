@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+/**
+ * The state of a single Docker host, exported through JMX.  Durations are in
+ * milliseconds.
+ */
+public interface HostStatsMXBean {
+
+    /**
+     * Return the URI of the Docker host.
+     *
+     * @return
+     *     The URI of the Docker host.
+     */
+    String getHost();
+
+    /**
+     * Return the state of the circuit breaker of the host.
+     *
+     * @return
+     *     "CLOSED", "OPEN", or "HALF_OPEN", or "DISABLED" if calls to the
+     *     host are always attempted.
+     */
+    String getCircuitState();
+
+    /**
+     * Return the number of calls refused because the host was not
+     * responding.
+     *
+     * @return
+     *     The number of calls refused.
+     */
+    long getCallsRefused();
+
+    /**
+     * Return the number of running or paused managed containers on the host
+     * as of the last refresh of its load.
+     *
+     * @return
+     *     The number of containers on the host.
+     */
+    int getContainers();
+
+    /**
+     * Return the memory of the host not committed to managed containers as
+     * of the last refresh of its load.
+     *
+     * @return
+     *     The uncommitted memory of the host in bytes.
+     */
+    long getFreeMemory();
+
+    /**
+     * Return the number of container starts currently in progress.
+     *
+     * @return
+     *     The number of starts in progress.
+     */
+    int getStartsInFlight();
+
+    /**
+     * Return the number of container starts waiting to be admitted.
+     *
+     * @return
+     *     The number of starts queued.
+     */
+    int getStartQueueDepth();
+
+    /**
+     * Return the number of container starts refused because the queue was
+     * full or the wait timed out.
+     *
+     * @return
+     *     The number of starts refused.
+     */
+    long getStartsRejected();
+
+    /**
+     * Return the average time spent queued by starts which had to wait.
+     *
+     * @return
+     *     The average wait in milliseconds.
+     */
+    long getAverageStartWait();
+
+    /**
+     * Return the longest time any start spent queued.
+     *
+     * @return
+     *     The longest wait in milliseconds.
+     */
+    long getMaxStartWait();
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.PullImageCmd;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.AuthConfig;
+import com.github.dockerjava.core.command.PullImageResultCallback;
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ensures that images are present on the Docker host before containers are
+ * created from them, pulling missing images from the configured registry.
+ * Concurrent requests for the same image share a single pull, and images
+ * known to be present are not checked again.
+ */
+public class ImageManager implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ImageManager.class);
+
+    /**
+     * The maximum number of images which may be checked or pulled at once.
+     */
+    private static final int PULL_THREADS = 4;
+
+    /**
+     * The tag pulled for images which do not specify one.
+     */
+    private static final String DEFAULT_TAG = "latest";
+
+    /**
+     * The Docker client used to inspect and pull images.
+     */
+    private final DockerClient client;
+
+    /**
+     * The credentials used to authenticate with the registry, or null if
+     * images are pulled anonymously.
+     */
+    private final AuthConfig authConfig;
+
+    /**
+     * The normalized references of all images known to be present on the
+     * Docker host.
+     */
+    private final Set<String> present = ConcurrentHashMap.newKeySet();
+
+    /**
+     * All image checks and pulls currently in progress, keyed by normalized
+     * image reference.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Void>> pulling =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The executor on which images are checked and pulled, kept apart from
+     * other Docker operations as pulls may take minutes.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Create a new image manager which pulls images using the given client
+     * and registry credentials.
+     *
+     * @param client
+     *     The Docker client to use to inspect and pull images.
+     *
+     * @param authConfig
+     *     The credentials to use to authenticate with the registry, or null
+     *     to pull images anonymously.
+     */
+    public ImageManager(DockerClient client, AuthConfig authConfig) {
+        this.client = client;
+        this.authConfig = authConfig;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(PULL_THREADS, runnable -> {
+            Thread thread = new Thread(runnable,
+                    "docker-startup-pull-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Return the repository portion of the given image reference, without
+     * any tag or digest.
+     *
+     * @param imageName
+     *     The image reference, such as "registry:5000/desktop:1.0".
+     *
+     * @return
+     *     The repository of the image, such as "registry:5000/desktop".
+     */
+    static String repositoryOf(String imageName) {
+
+        int digest = imageName.indexOf('@');
+        if (digest >= 0)
+            return imageName.substring(0, digest);
+
+        // A colon before the last slash belongs to a registry port
+        int colon = imageName.lastIndexOf(':');
+        if (colon > imageName.lastIndexOf('/'))
+            return imageName.substring(0, colon);
+
+        return imageName;
+
+    }
+
+    /**
+     * Return the tag or digest portion of the given image reference.
+     *
+     * @param imageName
+     *     The image reference, such as "registry:5000/desktop:1.0".
+     *
+     * @return
+     *     The tag or digest of the image, or "latest" if none is given.
+     */
+    static String tagOf(String imageName) {
+
+        int digest = imageName.indexOf('@');
+        if (digest >= 0)
+            return imageName.substring(digest + 1);
+
+        int colon = imageName.lastIndexOf(':');
+        if (colon > imageName.lastIndexOf('/'))
+            return imageName.substring(colon + 1);
+
+        return DEFAULT_TAG;
+
+    }
+
+    /**
+     * Return the normalized form of the given image reference, such that
+     * references to the same image share a key.
+     *
+     * @param imageName
+     *     The image reference.
+     *
+     * @return
+     *     The normalized image reference.
+     */
+    private static String keyOf(String imageName) {
+        String separator = imageName.indexOf('@') >= 0 ? "@" : ":";
+        return repositoryOf(imageName) + separator + tagOf(imageName);
+    }
+
+    /**
+     * Ensure that the given image is present on the Docker host, pulling it
+     * if necessary.  If the image is already being pulled, the pull in
+     * progress is shared.
+     *
+     * @param imageName
+     *     The image reference.
+     *
+     * @return
+     *     A future which completes once the image is present.
+     */
+    public CompletableFuture<Void> ensureImage(String imageName) {
+
+        String key = keyOf(imageName);
+        if (present.contains(key))
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        CompletableFuture<Void> inProgress = pulling.putIfAbsent(key, promise);
+        if (inProgress != null) {
+            logger.debug(">>>DOCKER<<< Joining pull of image {}.", imageName);
+            return inProgress;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    ensureImageNow(imageName);
+                    present.add(key);
+                    pulling.remove(key, promise);
+                    promise.complete(null);
+                }
+                catch (DockerStartupException | RuntimeException e) {
+                    pulling.remove(key, promise);
+                    promise.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            pulling.remove(key, promise);
+            promise.completeExceptionally(new DockerStartupException(
+                    "Image manager has been closed.", e));
+        }
+
+        return promise;
+
+    }
+
+    /**
+     * Forget that the given image is present, such that it is checked again
+     * the next time it is needed.  This must be invoked if Docker reports the
+     * image as missing.
+     *
+     * @param imageName
+     *     The image reference.
+     */
+    public void forget(String imageName) {
+        present.remove(keyOf(imageName));
+    }
+
+    /**
+     * Check whether the given image is present, pulling it from the registry
+     * if not, and blocking until done.
+     *
+     * @param imageName
+     *     The image reference.
+     *
+     * @throws DockerStartupException
+     *     If the image is not present and cannot be pulled.
+     */
+    private void ensureImageNow(String imageName) throws DockerStartupException {
+
+        try {
+            client.inspectImageCmd(imageName).exec();
+            logger.debug(">>>DOCKER<<< Image {} is present.", imageName);
+            return;
+        }
+        catch (NotFoundException e) {
+            logger.debug(">>>DOCKER<<< Image {} is not present.", imageName);
+        }
+
+        String repository = repositoryOf(imageName);
+        String tag = tagOf(imageName);
+        logger.info("Pulling Docker image {}:{}.", repository, tag);
+        long startTime = System.nanoTime();
+
+        PullImageCmd pullCmd = client.pullImageCmd(repository).withTag(tag);
+        if (authConfig != null)
+            pullCmd.withAuthConfig(authConfig);
+
+        try {
+            pull(pullCmd);
+        }
+        catch (NotFoundException e) {
+            throw new DockerStartupException("Image " + imageName + " does not exist.", e);
+        }
+        catch (RuntimeException e) {
+            throw new DockerStartupException("Unable to pull image " + imageName + ".", e);
+        }
+
+        logger.info("Pulled Docker image {} in {} seconds.", imageName,
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime));
+
+    }
+
+    /**
+     * Run the given pull, blocking until it completes.  Errors such as
+     * "unauthorized" or "manifest unknown" are reported by Docker within the
+     * pull stream rather than as a failed request, and are only raised once
+     * the stream is checked for success.  That check is deprecated in this
+     * version of docker-java, but its replacement is not yet available.
+     *
+     * @param pullCmd
+     *     The pull to run.
+     *
+     * @throws RuntimeException
+     *     If the pull fails, including if Docker reports an error within the
+     *     pull stream.
+     */
+    @SuppressWarnings("deprecation")
+    private static void pull(PullImageCmd pullCmd) {
+        pullCmd.exec(new PullImageResultCallback()).awaitSuccess();
+    }
+
+    /**
+     * Stop all image checks and pulls in progress.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
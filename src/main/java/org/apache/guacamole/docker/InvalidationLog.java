@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A record of when each container was last invalidated, used to discard
+ * state read from Docker before a concurrent change to the same container.
+ * A reader notes the current generation before reading, and its result is
+ * stale if any name or identifier of the container has been invalidated
+ * since.  This class is not thread-safe; its owner must guard both the
+ * log and the state it protects with a single lock.
+ */
+class InvalidationLog {
+
+    /**
+     * The maximum number of containers whose invalidations are remembered.
+     * Beyond this, the log is cleared, and reads begun before the clear are
+     * conservatively treated as stale.
+     */
+    private static final int MAX_ENTRIES = 4096;
+
+    /**
+     * The generation of the most recent invalidation.
+     */
+    private long generation = 0;
+
+    /**
+     * The generation of the most recent invalidation which has been
+     * forgotten.  Reads begun before this generation are always stale.
+     */
+    private long floor = 0;
+
+    /**
+     * The generation at which each container was last invalidated, keyed by
+     * container name or identifier.
+     */
+    private final Map<String, Long> invalidated = new HashMap<>();
+
+    /**
+     * Return the current generation, to be noted before reading the state
+     * of a container.
+     *
+     * @return
+     *     The current generation.
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Record that the state of the container having the given name or
+     * identifier has changed.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     */
+    void invalidate(String cid) {
+
+        if (invalidated.size() >= MAX_ENTRIES) {
+            invalidated.clear();
+            floor = generation;
+        }
+
+        invalidated.put(cid, ++generation);
+
+    }
+
+    /**
+     * Return whether state read since the given generation may no longer
+     * reflect the container having any of the given names or identifiers.
+     *
+     * @param since
+     *     The generation noted before the state was read.
+     *
+     * @param cids
+     *     The names and identifiers of the container, any of which may be
+     *     null.
+     *
+     * @return
+     *     True if the container was invalidated after the given generation,
+     *     or if that cannot be ruled out, otherwise false.
+     */
+    boolean isStale(long since, String... cids) {
+
+        if (since < floor)
+            return true;
+
+        for (String cid : cids) {
+            Long last = (cid != null) ? invalidated.get(cid) : null;
+            if (last != null && last > since)
+                return true;
+        }
+
+        return false;
+
+    }
+
+}
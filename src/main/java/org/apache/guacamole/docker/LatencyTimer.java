@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the duration of a single kind of operation in a fixed histogram of
+ * exponentially growing buckets, from which percentiles are estimated to
+ * within about ten percent.  Recording never allocates or blocks, so timers
+ * may be used on every Docker call.
+ */
+public class LatencyTimer implements LatencyTimerMXBean {
+
+    /**
+     * The upper bound of the first bucket, in microseconds.
+     */
+    private static final long FIRST_BOUND = 100;
+
+    /**
+     * The ratio between the upper bounds of consecutive buckets.
+     */
+    private static final double GROWTH = 1.2;
+
+    /**
+     * The number of buckets, which with the above covers up to about half
+     * an hour.  Longer durations are counted in the last bucket.
+     */
+    private static final int BUCKETS = 92;
+
+    /**
+     * The upper bound of each bucket, in microseconds.
+     */
+    private static final long[] BOUNDS = new long[BUCKETS];
+
+    static {
+        double bound = FIRST_BOUND;
+        for (int i = 0; i < BUCKETS; i++) {
+            BOUNDS[i] = (long) bound;
+            bound *= GROWTH;
+        }
+    }
+
+    /**
+     * The number of operations recorded in each bucket.
+     */
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    /**
+     * The number of recorded operations which failed.
+     */
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * The total duration of all recorded operations, in microseconds.
+     */
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * The longest duration of any recorded operation, in microseconds.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Create a new timer with nothing recorded.
+     */
+    public LatencyTimer() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = new LongAdder();
+    }
+
+    /**
+     * Record an operation which began at the given time and has just ended.
+     *
+     * @param startTime
+     *     The value of System.nanoTime() when the operation began.
+     *
+     * @param failed
+     *     Whether the operation failed.
+     */
+    public void recordSince(long startTime, boolean failed) {
+        record(System.nanoTime() - startTime, failed);
+    }
+
+    /**
+     * Record an operation of the given duration.
+     *
+     * @param nanos
+     *     The duration of the operation, in nanoseconds.
+     *
+     * @param failed
+     *     Whether the operation failed.
+     */
+    public void record(long nanos, boolean failed) {
+
+        long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0);
+
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && micros > BOUNDS[bucket])
+            bucket++;
+
+        counts[bucket].increment();
+        total.add(micros);
+        max.accumulateAndGet(micros, Math::max);
+        if (failed)
+            errors.increment();
+
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts)
+            count += bucket.sum();
+        return count;
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * Return the total duration of all recorded operations.
+     *
+     * @return
+     *     The total duration in milliseconds.
+     */
+    public double getTotal() {
+        return total.sum() / 1000.0;
+    }
+
+    @Override
+    public double getMean() {
+        long count = getCount();
+        return count > 0 ? getTotal() / count : 0;
+    }
+
+    @Override
+    public double getMax() {
+        return max.get() / 1000.0;
+    }
+
+    /**
+     * Return the estimated duration below which the given fraction of
+     * recorded operations completed.
+     *
+     * @param quantile
+     *     The fraction of operations, between 0 and 1.
+     *
+     * @return
+     *     The upper bound of the bucket containing the given quantile,
+     *     never more than the longest recorded duration, in milliseconds,
+     *     or zero if nothing has been recorded.
+     */
+    public double getPercentile(double quantile) {
+
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(BOUNDS[i], max.get()) / 1000.0;
+        }
+
+        return getMax();
+
+    }
+
+    @Override
+    public double getP50() {
+        return getPercentile(0.5);
+    }
+
+    @Override
+    public double getP99() {
+        return getPercentile(0.99);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+/**
+ * The view of a LatencyTimer exported through JMX.  All durations are in
+ * milliseconds.
+ */
+public interface LatencyTimerMXBean {
+
+    /**
+     * Return the number of operations recorded.
+     *
+     * @return
+     *     The number of operations recorded.
+     */
+    long getCount();
+
+    /**
+     * Return the number of recorded operations which failed.
+     *
+     * @return
+     *     The number of failed operations.
+     */
+    long getErrorCount();
+
+    /**
+     * Return the mean duration of all recorded operations.
+     *
+     * @return
+     *     The mean duration in milliseconds.
+     */
+    double getMean();
+
+    /**
+     * Return the longest duration of any recorded operation.
+     *
+     * @return
+     *     The longest duration in milliseconds.
+     */
+    double getMax();
+
+    /**
+     * Return the median duration of all recorded operations.
+     *
+     * @return
+     *     The estimated median duration in milliseconds.
+     */
+    double getP50();
+
+    /**
+     * Return the 99th percentile duration of all recorded operations.
+     *
+     * @return
+     *     The estimated 99th percentile duration in milliseconds.
+     */
+    double getP99();
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Places each new container on the reachable host with the fewest managed
+ * containers, or with the most uncommitted memory.  If no host is known to
+ * be reachable, the least loaded of all hosts is chosen, such that the
+ * attempt to create the container reports the actual error.
+ */
+public class LeastLoadedPlacement implements PlacementStrategy {
+
+    /**
+     * The measure by which hosts are compared.
+     */
+    public enum Criterion {
+
+        /**
+         * Prefer the host with the fewest running or paused managed
+         * containers.
+         */
+        CONTAINERS,
+
+        /**
+         * Prefer the host with the most memory not committed to managed
+         * containers.
+         */
+        MEMORY
+
+    }
+
+    /**
+     * The order of preference of hosts, most preferred first.
+     */
+    private final Comparator<HostLoad> preference;
+
+    /**
+     * Create a new strategy comparing hosts by the given criterion.  Ties
+     * are broken by the other criterion, and then by configured order.
+     *
+     * @param criterion
+     *     The measure by which hosts are compared.
+     */
+    public LeastLoadedPlacement(Criterion criterion) {
+
+        Comparator<HostLoad> byContainers =
+                Comparator.comparingInt(HostLoad::getContainers);
+        Comparator<HostLoad> byMemory =
+                Comparator.comparingLong(HostLoad::getFreeMemory).reversed();
+
+        this.preference = (criterion == Criterion.MEMORY)
+                ? byMemory.thenComparing(byContainers)
+                : byContainers.thenComparing(byMemory);
+
+    }
+
+    @Override
+    public HostLoad place(String containerName, List<HostLoad> hosts) {
+
+        HostLoad best = null;
+        for (HostLoad host : hosts) {
+            if (host.isReachable()
+                    && (best == null || preference.compare(host, best) < 0))
+                best = host;
+        }
+
+        if (best != null)
+            return best;
+
+        return hosts.stream().min(preference).get();
+
+    }
+
+}
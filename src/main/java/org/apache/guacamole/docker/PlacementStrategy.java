@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.List;
+
+/**
+ * Decides on which Docker host a new container is created.  Strategies are
+ * consulted only for containers not already known to exist on some host,
+ * and must not block, as placement happens while the user waits.
+ */
+public interface PlacementStrategy {
+
+    /**
+     * Choose the host on which the container of the given name should be
+     * created.
+     *
+     * @param containerName
+     *     The name of the container being placed.
+     *
+     * @param hosts
+     *     The last observed load of every configured host, in configured
+     *     order.  This list is never empty.
+     *
+     * @return
+     *     The chosen host, which must be one of those given.
+     */
+    HostLoad place(String containerName, List<HostLoad> hosts);
+
+    /**
+     * Return whether this strategy always places a given container on the
+     * same host while that host is reachable.  Containers placed by such a
+     * strategy need not be looked up before the hosts have been listed.
+     *
+     * @return
+     *     True if placement depends only on the container name and the set
+     *     of reachable hosts, otherwise false.
+     */
+    default boolean isSticky() {
+        return false;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event spanning a single phase of provisioning a
+ * container.  This class must only be loaded through ProvisioningTrace,
+ * which first checks that the running JVM provides Flight Recorder.
+ */
+@Name("org.apache.guacamole.docker.Provisioning")
+@Label("Container Provisioning Phase")
+@Description("A single phase of provisioning a container for a connection.")
+@Category({ "Guacamole", "Docker" })
+@StackTrace(false)
+class ProvisioningEvent extends Event {
+
+    /**
+     * The phase of provisioning spanned by this event.
+     */
+    @Label("Phase")
+    String phase;
+
+    /**
+     * The name of the container being provisioned.
+     */
+    @Label("Container")
+    String containerName;
+
+    /**
+     * The image of the container being provisioned.
+     */
+    @Label("Image")
+    String imageName;
+
+    /**
+     * The URI of the Docker host of the container.
+     */
+    @Label("Docker Host")
+    String host;
+
+    /**
+     * Whether the phase completed successfully.
+     */
+    @Label("Succeeded")
+    boolean succeeded;
+
+}
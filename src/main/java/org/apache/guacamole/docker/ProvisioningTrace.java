@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Records each phase of provisioning a container as a Java Flight Recorder
+ * event, such that slow logins can be correlated with garbage collection and
+ * thread contention in the same recording.  Events are only created while a
+ * recording including them is in progress, and nothing is recorded on JVMs
+ * without Flight Recorder, where the event class is never loaded.
+ */
+public final class ProvisioningTrace {
+
+    /**
+     * The phases of provisioning a container.
+     */
+    public enum Phase {
+
+        /**
+         * Checking whether the container exists, and in what state.
+         */
+        EXISTENCE_CHECK,
+
+        /**
+         * Ensuring the image of a new container is present on the host.
+         */
+        IMAGE_PULL,
+
+        /**
+         * Creating the container, or claiming a pooled container.
+         */
+        CREATE,
+
+        /**
+         * Starting the container.
+         */
+        START,
+
+        /**
+         * Resuming a suspended container.
+         */
+        UNPAUSE,
+
+        /**
+         * Inspecting the running container for its published ports.
+         */
+        INSPECT,
+
+        /**
+         * Resolving the address guacd uses to reach the Docker host.
+         */
+        HOST_RESOLUTION
+
+    }
+
+    /**
+     * Whether the running JVM provides Flight Recorder.
+     */
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    /**
+     * The trace returned when nothing is being recorded.
+     */
+    private static final ProvisioningTrace DISABLED = new ProvisioningTrace(null);
+
+    /**
+     * The event in progress, declared as Object such that the event class
+     * is not loaded unless Flight Recorder is available, or null if nothing
+     * is being recorded.
+     */
+    private final Object event;
+
+    /**
+     * Create a new trace of the given event.
+     *
+     * @param event
+     *     The event in progress, or null if nothing is being recorded.
+     */
+    private ProvisioningTrace(Object event) {
+        this.event = event;
+    }
+
+    /**
+     * Return whether the running JVM provides the Flight Recorder API.
+     *
+     * @return
+     *     True if Flight Recorder events can be recorded, otherwise false.
+     */
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Begin timing the given phase of provisioning the given container.
+     *
+     * @param phase
+     *     The phase beginning.
+     *
+     * @param containerName
+     *     The name of the container being provisioned.
+     *
+     * @param imageName
+     *     The image of the container.
+     *
+     * @param host
+     *     The URI of the Docker host of the container.
+     *
+     * @return
+     *     The trace of the phase, which must be ended once the phase
+     *     completes.
+     */
+    public static ProvisioningTrace begin(Phase phase, String containerName,
+            String imageName, String host) {
+
+        if (!AVAILABLE)
+            return DISABLED;
+
+        Object event = Recorder.begin(phase, containerName, imageName, host);
+        return (event != null) ? new ProvisioningTrace(event) : DISABLED;
+
+    }
+
+    /**
+     * Time the given phase of provisioning the given container, from now
+     * until the future returned by the given operation completes.
+     *
+     * @param <T>
+     *     The type of value produced by the operation.
+     *
+     * @param phase
+     *     The phase performed by the operation.
+     *
+     * @param containerName
+     *     The name of the container being provisioned.
+     *
+     * @param imageName
+     *     The image of the container.
+     *
+     * @param host
+     *     The URI of the Docker host of the container.
+     *
+     * @param operation
+     *     Starts the phase, returning a future which completes once the
+     *     phase is done.
+     *
+     * @return
+     *     The future returned by the operation.
+     */
+    public static <T> CompletableFuture<T> trace(Phase phase,
+            String containerName, String imageName, String host,
+            Supplier<CompletableFuture<T>> operation) {
+
+        ProvisioningTrace trace = begin(phase, containerName, imageName, host);
+
+        CompletableFuture<T> future;
+        try {
+            future = operation.get();
+        }
+        catch (RuntimeException e) {
+            trace.end(false);
+            throw e;
+        }
+
+        if (trace != DISABLED)
+            future.whenComplete((result, error) -> trace.end(error == null));
+
+        return future;
+
+    }
+
+    /**
+     * End the phase, committing its event if it is being recorded.
+     *
+     * @param succeeded
+     *     Whether the phase completed successfully.
+     */
+    public void end(boolean succeeded) {
+        if (event != null)
+            Recorder.end(event, succeeded);
+    }
+
+    /**
+     * The only code referring to the event class, which is therefore loaded
+     * only once Flight Recorder is known to be available.
+     */
+    private static class Recorder {
+
+        /**
+         * Begin a new event for the given phase, if such events are being
+         * recorded.
+         *
+         * @param phase
+         *     The phase beginning.
+         *
+         * @param containerName
+         *     The name of the container being provisioned.
+         *
+         * @param imageName
+         *     The image of the container.
+         *
+         * @param host
+         *     The URI of the Docker host of the container.
+         *
+         * @return
+         *     The event begun, or null if such events are not being
+         *     recorded.
+         */
+        static Object begin(Phase phase, String containerName,
+                String imageName, String host) {
+
+            ProvisioningEvent event = new ProvisioningEvent();
+            if (!event.isEnabled())
+                return null;
+
+            event.phase = phase.name();
+            event.containerName = containerName;
+            event.imageName = imageName;
+            event.host = host;
+            event.begin();
+            return event;
+
+        }
+
+        /**
+         * End and commit the given event, unless it is below the recording
+         * threshold.
+         *
+         * @param event
+         *     The event to end, as returned by begin().
+         *
+         * @param succeeded
+         *     Whether the phase completed successfully.
+         */
+        static void end(Object event, boolean succeeded) {
+            ProvisioningEvent provisioning = (ProvisioningEvent) event;
+            provisioning.end();
+            if (provisioning.shouldCommit()) {
+                provisioning.succeeded = succeeded;
+                provisioning.commit();
+            }
+        }
+
+    }
+
+}
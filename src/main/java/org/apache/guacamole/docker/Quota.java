@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+/**
+ * A limit on the containers which may be running on behalf of a single user
+ * or group at once.  Either limit may be absent.
+ */
+public class Quota {
+
+    /**
+     * The user or group to which this quota applies, such as "user:alice"
+     * or "group:developers".
+     */
+    private final String subject;
+
+    /**
+     * The maximum number of containers which may be running at once, or
+     * null if not limited.
+     */
+    private final Integer maxContainers;
+
+    /**
+     * The maximum total memory limit of all containers running at once, in
+     * bytes, or null if not limited.
+     */
+    private final Long maxMemory;
+
+    /**
+     * Create a new quota for the given user or group.
+     *
+     * @param subject
+     *     The user or group to which this quota applies, such as
+     *     "user:alice" or "group:developers".
+     *
+     * @param maxContainers
+     *     The maximum number of containers which may be running at once, or
+     *     null if not limited.
+     *
+     * @param maxMemory
+     *     The maximum total memory limit of all containers running at once,
+     *     in bytes, or null if not limited.
+     */
+    public Quota(String subject, Integer maxContainers, Long maxMemory) {
+        this.subject = subject;
+        this.maxContainers = maxContainers;
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Return the user or group to which this quota applies.
+     *
+     * @return
+     *     The subject of this quota, such as "user:alice".
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * Return the maximum number of containers which may be running at once.
+     *
+     * @return
+     *     The maximum number of containers, or null if not limited.
+     */
+    public Integer getMaxContainers() {
+        return maxContainers;
+    }
+
+    /**
+     * Return the maximum total memory limit of all containers running at
+     * once.
+     *
+     * @return
+     *     The maximum memory in bytes, or null if not limited.
+     */
+    public Long getMaxMemory() {
+        return maxMemory;
+    }
+
+    @Override
+    public String toString() {
+        return subject + " containers=" + maxContainers + " memory=" + maxMemory;
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.guacamole.GuacamoleClientTooManyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records which containers are running on behalf of which users and groups,
+ * such that quotas can be enforced without querying Docker.  A container is
+ * charged to the quotas of the user who first uses it, and the charge is
+ * released when the container is stopped or removed through this extension,
+ * or when Docker reports that it has exited or been removed by other means.
+ * Containers running before the extension started are charged when next
+ * used.
+ */
+public class QuotaLedger {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(QuotaLedger.class);
+
+    /**
+     * The charge of each running container, keyed by container name.
+     * Guarded by this ledger.
+     */
+    private final Map<String, Charge> charges = new HashMap<>();
+
+    /**
+     * The total usage of each user or group, keyed by quota subject.  Only
+     * subjects with usage are present.  Guarded by this ledger.
+     */
+    private final Map<String, Usage> usage = new HashMap<>();
+
+    /**
+     * Charge the container of the given name against the given quotas, if
+     * it is not already charged.
+     *
+     * @param containerName
+     *     The name of the container about to be used.
+     *
+     * @param memory
+     *     The memory limit of the container in bytes, or null if it has
+     *     none, in which case it counts against no memory quota.
+     *
+     * @param quotas
+     *     The quotas of the user using the container and of their groups.
+     *
+     * @return
+     *     True if the container was charged now, false if it was already
+     *     charged.
+     *
+     * @throws GuacamoleClientTooManyException
+     *     If charging the container would exceed any of the given quotas, in
+     *     which case nothing is charged.
+     */
+    public synchronized boolean charge(String containerName, Long memory,
+            Collection<Quota> quotas) throws GuacamoleClientTooManyException {
+
+        if (charges.containsKey(containerName))
+            return false;
+
+        long bytes = (memory != null) ? memory : 0;
+        for (Quota quota : quotas) {
+
+            Usage current = usage.getOrDefault(quota.getSubject(), Usage.NONE);
+
+            if (quota.getMaxContainers() != null
+                    && current.containers + 1 > quota.getMaxContainers())
+                throw new GuacamoleClientTooManyException("The quota of "
+                        + quota.getMaxContainers() + " running containers for "
+                        + quota.getSubject() + " has been reached.");
+
+            if (quota.getMaxMemory() != null
+                    && current.memory + bytes > quota.getMaxMemory())
+                throw new GuacamoleClientTooManyException("The memory quota of "
+                        + (quota.getMaxMemory() / (1024 * 1024)) + " MB for "
+                        + quota.getSubject() + " would be exceeded.");
+
+        }
+
+        List<String> subjects = new ArrayList<>(quotas.size());
+        for (Quota quota : quotas) {
+            subjects.add(quota.getSubject());
+            usage.merge(quota.getSubject(), new Usage(1, bytes), Usage::plus);
+        }
+
+        charges.put(containerName, new Charge(subjects, bytes));
+        logger.debug(">>>DOCKER<<< Charged container {} to {}.", containerName, subjects);
+        return true;
+
+    }
+
+    /**
+     * Release the charge of the container of the given name, if any.
+     *
+     * @param containerName
+     *     The name of the container which has stopped or been removed.
+     */
+    public synchronized void release(String containerName) {
+
+        Charge charge = charges.remove(containerName);
+        if (charge == null)
+            return;
+
+        Usage released = new Usage(-1, -charge.memory);
+        for (String subject : charge.subjects) {
+            usage.computeIfPresent(subject, (key, current) -> {
+                Usage remaining = current.plus(released);
+                return (remaining.containers > 0) ? remaining : null;
+            });
+        }
+
+        logger.debug(">>>DOCKER<<< Released charge of container {}.", containerName);
+
+    }
+
+    /**
+     * Release the charge of every container charged before the given time
+     * which is not among the given active containers, such as containers
+     * which have exited or been removed other than through this extension.
+     * Containers charged since are left charged, as they may still be being
+     * created or started.
+     *
+     * @param active
+     *     The names of all containers currently running or paused.
+     *
+     * @param chargedBefore
+     *     The time before which a container must have been charged for its
+     *     charge to be released, in milliseconds since the epoch.
+     */
+    public synchronized void retainActive(Set<String> active, long chargedBefore) {
+
+        List<String> inactive = new ArrayList<>();
+        for (Map.Entry<String, Charge> entry : charges.entrySet()) {
+            if (entry.getValue().charged < chargedBefore
+                    && !active.contains(entry.getKey()))
+                inactive.add(entry.getKey());
+        }
+
+        for (String containerName : inactive)
+            release(containerName);
+
+    }
+
+    /**
+     * Return the number of containers currently charged to the given user or
+     * group.
+     *
+     * @param subject
+     *     The subject of the quota, such as "user:alice".
+     *
+     * @return
+     *     The number of running containers charged to the subject.
+     */
+    public synchronized int getContainers(String subject) {
+        return usage.getOrDefault(subject, Usage.NONE).containers;
+    }
+
+    /**
+     * Return the total memory limit of the containers currently charged to
+     * the given user or group.
+     *
+     * @param subject
+     *     The subject of the quota, such as "user:alice".
+     *
+     * @return
+     *     The total memory charged to the subject, in bytes.
+     */
+    public synchronized long getMemory(String subject) {
+        return usage.getOrDefault(subject, Usage.NONE).memory;
+    }
+
+    /**
+     * The quota subjects and memory charged for a single container.
+     */
+    private static class Charge {
+
+        /**
+         * The subjects of every quota the container is charged against.
+         */
+        private final List<String> subjects;
+
+        /**
+         * The memory charged for the container, in bytes.
+         */
+        private final long memory;
+
+        /**
+         * The time the container was charged, in milliseconds since the
+         * epoch.
+         */
+        private final long charged = System.currentTimeMillis();
+
+        /**
+         * Create a new charge.
+         *
+         * @param subjects
+         *     The subjects of every quota the container is charged against.
+         *
+         * @param memory
+         *     The memory charged for the container, in bytes.
+         */
+        Charge(List<String> subjects, long memory) {
+            this.subjects = subjects;
+            this.memory = memory;
+        }
+
+    }
+
+    /**
+     * The number of containers and total memory charged to a subject.
+     */
+    private static class Usage {
+
+        /**
+         * The usage of a subject with nothing charged.
+         */
+        private static final Usage NONE = new Usage(0, 0);
+
+        /**
+         * The number of containers charged.
+         */
+        private final int containers;
+
+        /**
+         * The total memory charged, in bytes.
+         */
+        private final long memory;
+
+        /**
+         * Create a new record of usage.
+         *
+         * @param containers
+         *     The number of containers charged.
+         *
+         * @param memory
+         *     The total memory charged, in bytes.
+         */
+        Usage(int containers, long memory) {
+            this.containers = containers;
+            this.memory = memory;
+        }
+
+        /**
+         * Return the sum of this usage and the given usage.
+         *
+         * @param other
+         *     The usage to add.
+         *
+         * @return
+         *     The combined usage.
+         */
+        Usage plus(Usage other) {
+            return new Usage(containers + other.containers, memory + other.memory);
+        }
+
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for the service within a container to accept TCP connections before
+ * the container is handed to guacd.  Connection attempts are made without
+ * blocking any thread, retried with exponential backoff until a deadline,
+ * and shared by all callers waiting on the same address.  The time taken for
+ * containers of each image to become ready is recorded in the attached
+ * metrics, if any.
+ */
+public class ReadinessProbe implements Closeable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ReadinessProbe.class);
+
+    /**
+     * The number of milliseconds to wait after the first failed attempt.
+     */
+    private static final long INITIAL_DELAY = 100;
+
+    /**
+     * The maximum number of milliseconds to wait between attempts.
+     */
+    private static final long MAX_DELAY = 2000;
+
+    /**
+     * The maximum number of milliseconds a single connection attempt may take.
+     */
+    private static final long ATTEMPT_TIMEOUT = 2000;
+
+    /**
+     * The number of milliseconds within which a container must become ready.
+     */
+    private final long deadline;
+
+    /**
+     * All probes currently in progress, keyed by "host:port".
+     */
+    private final ConcurrentMap<String, CompletableFuture<Void>> probing =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The metrics into which readiness timings are recorded, or null if
+     * readiness is not timed.
+     */
+    private volatile DockerMetrics metrics;
+
+    /**
+     * The thread on which retries and attempt timeouts are scheduled.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new probe which waits up to the given number of seconds for
+     * each container to become ready.
+     *
+     * @param timeout
+     *     The number of seconds within which a container must accept
+     *     connections.
+     */
+    public ReadinessProbe(int timeout) {
+        this.deadline = TimeUnit.SECONDS.toMillis(timeout);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "docker-startup-readiness");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Wait for the given host and port to accept TCP connections.  If the
+     * same address is already being probed, the probe in progress is shared.
+     *
+     * @param host
+     *     The host to connect to.
+     *
+     * @param port
+     *     The port to connect to.
+     *
+     * @param imageName
+     *     The image of the container, under which the time taken to become
+     *     ready is recorded.
+     *
+     * @return
+     *     A future which completes once a connection succeeds, or fails if
+     *     the deadline passes first.
+     */
+    public CompletableFuture<Void> awaitReady(String host, int port,
+            String imageName) {
+
+        String key = host + ":" + port;
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        CompletableFuture<Void> inProgress = probing.putIfAbsent(key, promise);
+        if (inProgress != null) {
+            logger.debug(">>>DOCKER<<< Joining readiness probe of {}.", key);
+            return inProgress;
+        }
+
+        promise.whenComplete((ready, error) -> probing.remove(key, promise));
+
+        long startTime = System.nanoTime();
+        Attempt attempt = new Attempt(host, port, imageName, promise, startTime);
+        if (!schedule(attempt, 0))
+            promise.completeExceptionally(new DockerStartupException(
+                    "Readiness probe has been closed."));
+
+        return promise;
+
+    }
+
+    /**
+     * Schedule the given task, returning whether it could be scheduled.
+     *
+     * @param task
+     *     The task to run.
+     *
+     * @param delay
+     *     The number of milliseconds to wait before running the task.
+     *
+     * @return
+     *     True if the task was scheduled, false if the probe is closed.
+     */
+    private boolean schedule(Runnable task, long delay) {
+        try {
+            scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record the time taken for containers to become ready, by image, in
+     * the given metrics.
+     *
+     * @param metrics
+     *     The metrics into which readiness timings are recorded.
+     */
+    public void attachMetrics(DockerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Record the outcome of a probe of a container of the given image.
+     *
+     * @param imageName
+     *     The image of the container probed.
+     *
+     * @param startTime
+     *     The value of System.nanoTime() when probing began.
+     *
+     * @param failed
+     *     Whether the container failed to become ready.
+     */
+    private void record(String imageName, long startTime, boolean failed) {
+        DockerMetrics current = metrics;
+        if (current != null)
+            current.timer(DockerMetrics.READINESS_BY_IMAGE, "image", imageName)
+                    .recordSince(startTime, failed);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * A single non-blocking connection attempt, which schedules the next
+     * attempt with backoff if it fails.
+     */
+    private class Attempt implements Runnable,
+            CompletionHandler<Void, AsynchronousSocketChannel> {
+
+        /**
+         * The host to connect to.
+         */
+        private final String host;
+
+        /**
+         * The port to connect to.
+         */
+        private final int port;
+
+        /**
+         * The image of the container being probed.
+         */
+        private final String imageName;
+
+        /**
+         * The future to complete once the container is ready.
+         */
+        private final CompletableFuture<Void> promise;
+
+        /**
+         * The value of System.nanoTime() when probing began.
+         */
+        private final long startTime;
+
+        /**
+         * The number of milliseconds to wait before the next attempt.
+         */
+        private long delay = INITIAL_DELAY;
+
+        /**
+         * The number of attempts made so far.
+         */
+        private int attempts = 0;
+
+        /**
+         * Create the first attempt of a new probe.
+         *
+         * @param host
+         *     The host to connect to.
+         *
+         * @param port
+         *     The port to connect to.
+         *
+         * @param imageName
+         *     The image of the container being probed.
+         *
+         * @param promise
+         *     The future to complete once the container is ready.
+         *
+         * @param startTime
+         *     The value of System.nanoTime() when probing began.
+         */
+        Attempt(String host, int port, String imageName,
+                CompletableFuture<Void> promise, long startTime) {
+            this.host = host;
+            this.port = port;
+            this.imageName = imageName;
+            this.promise = promise;
+            this.startTime = startTime;
+        }
+
+        /**
+         * Return the number of milliseconds elapsed since probing began.
+         *
+         * @return
+         *     The number of milliseconds elapsed.
+         */
+        private long elapsed() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        }
+
+        @Override
+        public void run() {
+
+            attempts++;
+            try {
+                AsynchronousSocketChannel channel = AsynchronousSocketChannel.open();
+                channel.connect(new InetSocketAddress(host, port), channel, this);
+
+                // Abandon attempts which neither succeed nor fail promptly
+                schedule(() -> closeQuietly(channel),
+                        Math.min(ATTEMPT_TIMEOUT, Math.max(deadline - elapsed(), 0)));
+            }
+            catch (IOException | RuntimeException e) {
+                retry(e);
+            }
+
+        }
+
+        @Override
+        public void completed(Void result, AsynchronousSocketChannel channel) {
+
+            closeQuietly(channel);
+
+            long elapsed = elapsed();
+            record(imageName, startTime, false);
+            logger.debug(">>>DOCKER<<< {}:{} ready after {} ms and {} attempts.",
+                    host, port, elapsed, attempts);
+            promise.complete(null);
+
+        }
+
+        @Override
+        public void failed(Throwable error, AsynchronousSocketChannel channel) {
+            closeQuietly(channel);
+            retry(error);
+        }
+
+        /**
+         * Schedule the next attempt after backing off, or fail the probe if
+         * the deadline would be passed.
+         *
+         * @param error
+         *     The reason the last attempt failed.
+         */
+        private void retry(Throwable error) {
+
+            if (promise.isDone())
+                return;
+
+            if (elapsed() + delay > deadline) {
+                record(imageName, startTime, true);
+                promise.completeExceptionally(new DockerStartupException(
+                        "Container at " + host + ":" + port
+                        + " did not accept connections within "
+                        + TimeUnit.MILLISECONDS.toSeconds(deadline) + " seconds.",
+                        error));
+                return;
+            }
+
+            logger.debug(">>>DOCKER<<< {}:{} not yet ready: {}", host, port,
+                    error.getMessage());
+
+            if (!schedule(this, delay))
+                promise.completeExceptionally(new DockerStartupException(
+                        "Readiness probe has been closed.", error));
+
+            delay = Math.min(delay * 2, MAX_DELAY);
+
+        }
+
+    }
+
+    /**
+     * Close the given channel, ignoring any errors.
+     *
+     * @param channel
+     *     The channel to close.
+     */
+    private static void closeQuietly(AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            logger.debug("Error closing readiness probe connection.", e);
+        }
+    }
+
+}
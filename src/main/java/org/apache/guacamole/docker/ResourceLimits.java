@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import com.github.dockerjava.api.model.HostConfig;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The resource limits applied to a container when it is created.  Each limit
+ * is optional; limits which are null are left to the Docker defaults.
+ */
+public class ResourceLimits {
+
+    /**
+     * Resource limits which leave every limit to the Docker defaults.
+     */
+    public static final ResourceLimits NONE =
+            new ResourceLimits(null, null, null, null, null, null);
+
+    /**
+     * The number of bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /**
+     * The relative weight of the container when competing for CPU.
+     */
+    private final Integer cpuShares;
+
+    /**
+     * The number of microseconds of CPU time the container may use in each
+     * 100ms period.
+     */
+    private final Long cpuQuota;
+
+    /**
+     * The maximum amount of memory the container may use, in bytes.
+     */
+    private final Long memory;
+
+    /**
+     * The amount of memory reserved for the container when memory is
+     * contended, in bytes.
+     */
+    private final Long memoryReservation;
+
+    /**
+     * The maximum number of processes which may run within the container.
+     */
+    private final Long pidsLimit;
+
+    /**
+     * The size of /dev/shm within the container, in bytes.
+     */
+    private final Long shmSize;
+
+    /**
+     * Create a new set of resource limits.  Any limit may be null to leave
+     * that limit to the Docker defaults.
+     *
+     * @param cpuShares
+     *     The relative weight of the container when competing for CPU.
+     *
+     * @param cpuQuota
+     *     The number of microseconds of CPU time the container may use in
+     *     each 100ms period.
+     *
+     * @param memory
+     *     The maximum amount of memory the container may use, in bytes.
+     *
+     * @param memoryReservation
+     *     The amount of memory reserved for the container when memory is
+     *     contended, in bytes.
+     *
+     * @param pidsLimit
+     *     The maximum number of processes which may run within the container.
+     *
+     * @param shmSize
+     *     The size of /dev/shm within the container, in bytes.
+     */
+    public ResourceLimits(Integer cpuShares, Long cpuQuota, Long memory,
+            Long memoryReservation, Long pidsLimit, Long shmSize) {
+        this.cpuShares = cpuShares;
+        this.cpuQuota = cpuQuota;
+        this.memory = memory;
+        this.memoryReservation = memoryReservation;
+        this.pidsLimit = pidsLimit;
+        this.shmSize = shmSize;
+    }
+
+    /**
+     * Convert the given number of megabytes to bytes.
+     *
+     * @param megabytes
+     *     The number of megabytes, or null.
+     *
+     * @return
+     *     The equivalent number of bytes, or null if no value was given.
+     */
+    public static Long megabytes(Number megabytes) {
+        return (megabytes != null) ? megabytes.longValue() * MEGABYTE : null;
+    }
+
+    /**
+     * Return the maximum amount of memory the container may use.
+     *
+     * @return
+     *     The memory limit in bytes, or null if memory is not limited.
+     */
+    public Long getMemory() {
+        return memory;
+    }
+
+    /**
+     * Return limits which take each limit from these limits, or from the
+     * given limits where these do not set it.
+     *
+     * @param defaults
+     *     The limits to use for any limit not set here.
+     *
+     * @return
+     *     The combined resource limits.
+     */
+    public ResourceLimits orElse(ResourceLimits defaults) {
+        return new ResourceLimits(
+                cpuShares != null ? cpuShares : defaults.cpuShares,
+                cpuQuota != null ? cpuQuota : defaults.cpuQuota,
+                memory != null ? memory : defaults.memory,
+                memoryReservation != null ? memoryReservation : defaults.memoryReservation,
+                pidsLimit != null ? pidsLimit : defaults.pidsLimit,
+                shmSize != null ? shmSize : defaults.shmSize);
+    }
+
+    /**
+     * Apply these limits to the given host configuration.
+     *
+     * @param hostConfig
+     *     The host configuration of the container being created.
+     *
+     * @return
+     *     The given host configuration.
+     */
+    public HostConfig applyTo(HostConfig hostConfig) {
+
+        if (cpuShares != null)
+            hostConfig.withCpuShares(cpuShares);
+        if (cpuQuota != null)
+            hostConfig.withCpuQuota(cpuQuota);
+        if (memory != null)
+            hostConfig.withMemory(memory);
+        if (memoryReservation != null)
+            hostConfig.withMemoryReservation(memoryReservation);
+        if (pidsLimit != null)
+            hostConfig.withPidsLimit(pidsLimit);
+        if (shmSize != null)
+            hostConfig.withShmSize(shmSize);
+
+        return hostConfig;
+
+    }
+
+    /**
+     * Return the limits which are set, keyed by name, in a form suitable for
+     * recording in container labels.
+     *
+     * @return
+     *     The value of each limit which is set, keyed by limit name.
+     */
+    public Map<String, String> toMap() {
+
+        Map<String, String> values = new LinkedHashMap<>();
+        if (cpuShares != null)
+            values.put("cpu-shares", cpuShares.toString());
+        if (cpuQuota != null)
+            values.put("cpu-quota", cpuQuota.toString());
+        if (memory != null)
+            values.put("memory", memory.toString());
+        if (memoryReservation != null)
+            values.put("memory-reservation", memoryReservation.toString());
+        if (pidsLimit != null)
+            values.put("pids-limit", pidsLimit.toString());
+        if (shmSize != null)
+            values.put("shm-size", shmSize.toString());
+
+        return values;
+
+    }
+
+    /**
+     * Return the limits recorded in the given map by toMap().
+     *
+     * @param values
+     *     The value of each limit which is set, keyed by limit name.
+     *
+     * @return
+     *     The recorded limits.
+     *
+     * @throws NumberFormatException
+     *     If any recorded value is not a valid number.
+     */
+    public static ResourceLimits fromMap(Map<String, String> values) {
+        String cpuShares = values.get("cpu-shares");
+        return new ResourceLimits(
+                cpuShares != null ? Integer.valueOf(cpuShares) : null,
+                parseLong(values.get("cpu-quota")),
+                parseLong(values.get("memory")),
+                parseLong(values.get("memory-reservation")),
+                parseLong(values.get("pids-limit")),
+                parseLong(values.get("shm-size")));
+    }
+
+    /**
+     * Parse the given value as a long, if present.
+     *
+     * @param value
+     *     The value to parse, or null.
+     *
+     * @return
+     *     The parsed value, or null if no value was given.
+     */
+    private static Long parseLong(String value) {
+        return (value != null) ? Long.valueOf(value) : null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+
+        if (this == other)
+            return true;
+
+        if (!(other instanceof ResourceLimits))
+            return false;
+
+        ResourceLimits limits = (ResourceLimits) other;
+        return Objects.equals(cpuShares, limits.cpuShares)
+                && Objects.equals(cpuQuota, limits.cpuQuota)
+                && Objects.equals(memory, limits.memory)
+                && Objects.equals(memoryReservation, limits.memoryReservation)
+                && Objects.equals(pidsLimit, limits.pidsLimit)
+                && Objects.equals(shmSize, limits.shmSize);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cpuShares, cpuQuota, memory, memoryReservation,
+                pidsLimit, shmSize);
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+}
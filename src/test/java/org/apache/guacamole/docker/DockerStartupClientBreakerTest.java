@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies that the circuit breaker of a client only counts failures of the
+ * Docker host itself, and not operations refused or delayed because the
+ * client's own threads are all busy.
+ */
+public class DockerStartupClientBreakerTest {
+
+    /**
+     * The number of seconds each operation may take once begun.
+     */
+    private static final int CALL_TIMEOUT = 1;
+
+    /**
+     * The number of operations which may wait for the single thread.
+     */
+    private static final int QUEUE_SIZE = 2;
+
+    /**
+     * The number of seconds to wait for operations expected to complete.
+     */
+    private static final long TIMEOUT = 10;
+
+    /**
+     * The stand-in Docker daemon.
+     */
+    private StubDockerDaemon daemon;
+
+    /**
+     * The client under test, having a single thread.
+     */
+    private DockerStartupClient client;
+
+    /**
+     * The breaker of the client under test, tripped by a single failure.
+     */
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        daemon = new StubDockerDaemon();
+        client = new DockerStartupClient(daemon.getConfig(), null,
+                daemon.getExecFactory(), 0, new ContainerSnapshotCache(0, 0),
+                false, 1, QUEUE_SIZE, CALL_TIMEOUT);
+        breaker = client.enableCircuitBreaker(1, 60);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        daemon.release();
+        client.close();
+    }
+
+    @Test
+    public void rejectionDoesNotTripBreaker() throws Exception {
+
+        daemon.hold();
+
+        List<CompletableFuture<String>> accepted = new ArrayList<>();
+        for (int i = 0; i <= QUEUE_SIZE; i++)
+            accepted.add(client.createContainerAsync("image", 5901, "accepted-" + i, null));
+
+        CompletableFuture<String> rejected =
+                client.createContainerAsync("image", 5901, "rejected", null);
+        try {
+            rejected.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("An operation beyond the queue should be refused");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DockerStartupException);
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        daemon.release();
+        for (CompletableFuture<String> create : accepted)
+            create.get(TIMEOUT, TimeUnit.SECONDS);
+
+    }
+
+    @Test
+    public void queuedTimeIsNotTimedOut() throws Exception {
+
+        // Each create is well within the timeout, but the last waits longer
+        daemon.setLatency("create", TimeUnit.SECONDS.toMillis(CALL_TIMEOUT) * 2 / 3);
+
+        List<CompletableFuture<String>> creates = new ArrayList<>();
+        for (int i = 0; i <= QUEUE_SIZE; i++)
+            creates.add(client.createContainerAsync("image", 5901, "queued-" + i, null));
+
+        for (CompletableFuture<String> create : creates)
+            create.get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that operations on distinct containers proceed concurrently,
+ * while operations on the same container are serialized, against a Docker
+ * daemon stand-in whose create and start commands block until released.
+ */
+public class DockerStartupClientConcurrencyTest {
+
+    /**
+     * The number of distinct containers provisioned at once.
+     */
+    private static final int CONTAINERS = 8;
+
+    /**
+     * The number of seconds to wait for operations expected to proceed.
+     */
+    private static final long TIMEOUT = 10;
+
+    /**
+     * The stand-in Docker daemon.
+     */
+    private StubDockerDaemon daemon;
+
+    /**
+     * The client under test.
+     */
+    private DockerStartupClient client;
+
+    /**
+     * The threads making concurrent calls to the client.
+     */
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() {
+        daemon = new StubDockerDaemon();
+        client = daemon.createClient(CONTAINERS);
+        callers = Executors.newFixedThreadPool(CONTAINERS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        daemon.release();
+        callers.shutdownNow();
+        client.close();
+    }
+
+    /**
+     * Return the given number of container names, each guarded by a
+     * different lock stripe, such that only the behavior of distinct
+     * containers is tested.
+     *
+     * @param count
+     *     The number of names to return.
+     *
+     * @return
+     *     Container names which do not share a lock stripe.
+     */
+    private static List<String> distinctNames(int count) {
+
+        List<String> names = new ArrayList<>();
+        Set<Integer> stripes = new HashSet<>();
+        for (int i = 0; names.size() < count; i++) {
+            String name = "container-" + i;
+            int stripe = (name.hashCode() & Integer.MAX_VALUE)
+                    % DockerStartupClient.LOCK_STRIPES;
+            if (stripes.add(stripe))
+                names.add(name);
+        }
+
+        return names;
+
+    }
+
+    /**
+     * Wait for all given calls to complete.
+     *
+     * @param calls
+     *     The calls to wait for.
+     *
+     * @throws Exception
+     *     If any call failed or did not complete in time.
+     */
+    private static void awaitAll(List<Future<?>> calls) throws Exception {
+        for (Future<?> call : calls)
+            call.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void distinctContainersCreateConcurrently() throws Exception {
+
+        daemon.hold();
+
+        List<Future<?>> calls = new ArrayList<>();
+        for (String name : distinctNames(CONTAINERS))
+            calls.add(callers.submit(() -> client.createContainer("image", 5901, name, null)));
+
+        assertTrue("All creates should be in flight at once",
+                daemon.awaitInFlight(CONTAINERS, TIMEOUT, TimeUnit.SECONDS));
+
+        daemon.release();
+        awaitAll(calls);
+
+    }
+
+    @Test
+    public void distinctContainersStartConcurrently() throws Exception {
+
+        List<String> names = distinctNames(CONTAINERS);
+        for (String name : names)
+            client.createContainer("image", 5901, name, null);
+
+        daemon.hold();
+
+        List<Future<?>> calls = new ArrayList<>();
+        for (String name : names)
+            calls.add(callers.submit(() -> {
+                client.startContainer(name);
+                return null;
+            }));
+
+        assertTrue("All starts should be in flight at once",
+                daemon.awaitInFlight(CONTAINERS, TIMEOUT, TimeUnit.SECONDS));
+
+        daemon.release();
+        awaitAll(calls);
+
+        for (String name : names)
+            assertEquals("running", daemon.getState(name));
+
+    }
+
+    @Test
+    public void sameContainerIsSerialized() throws Exception {
+
+        String name = "shared";
+        client.createContainer("image", 5901, name, null);
+
+        daemon.hold();
+
+        Future<?> first = callers.submit(() -> {
+            client.startContainer(name);
+            return null;
+        });
+        Future<?> second = callers.submit(() -> {
+            client.startContainer(name);
+            return null;
+        });
+
+        assertTrue("One start should be in flight",
+                daemon.awaitInFlight(1, TIMEOUT, TimeUnit.SECONDS));
+        assertFalse("A second start of the same container must wait",
+                daemon.awaitInFlight(2, 500, TimeUnit.MILLISECONDS));
+
+        daemon.release();
+        awaitAll(Arrays.asList(first, second));
+
+        assertEquals(1, daemon.getMaxInFlight(name));
+        assertEquals("running", daemon.getState(name));
+
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.guacamole.docker;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the time taken for a session to become ready when its paused
+ * container is resumed against the time taken when its container must be
+ * created and started, through the same provisioning, port lookup, and
+ * readiness probe used for real connections.
+ *
+ * The Docker daemon is a stand-in whose commands take a simulated latency,
+ * and the service within each container is a local listener.  The
+ * latencies default to figures typical of a small desktop image and can be
+ * replaced with those measured against a real daemon by setting the system
+ * properties "resume.benchmark.create", "resume.benchmark.start",
+ * "resume.benchmark.unpause", and "resume.benchmark.inspect", in
+ * milliseconds, and "resume.benchmark.iterations".  The median of each path
+ * is written to standard output:
+ *
+ *     mvn test -Dtest=ResumeLatencyBenchmarkTest -Dresume.benchmark.start=900
+ */
+public class ResumeLatencyBenchmarkTest {
+
+    /**
+     * The port the service within each container listens on.
+     */
+    private static final int IMAGE_PORT = 5901;
+
+    /**
+     * The number of seconds the readiness probe waits for a service.
+     */
+    private static final int READY_TIMEOUT = 10;
+
+    /**
+     * The number of times each path is measured.
+     */
+    private static final int ITERATIONS =
+            Integer.getInteger("resume.benchmark.iterations", 5);
+
+    /**
+     * The stand-in Docker daemon.
+     */
+    private StubDockerDaemon daemon;
+
+    /**
+     * The client under test.
+     */
+    private DockerStartupClient client;
+
+    /**
+     * The local listener standing in for the service of every container.
+     */
+    private ServerSocket service;
+
+    @Before
+    public void setUp() throws Exception {
+
+        service = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+        daemon = new StubDockerDaemon();
+        daemon.setHostPort(service.getLocalPort());
+        daemon.setLatency("create", Long.getLong("resume.benchmark.create", 120));
+        daemon.setLatency("start", Long.getLong("resume.benchmark.start", 350));
+        daemon.setLatency("unpause", Long.getLong("resume.benchmark.unpause", 15));
+        daemon.setLatency("inspect", Long.getLong("resume.benchmark.inspect", 5));
+
+        client = daemon.createClient(4);
+        client.enableReadinessProbe(READY_TIMEOUT);
+
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        service.close();
+    }
+
+    /**
+     * Provision the given container and wait until its service accepts
+     * connections, returning the time taken.
+     *
+     * @param containerName
+     *     The name of the container.
+     *
+     * @return
+     *     The number of nanoseconds until the service was ready.
+     *
+     * @throws Exception
+     *     If the container could not be provisioned or never became ready.
+     */
+    private long timeUntilReady(String containerName) throws Exception {
+
+        ContainerSpec spec = new ContainerSpec("image", IMAGE_PORT, null);
+
+        long start = System.nanoTime();
+        Map<String, String> parameters = DockerStartupClient.await(
+                client.provisionContainerAsync(spec, containerName)
+                .thenCompose(snapshot -> client.getContainerConnectionAsync(snapshot, IMAGE_PORT))
+                .thenCompose(params -> client.awaitReadyAsync(params, "image")));
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue("The service should be reachable",
+                parameters.containsKey("port"));
+        return elapsed;
+
+    }
+
+    /**
+     * Return the median of the given durations, in milliseconds.
+     *
+     * @param durations
+     *     The durations, in nanoseconds.
+     *
+     * @return
+     *     The median duration, in milliseconds.
+     */
+    private static double medianMillis(long[] durations) {
+        long[] sorted = durations.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Test
+    public void resumeIsFasterThanColdStart() throws Exception {
+
+        long[] cold = new long[ITERATIONS];
+        long[] resumed = new long[ITERATIONS];
+
+        for (int i = 0; i < ITERATIONS; i++) {
+
+            String containerName = "benchmark-" + i;
+            cold[i] = timeUntilReady(containerName);
+
+            client.pauseContainer(containerName);
+            resumed[i] = timeUntilReady(containerName);
+
+        }
+
+        double coldMedian = medianMillis(cold);
+        double resumedMedian = medianMillis(resumed);
+        System.out.printf("Ready after create and start: %.1f ms; "
+                + "after unpause: %.1f ms (median of %d)%n",
+                coldMedian, resumedMedian, ITERATIONS);
+
+        assertTrue("Resuming a paused container should be faster than "
+                + "creating and starting one", resumedMedian < coldMedian);
+
+    }
+
+}
@@ -0,0 +1,665 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.guacamole.docker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.command.CreateContainerResponse;
+import com.github.dockerjava.api.command.DockerCmdExecFactory;
+import com.github.dockerjava.api.command.InspectContainerCmd;
+import com.github.dockerjava.api.command.InspectContainerResponse;
+import com.github.dockerjava.api.command.InspectImageCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.command.PauseContainerCmd;
+import com.github.dockerjava.api.command.RemoveContainerCmd;
+import com.github.dockerjava.api.command.StartContainerCmd;
+import com.github.dockerjava.api.command.StopContainerCmd;
+import com.github.dockerjava.api.command.UnpauseContainerCmd;
+import com.github.dockerjava.api.exception.ConflictException;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.exception.NotModifiedException;
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.core.DefaultDockerClientConfig;
+import com.github.dockerjava.core.DockerClientConfig;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory stand-in for a Docker daemon, serving the container commands
+ * used by DockerStartupClient through a DockerCmdExecFactory.  Every image
+ * is reported as present.  Container
+ * creation and starting can be held, such that calls block inside the
+ * daemon until released, and each command can be given a simulated latency.
+ */
+public class StubDockerDaemon {
+
+    /**
+     * The first host port assigned to a published container port.
+     */
+    private static final int FIRST_HOST_PORT = 32768;
+
+    /**
+     * Converts inspection results from their JSON form.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * All containers, keyed by name.
+     */
+    private final ConcurrentMap<String, StubContainer> containers =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The simulated latency of each command, in milliseconds, keyed by
+     * command name such as "start".
+     */
+    private final ConcurrentMap<String, Long> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * The number of create and start commands currently executing.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The number of create and start commands currently executing for each
+     * container.
+     */
+    private final ConcurrentMap<String, AtomicInteger> inFlightByName =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The greatest number of create and start commands which have executed
+     * at once for each container.
+     */
+    private final ConcurrentMap<String, AtomicInteger> maxInFlightByName =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The next host port to assign.
+     */
+    private final AtomicInteger nextHostPort = new AtomicInteger(FIRST_HOST_PORT);
+
+    /**
+     * The host port every published container port is bound to, or zero if
+     * each is assigned its own.
+     */
+    private volatile int fixedHostPort = 0;
+
+    /**
+     * Guards the hold on create and start commands.
+     */
+    private final Object gate = new Object();
+
+    /**
+     * Whether create and start commands are currently held.
+     */
+    private boolean held = false;
+
+    /**
+     * Return the configuration of a client of this daemon.
+     *
+     * @return
+     *     A client configuration, whose host is never contacted.
+     */
+    public DockerClientConfig getConfig() {
+        return DefaultDockerClientConfig.createDefaultConfigBuilder()
+                .withDockerHost("tcp://localhost:2375")
+                .build();
+    }
+
+    /**
+     * Create a client of this daemon.
+     *
+     * @param asyncThreads
+     *     The maximum number of threads the client uses for asynchronous
+     *     operations.
+     *
+     * @return
+     *     A new client whose commands are all served by this daemon.
+     */
+    public DockerStartupClient createClient(int asyncThreads) {
+        return new DockerStartupClient(getConfig(), null, getExecFactory(), 0,
+                new ContainerSnapshotCache(0, 0), false, asyncThreads,
+                asyncThreads * 4, 0);
+    }
+
+    /**
+     * Return a factory of executors which run every supported command
+     * against this daemon.
+     *
+     * @return
+     *     An exec factory backed by this daemon.
+     */
+    public DockerCmdExecFactory getExecFactory() {
+        return (DockerCmdExecFactory) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { DockerCmdExecFactory.class },
+                (factory, method, args) -> {
+
+                    if (method.getDeclaringClass() == Object.class)
+                        return handleObjectMethod(factory, method, args);
+
+                    // Every command shares the same executor
+                    Class<?> execType = method.getReturnType();
+                    if (method.getName().startsWith("create") && execType.isInterface())
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                new Class<?>[] { execType },
+                                (exec, execMethod, command) -> {
+                                    if (execMethod.getDeclaringClass() == Object.class)
+                                        return handleObjectMethod(exec, execMethod, command);
+                                    return execute(command[0]);
+                                });
+
+                    return null;
+
+                });
+    }
+
+    /**
+     * Handle an invocation of a method declared by Object on a proxy,
+     * giving each proxy identity semantics.
+     *
+     * @param proxy
+     *     The proxy invoked.
+     *
+     * @param method
+     *     The method invoked.
+     *
+     * @param args
+     *     The arguments of the invocation, or null if none.
+     *
+     * @return
+     *     The result of the method.
+     */
+    private static Object handleObjectMethod(Object proxy, Method method,
+            Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "StubDockerDaemon exec " + System.identityHashCode(proxy);
+        }
+    }
+
+    /**
+     * Give the named command a simulated latency.
+     *
+     * @param command
+     *     The name of the command, such as "create", "start", "stop",
+     *     "pause", "unpause", "inspect", or "remove".
+     *
+     * @param millis
+     *     The number of milliseconds the command takes.
+     */
+    public void setLatency(String command, long millis) {
+        latencies.put(command, millis);
+    }
+
+    /**
+     * Bind every container port published from now on to the given host
+     * port, such as that of a local listener standing in for the service of
+     * the container.
+     *
+     * @param port
+     *     The host port, or zero to assign each container its own.
+     */
+    public void setHostPort(int port) {
+        fixedHostPort = port;
+    }
+
+    /**
+     * Block all create and start commands until release() is invoked.
+     */
+    public void hold() {
+        synchronized (gate) {
+            held = true;
+        }
+    }
+
+    /**
+     * Allow all held create and start commands to complete.
+     */
+    public void release() {
+        synchronized (gate) {
+            held = false;
+            gate.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until at least the given number of create and start commands are
+     * executing at once.
+     *
+     * @param count
+     *     The number of commands to wait for.
+     *
+     * @param timeout
+     *     The maximum time to wait.
+     *
+     * @param unit
+     *     The unit of the timeout.
+     *
+     * @return
+     *     True if the given number of commands were executing at once,
+     *     false if the timeout passed first.
+     *
+     * @throws InterruptedException
+     *     If interrupted while waiting.
+     */
+    public boolean awaitInFlight(int count, long timeout, TimeUnit unit)
+            throws InterruptedException {
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight.get() < count) {
+            if (System.nanoTime() - deadline > 0)
+                return false;
+            Thread.sleep(5);
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Return the greatest number of create and start commands which have
+     * executed at once for the given container.
+     *
+     * @param name
+     *     The name of the container.
+     *
+     * @return
+     *     The greatest number of concurrent commands for the container.
+     */
+    public int getMaxInFlight(String name) {
+        AtomicInteger max = maxInFlightByName.get(name);
+        return (max != null) ? max.get() : 0;
+    }
+
+    /**
+     * Return the state of the given container.
+     *
+     * @param name
+     *     The name of the container.
+     *
+     * @return
+     *     "created", "running", "paused", or "exited", or null if the
+     *     container does not exist.
+     */
+    public String getState(String name) {
+        StubContainer container = containers.get(name);
+        return (container != null) ? container.state : null;
+    }
+
+    /**
+     * Run the given command against this daemon.
+     *
+     * @param command
+     *     The command to run.
+     *
+     * @return
+     *     The result of the command.
+     *
+     * @throws InterruptedException
+     *     If interrupted while the command is held or delayed.
+     */
+    private Object execute(Object command) throws InterruptedException {
+
+        if (command instanceof CreateContainerCmd) {
+            CreateContainerCmd create = (CreateContainerCmd) command;
+            return held("create", create.getName(), () -> create(create));
+        }
+
+        if (command instanceof StartContainerCmd) {
+            String name = ((StartContainerCmd) command).getContainerId();
+            return held("start", name, () -> transition(name, "start"));
+        }
+
+        if (command instanceof StopContainerCmd)
+            return delayed("stop", () -> transition(
+                    ((StopContainerCmd) command).getContainerId(), "stop"));
+
+        if (command instanceof PauseContainerCmd)
+            return delayed("pause", () -> transition(
+                    ((PauseContainerCmd) command).getContainerId(), "pause"));
+
+        if (command instanceof UnpauseContainerCmd)
+            return delayed("unpause", () -> transition(
+                    ((UnpauseContainerCmd) command).getContainerId(), "unpause"));
+
+        if (command instanceof InspectContainerCmd)
+            return delayed("inspect", () -> inspect(
+                    ((InspectContainerCmd) command).getContainerId()));
+
+        // Every image is present
+        if (command instanceof InspectImageCmd)
+            return MAPPER.convertValue(Collections.singletonMap("Id",
+                    ((InspectImageCmd) command).getImageId()),
+                    InspectImageResponse.class);
+
+        if (command instanceof RemoveContainerCmd)
+            return delayed("remove", () -> remove(
+                    ((RemoveContainerCmd) command).getContainerId()));
+
+        throw new UnsupportedOperationException("Unsupported command: "
+                + command.getClass().getName());
+
+    }
+
+    /**
+     * Run the given command after its simulated latency, and after any hold
+     * is released, counting it as in flight throughout.
+     *
+     * @param commandName
+     *     The name of the command.
+     *
+     * @param name
+     *     The name of the container the command acts upon.
+     *
+     * @param body
+     *     The effect of the command.
+     *
+     * @return
+     *     The result of the command.
+     *
+     * @throws InterruptedException
+     *     If interrupted while the command is held or delayed.
+     */
+    private Object held(String commandName, String name, Command body)
+            throws InterruptedException {
+
+        AtomicInteger forName = inFlightByName.computeIfAbsent(name,
+                key -> new AtomicInteger());
+        AtomicInteger max = maxInFlightByName.computeIfAbsent(name,
+                key -> new AtomicInteger());
+
+        max.accumulateAndGet(forName.incrementAndGet(), Math::max);
+        inFlight.incrementAndGet();
+        try {
+            synchronized (gate) {
+                while (held)
+                    gate.wait();
+            }
+            return delayed(commandName, body);
+        }
+        finally {
+            inFlight.decrementAndGet();
+            forName.decrementAndGet();
+        }
+
+    }
+
+    /**
+     * Run the given command after its simulated latency.
+     *
+     * @param commandName
+     *     The name of the command.
+     *
+     * @param body
+     *     The effect of the command.
+     *
+     * @return
+     *     The result of the command.
+     *
+     * @throws InterruptedException
+     *     If interrupted while delayed.
+     */
+    private Object delayed(String commandName, Command body)
+            throws InterruptedException {
+        Long latency = latencies.get(commandName);
+        if (latency != null && latency > 0)
+            Thread.sleep(latency);
+        return body.run();
+    }
+
+    /**
+     * Create a container, publishing each of its exposed ports.
+     *
+     * @param command
+     *     The create command.
+     *
+     * @return
+     *     The response naming the identifier of the new container.
+     */
+    private CreateContainerResponse create(CreateContainerCmd command) {
+
+        StubContainer container = new StubContainer(command.getName(),
+                command.getImage());
+        if (command.getExposedPorts() != null)
+            for (ExposedPort port : command.getExposedPorts())
+                container.ports.put(port.getPort(), (fixedHostPort != 0)
+                        ? fixedHostPort : nextHostPort.getAndIncrement());
+
+        if (containers.putIfAbsent(container.name, container) != null)
+            throw new ConflictException("Container " + container.name + " exists.");
+
+        CreateContainerResponse response = new CreateContainerResponse();
+        response.setId(container.id);
+        return response;
+
+    }
+
+    /**
+     * Apply the given lifecycle change to a container.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     *
+     * @param change
+     *     "start", "stop", "pause", or "unpause".
+     *
+     * @return
+     *     Null, as lifecycle commands return nothing.
+     */
+    private Object transition(String cid, String change) {
+
+        StubContainer container = find(cid);
+        synchronized (container) {
+            switch (change) {
+
+                case "start":
+                    if ("running".equals(container.state) || "paused".equals(container.state))
+                        throw new NotModifiedException("Container already started.");
+                    container.state = "running";
+                    break;
+
+                case "stop":
+                    if (!"running".equals(container.state) && !"paused".equals(container.state))
+                        throw new NotModifiedException("Container already stopped.");
+                    container.state = "exited";
+                    break;
+
+                case "pause":
+                    if (!"running".equals(container.state))
+                        throw new ConflictException("Container is not running.");
+                    container.state = "paused";
+                    break;
+
+                case "unpause":
+                    if (!"paused".equals(container.state))
+                        throw new ConflictException("Container is not paused.");
+                    container.state = "running";
+                    break;
+
+                default:
+                    throw new IllegalArgumentException(change);
+
+            }
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Inspect a container, reporting its host ports only while it is
+     * running or paused, as Docker does.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     *
+     * @return
+     *     The inspection result.
+     */
+    private InspectContainerResponse inspect(String cid) {
+
+        StubContainer container = find(cid);
+        Map<String, Object> state = new HashMap<>();
+        Map<String, Object> ports = new LinkedHashMap<>();
+        synchronized (container) {
+            state.put("Status", container.state);
+            state.put("Running", "running".equals(container.state)
+                    || "paused".equals(container.state));
+            state.put("Paused", "paused".equals(container.state));
+            boolean active = (Boolean) state.get("Running");
+            for (Map.Entry<Integer, Integer> port : container.ports.entrySet()) {
+                Map<String, String> binding = new HashMap<>();
+                binding.put("HostIp", "0.0.0.0");
+                binding.put("HostPort", port.getValue().toString());
+                ports.put(port.getKey() + "/tcp", active
+                        ? Collections.singletonList(binding) : null);
+            }
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("Id", container.id);
+        response.put("Name", "/" + container.name);
+        response.put("Config", Collections.singletonMap("Image", container.image));
+        response.put("State", state);
+        response.put("NetworkSettings", Collections.singletonMap("Ports", ports));
+        return MAPPER.convertValue(response, InspectContainerResponse.class);
+
+    }
+
+    /**
+     * Remove a container.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     *
+     * @return
+     *     Null, as removal returns nothing.
+     */
+    private Object remove(String cid) {
+        StubContainer container = find(cid);
+        containers.remove(container.name, container);
+        return null;
+    }
+
+    /**
+     * Return the container having the given name or identifier.
+     *
+     * @param cid
+     *     The name or identifier of the container.
+     *
+     * @return
+     *     The container.
+     *
+     * @throws NotFoundException
+     *     If no such container exists.
+     */
+    private StubContainer find(String cid) {
+
+        StubContainer container = containers.get(cid);
+        if (container != null)
+            return container;
+
+        for (StubContainer candidate : containers.values()) {
+            if (candidate.id.equals(cid))
+                return candidate;
+        }
+
+        throw new NotFoundException("No such container: " + cid);
+
+    }
+
+    /**
+     * The effect of a single command.
+     */
+    private interface Command {
+
+        /**
+         * Apply the command.
+         *
+         * @return
+         *     The result of the command.
+         */
+        Object run();
+
+    }
+
+    /**
+     * A single container known to the daemon.
+     */
+    private static class StubContainer {
+
+        /**
+         * The name of the container.
+         */
+        private final String name;
+
+        /**
+         * The identifier of the container.
+         */
+        private final String id;
+
+        /**
+         * The image of the container.
+         */
+        private final String image;
+
+        /**
+         * The host port published for each exposed container port.
+         */
+        private final Map<Integer, Integer> ports = new LinkedHashMap<>();
+
+        /**
+         * The state of the container.
+         */
+        private volatile String state = "created";
+
+        /**
+         * Create a new, stopped container.
+         *
+         * @param name
+         *     The name of the container.
+         *
+         * @param image
+         *     The image of the container.
+         */
+        StubContainer(String name, String image) {
+            this.name = name;
+            this.image = image;
+            this.id = Integer.toHexString(name.hashCode()) + Long.toHexString(System.nanoTime());
+        }
+
+    }
+
+}